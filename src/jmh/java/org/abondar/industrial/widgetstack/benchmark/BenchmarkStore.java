@@ -0,0 +1,109 @@
+package org.abondar.industrial.widgetstack.benchmark;
+
+import org.abondar.industrial.widgetstack.WidgetStackApplication;
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetId;
+import org.abondar.industrial.widgetstack.service.WidgetService;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * The application without the web layer, started either memory-only or with db-store on a
+ * private in-memory H2 database, plus a generator for reproducible store content. The DB
+ * read cache is off, so db=true reads measure the DB rather than cache hits.
+ * <p>
+ * Settings are passed as command line arguments: default properties would lose against
+ * application.yaml.
+ */
+final class BenchmarkStore implements AutoCloseable {
+
+    static final int COORD_RANGE = 1000;
+    static final int MAX_SIZE = 100;
+
+    private static final int INSERT_BATCH = 10_000;
+
+    private final ConfigurableApplicationContext context;
+    private final WidgetService service;
+    private final JdbcTemplate jdbc;
+    private final boolean dbStore;
+
+    BenchmarkStore(boolean dbStore) {
+        this.dbStore = dbStore;
+        this.context = new SpringApplicationBuilder(WidgetStackApplication.class)
+                .web(WebApplicationType.NONE)
+                .run("--db-store=" + dbStore,
+                        "--db-cache.enabled=false",
+                        "--spring.datasource.url=jdbc:h2:mem:bench-" + UUID.randomUUID(),
+                        "--spring.h2.console.enabled=false",
+                        "--spring.main.banner-mode=off",
+                        "--logging.level.root=warn");
+        this.service = context.getBean(WidgetService.class);
+        this.jdbc = context.getBean(JdbcTemplate.class);
+    }
+
+    WidgetService service() {
+        return service;
+    }
+
+    <T> T bean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    /**
+     * Replaces the store content, and the widget table in db-store mode, with size widgets at
+     * z-indexes 0 to size - 1, so inserting anywhere below the top shifts the rest.
+     *
+     * @return ids by z-index
+     */
+    WidgetId[] seed(int size) {
+        var random = new Random(size);
+        List<Widget> widgets = new ArrayList<>(size);
+        var ids = new WidgetId[size];
+        var now = new java.util.Date();
+        for (int z = 0; z < size; z++) {
+            var widget = randomWidget(random, z);
+            widget.setId(new WidgetId(random.nextLong(), random.nextLong()));
+            widget.setLastModified(now);
+            widgets.add(widget);
+            ids[z] = widget.getId();
+        }
+
+        if (dbStore) {
+            jdbc.execute("delete from widget");
+            for (int from = 0; from < size; from += INSERT_BATCH) {
+                jdbc.batchUpdate("insert into widget (id, x_coord, y_coord, z_index, width, height, last_modified) " +
+                                "values (?, ?, ?, ?, ?, ?, ?)",
+                        widgets.subList(from, Math.min(from + INSERT_BATCH, size)), INSERT_BATCH, (st, wd) -> {
+                            st.setString(1, wd.getId().toString());
+                            st.setInt(2, wd.getXCoord());
+                            st.setInt(3, wd.getYCoord());
+                            st.setInt(4, wd.getZIndex());
+                            st.setInt(5, wd.getWidth());
+                            st.setInt(6, wd.getHeight());
+                            st.setDate(7, new Date(wd.getLastModified().getTime()));
+                        });
+            }
+        }
+
+        service.load(widgets);
+        return ids;
+    }
+
+    static Widget randomWidget(Random random, Integer z) {
+        return new Widget(random.nextInt(COORD_RANGE), random.nextInt(COORD_RANGE), z,
+                1 + random.nextInt(MAX_SIZE), 1 + random.nextInt(MAX_SIZE));
+    }
+
+    @Override
+    public void close() {
+        context.close();
+    }
+}
@@ -0,0 +1,36 @@
+package org.abondar.industrial.widgetstack.benchmark;
+
+/**
+ * Where in the z order a benchmark inserts or reads: creating at the bottom shifts every
+ * widget, in the middle half of them, on top none.
+ */
+public enum Position {
+    BOTTOM,
+    MIDDLE,
+    TOP;
+
+    /**
+     * @return z-index to create at, null on top so the service appends
+     */
+    Integer zIndex(int size) {
+        switch (this) {
+            case BOTTOM:
+                return 0;
+            case MIDDLE:
+                return size / 2;
+            default:
+                return null;
+        }
+    }
+
+    int offset(int size, int limit) {
+        switch (this) {
+            case BOTTOM:
+                return 0;
+            case MIDDLE:
+                return size / 2;
+            default:
+                return Math.max(size - limit, 0);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.abondar.industrial.widgetstack.benchmark;
+
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates at the given position, including the z-shift of everything above it. Every create
+ * grows the store and may close gaps, so the store is seeded afresh for each iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class WidgetCreateBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    private int size;
+
+    @Param({"BOTTOM", "MIDDLE", "TOP"})
+    private Position position;
+
+    @Param({"false", "true"})
+    private boolean dbStore;
+
+    private BenchmarkStore store;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        store = new BenchmarkStore(dbStore);
+    }
+
+    @Setup(Level.Iteration)
+    public void seed() {
+        store.seed(size);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        store.close();
+    }
+
+    @Benchmark
+    public Widget create() {
+        var widget = BenchmarkStore.randomWidget(ThreadLocalRandom.current(), position.zIndex(size));
+        return store.service().create(widget);
+    }
+}
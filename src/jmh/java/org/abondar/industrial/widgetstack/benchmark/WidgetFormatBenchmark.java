@@ -0,0 +1,91 @@
+package org.abondar.industrial.widgetstack.benchmark;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes and decodes a list of widgets with the application's JSON and CBOR mappers, the
+ * same ones the controllers use. The encoded sizes of one widget and of the list are printed
+ * once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WidgetFormatBenchmark {
+
+    @Param({"500"})
+    private int size;
+
+    @Param({"json", "cbor"})
+    private String format;
+
+    private BenchmarkStore store;
+    private ObjectMapper mapper;
+    private JavaType listType;
+    private List<Widget> widgets;
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        store = new BenchmarkStore(false);
+        mapper = format.equals("cbor")
+                ? store.bean(MappingJackson2CborHttpMessageConverter.class).getObjectMapper()
+                : store.bean(ObjectMapper.class);
+        listType = mapper.getTypeFactory().constructCollectionType(List.class, Widget.class);
+
+        var random = new Random(size);
+        var now = new Date();
+        widgets = new ArrayList<>(size);
+        for (int z = 0; z < size; z++) {
+            var widget = BenchmarkStore.randomWidget(random, z);
+            widget.setId(new WidgetId(random.nextLong(), random.nextLong()));
+            widget.setLastModified(now);
+            widgets.add(widget);
+        }
+        encoded = mapper.writeValueAsBytes(widgets);
+
+        System.out.println(format + ": one widget " + mapper.writeValueAsBytes(widgets.get(0)).length +
+                " B, " + size + " widgets " + encoded.length + " B");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        store.close();
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return mapper.writeValueAsBytes(widgets);
+    }
+
+    @Benchmark
+    public List<Widget> decode() throws IOException {
+        return mapper.readValue(encoded, listType);
+    }
+}
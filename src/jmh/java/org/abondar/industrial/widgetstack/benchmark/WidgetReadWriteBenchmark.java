@@ -0,0 +1,109 @@
+package org.abondar.industrial.widgetstack.benchmark;
+
+import org.abondar.industrial.widgetstack.model.Filter;
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads and in-place updates against a store of fixed size. Updates keep the z-index of the
+ * widget, so the z layout, and with it the cost of every read, stays the same throughout.
+ * <p>
+ * The mixed group runs readers and writers side by side; its 3:1 split can be changed with
+ * -tg, e.g. -tg 1,1 or -tg 7,1.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class WidgetReadWriteBenchmark {
+
+    private static final int LIMIT = 100;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    private int size;
+
+    @Param({"BOTTOM", "MIDDLE", "TOP"})
+    private Position position;
+
+    @Param({"false", "true"})
+    private boolean dbStore;
+
+    private BenchmarkStore store;
+    private WidgetId[] ids;
+    private Filter filter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        store = new BenchmarkStore(dbStore);
+        ids = store.seed(size);
+
+        filter = new Filter();
+        filter.setXStop(BenchmarkStore.COORD_RANGE / 2);
+        filter.setYStop(BenchmarkStore.COORD_RANGE / 2);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        store.close();
+    }
+
+    @Benchmark
+    public List<Widget> getWidgets() throws Exception {
+        return store.service().getWidgets(position.offset(size, LIMIT), LIMIT, dbStore);
+    }
+
+    @Benchmark
+    public List<Widget> getFilteredWidgets() throws Exception {
+        return store.service().getFilteredWidgets(position.offset(size, LIMIT), LIMIT, dbStore, filter);
+    }
+
+    @Benchmark
+    public Widget update() throws Exception {
+        return updateRandom();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public List<Widget> mixedRead() throws Exception {
+        return store.service().getWidgets(position.offset(size, LIMIT), LIMIT, dbStore);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public Widget mixedWrite() throws Exception {
+        return updateRandom();
+    }
+
+    private Widget updateRandom() throws Exception {
+        var random = ThreadLocalRandom.current();
+        var z = random.nextInt(size);
+        var widget = BenchmarkStore.randomWidget(random, z);
+        widget.setId(ids[z]);
+        widget.setLastModified(new Date());
+        return store.service().update(widget, ids[z]);
+    }
+}
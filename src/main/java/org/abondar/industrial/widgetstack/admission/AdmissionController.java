@@ -0,0 +1,210 @@
+package org.abondar.industrial.widgetstack.admission;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.abondar.industrial.widgetstack.persistence.WidgetPersistence;
+import org.abondar.industrial.widgetstack.service.WidgetBoards;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admits requests per client and request class through token buckets whose rate follows the
+ * measured load. Every interval the controller looks at the lock queues of all boards,
+ * the writes pending for the durable copy and the p99 latency of each class; a class under
+ * pressure has its rate halved, down to min-factor of the configured rate, and otherwise
+ * grows back by a tenth per interval. Under light load every client gets the full
+ * configured rate.
+ * <p>
+ * A request finding its bucket empty waits for the next token if that is due within
+ * max-delay and is shed otherwise. Decisions are counted as {@code widget.admission} by
+ * class and decision; the current share of the rate is the {@code widget.admission.factor}
+ * gauge.
+ */
+@Component
+public class AdmissionController {
+
+    private static final double DECREASE = 0.5;
+    private static final double INCREASE = 0.1;
+    private static final double P99 = 0.99;
+
+    /**
+     * Outcome of an admission check.
+     */
+    public static final class Decision {
+        private final boolean admitted;
+        private final long wait;
+
+        private Decision(boolean admitted, long wait) {
+            this.admitted = admitted;
+            this.wait = wait;
+        }
+
+        public boolean isAdmitted() {
+            return admitted;
+        }
+
+        /**
+         * @return nanos to wait before proceeding if admitted, until a token is due if shed
+         */
+        public long getWait() {
+            return wait;
+        }
+    }
+
+    private final class ClassState {
+        private final double rate;
+        private final int burst;
+        private final Cache<String, TokenBucket> buckets;
+        private final Timer latency;
+        private final Counter admitted;
+        private final Counter queued;
+        private final Counter shed;
+        private volatile double factor = 1;
+
+        private ClassState(RequestClass requestClass, double rate, int burst, MeterRegistry registry) {
+            this.rate = rate;
+            this.burst = burst;
+            this.buckets = Caffeine.newBuilder()
+                    .expireAfterAccess(Duration.ofMinutes(10))
+                    .maximumSize(maxClients)
+                    .build();
+            this.latency = Timer.builder("widget.admission.latency")
+                    .description("Time spent handling admitted requests")
+                    .tag("class", requestClass.tag())
+                    .publishPercentiles(P99)
+                    .distributionStatisticExpiry(Duration.ofSeconds(10))
+                    .distributionStatisticBufferLength(2)
+                    .register(registry);
+            this.admitted = decisionCounter(registry, requestClass, "admitted");
+            this.queued = decisionCounter(registry, requestClass, "queued");
+            this.shed = decisionCounter(registry, requestClass, "shed");
+
+            Gauge.builder("widget.admission.factor", this, state -> state.factor)
+                    .description("Share of the configured rate clients currently get")
+                    .tag("class", requestClass.tag())
+                    .register(registry);
+        }
+
+        private Decision admit(String client, long now) {
+            var interval = (long) (TimeUnit.SECONDS.toNanos(1) / (rate * factor));
+            var wait = buckets.get(client, key -> new TokenBucket()).reserve(now, interval, burst, maxDelay);
+            if (wait > maxDelay) {
+                shed.increment();
+                return new Decision(false, wait);
+            }
+
+            (wait > 0 ? queued : admitted).increment();
+            return new Decision(true, wait);
+        }
+
+        private void adjust(boolean overloaded) {
+            factor = overloaded ? Math.max(minFactor, factor * DECREASE) : Math.min(1, factor + INCREASE);
+        }
+
+        private double p99Millis() {
+            for (var percentile : latency.takeSnapshot().percentileValues()) {
+                if (percentile.percentile() == P99) {
+                    return percentile.value(TimeUnit.MILLISECONDS);
+                }
+            }
+            return 0;
+        }
+    }
+
+    private final WidgetBoards boards;
+    private final WidgetPersistence persistence;
+    private final long maxDelay;
+    private final long interval;
+    private final double targetLatency;
+    private final int maxLockQueue;
+    private final int maxPendingWrites;
+    private final double minFactor;
+    private final long maxClients;
+    private final Map<RequestClass, ClassState> classes = new EnumMap<>(RequestClass.class);
+    private final AtomicLong lastAdjusted = new AtomicLong(System.nanoTime());
+
+    @Autowired
+    public AdmissionController(WidgetBoards boards, WidgetPersistence persistence, MeterRegistry registry,
+                               @Value("${admission.read-rate:200}") double readRate,
+                               @Value("${admission.read-burst:400}") int readBurst,
+                               @Value("${admission.write-rate:50}") double writeRate,
+                               @Value("${admission.write-burst:100}") int writeBurst,
+                               @Value("${admission.max-delay:100}") long maxDelay,
+                               @Value("${admission.interval:100}") long interval,
+                               @Value("${admission.target-latency:250}") double targetLatency,
+                               @Value("${admission.max-lock-queue:32}") int maxLockQueue,
+                               @Value("${admission.max-pending-writes:5000}") int maxPendingWrites,
+                               @Value("${admission.min-factor:0.05}") double minFactor,
+                               @Value("${admission.max-clients:100000}") long maxClients) {
+        this.boards = boards;
+        this.persistence = persistence;
+        this.maxDelay = TimeUnit.MILLISECONDS.toNanos(maxDelay);
+        this.interval = TimeUnit.MILLISECONDS.toNanos(interval);
+        this.targetLatency = targetLatency;
+        this.maxLockQueue = maxLockQueue;
+        this.maxPendingWrites = maxPendingWrites;
+        this.minFactor = minFactor;
+        this.maxClients = maxClients;
+
+        classes.put(RequestClass.READ, new ClassState(RequestClass.READ, readRate, readBurst, registry));
+        classes.put(RequestClass.WRITE, new ClassState(RequestClass.WRITE, writeRate, writeBurst, registry));
+    }
+
+    public Decision admit(String client, RequestClass requestClass) {
+        var now = System.nanoTime();
+        maybeAdjust(now);
+        return classes.get(requestClass).admit(client, now);
+    }
+
+    /**
+     * Reports how long an admitted request took, feeding the latency signal of its class.
+     */
+    public void record(RequestClass requestClass, long nanos) {
+        classes.get(requestClass).latency.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public double getFactor(RequestClass requestClass) {
+        return classes.get(requestClass).factor;
+    }
+
+    /**
+     * Re-reads the load signals once per interval, on whichever request first notices the
+     * interval has passed.
+     */
+    private void maybeAdjust(long now) {
+        var last = lastAdjusted.get();
+        if (now - last < interval || !lastAdjusted.compareAndSet(last, now)) {
+            return;
+        }
+        adjust();
+    }
+
+    void adjust() {
+        var read = classes.get(RequestClass.READ);
+        var write = classes.get(RequestClass.WRITE);
+
+        read.adjust(read.p99Millis() > targetLatency);
+        write.adjust(boards.getLockQueueLength() > maxLockQueue
+                || persistence.pending() > maxPendingWrites
+                || write.p99Millis() > targetLatency);
+    }
+
+    private static Counter decisionCounter(MeterRegistry registry, RequestClass requestClass, String decision) {
+        return Counter.builder("widget.admission")
+                .description("Admission decisions")
+                .tag("class", requestClass.tag())
+                .tag("decision", decision)
+                .register(registry);
+    }
+}
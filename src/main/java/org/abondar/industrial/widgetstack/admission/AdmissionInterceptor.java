@@ -0,0 +1,103 @@
+package org.abondar.industrial.widgetstack.admission;
+
+import org.abondar.industrial.widgetstack.cluster.ClusterNode;
+import org.abondar.industrial.widgetstack.cluster.ForwardingInterceptor;
+import org.springframework.core.ResolvableType;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs every request through the admission controller before its handler: shed requests
+ * get 429 with Retry-After, queued ones wait for their token first. Clients are told
+ * apart by address, so a client cannot pick its bucket. Only a request another cluster node
+ * forwarded is admitted for the client named in its X-Client-Id. Async redispatches were
+ * admitted with their original request and pass through.
+ * <p>
+ * Streamed responses are admitted but their duration is not reported as latency: it
+ * depends on how long the client keeps the stream open, not on how loaded the store is.
+ */
+public class AdmissionInterceptor implements HandlerInterceptor {
+
+    public static final String CLIENT_HEADER = "X-Client-Id";
+
+    private static final String STARTED = AdmissionInterceptor.class.getName() + ".started";
+
+    private final AdmissionController admission;
+    private final ClusterNode cluster;
+
+    public AdmissionInterceptor(AdmissionController admission, ClusterNode cluster) {
+        this.admission = admission;
+        this.cluster = cluster;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+            throws Exception {
+        if (request.getDispatcherType() != DispatcherType.REQUEST) {
+            return true;
+        }
+
+        var decision = admission.admit(client(request), RequestClass.of(request.getMethod()));
+        if (!decision.isAdmitted()) {
+            var seconds = Math.max(1, (long) Math.ceil(decision.getWait() / (double) TimeUnit.SECONDS.toNanos(1)));
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(seconds));
+            response.sendError(HttpStatus.TOO_MANY_REQUESTS.value(), "Too many requests");
+            return false;
+        }
+
+        if (decision.getWait() > 0) {
+            TimeUnit.NANOSECONDS.sleep(decision.getWait());
+        }
+        if (!isStreamed(handler)) {
+            request.setAttribute(STARTED, System.nanoTime());
+        }
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        var started = (Long) request.getAttribute(STARTED);
+        if (started != null) {
+            request.removeAttribute(STARTED);
+            admission.record(RequestClass.of(request.getMethod()), System.nanoTime() - started);
+        }
+    }
+
+    private static boolean isStreamed(Object handler) {
+        if (!(handler instanceof HandlerMethod)) {
+            return false;
+        }
+
+        var type = ResolvableType.forMethodParameter(((HandlerMethod) handler).getReturnType());
+        if (HttpEntity.class.isAssignableFrom(type.toClass())) {
+            type = type.as(HttpEntity.class).getGeneric();
+        }
+        var resolved = type.toClass();
+        return ResponseBodyEmitter.class.isAssignableFrom(resolved)
+                || StreamingResponseBody.class.isAssignableFrom(resolved);
+    }
+
+    /**
+     * The client a request is admitted for: its address, or the X-Client-Id of a request
+     * forwarded from a cluster node. The header is ignored from anyone else.
+     */
+    String client(HttpServletRequest request) {
+        var client = request.getHeader(CLIENT_HEADER);
+        if (client != null && request.getHeader(ForwardingInterceptor.FORWARDED_HEADER) != null
+                && cluster.isPeer(request.getRemoteAddr())) {
+            return client;
+        }
+        return request.getRemoteAddr();
+    }
+}
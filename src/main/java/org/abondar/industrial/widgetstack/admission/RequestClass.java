@@ -0,0 +1,18 @@
+package org.abondar.industrial.widgetstack.admission;
+
+/**
+ * Endpoint classes admitted separately: reads are served from snapshots without a lock,
+ * writes queue for the store lock and the durable copy.
+ */
+public enum RequestClass {
+    READ,
+    WRITE;
+
+    static RequestClass of(String httpMethod) {
+        return "GET".equals(httpMethod) || "HEAD".equals(httpMethod) ? READ : WRITE;
+    }
+
+    String tag() {
+        return name().toLowerCase();
+    }
+}
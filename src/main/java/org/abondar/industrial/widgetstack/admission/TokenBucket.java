@@ -0,0 +1,38 @@
+package org.abondar.industrial.widgetstack.admission;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket kept as a single theoretical arrival time (the GCRA form), so taking a token
+ * is one compare-and-set and needs no lock. The rate is passed on every call, which lets
+ * the caller change it as load changes without touching the buckets.
+ */
+final class TokenBucket {
+
+    private final AtomicLong arrival = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Reserves a token unless the wait for it would exceed maxDelay.
+     *
+     * @param now      current time in nanos
+     * @param interval nanos between tokens at the current rate
+     * @param burst    tokens that may be taken at once
+     * @param maxDelay longest wait in nanos the caller accepts
+     * @return nanos to wait before the token may be used, 0 when it is available now; a
+     * result above maxDelay means no token was taken
+     */
+    long reserve(long now, long interval, int burst, long maxDelay) {
+        var tolerance = interval * (burst - 1);
+        while (true) {
+            var current = arrival.get();
+            var start = Math.max(current, now);
+            var wait = Math.max(start - now - tolerance, 0);
+            if (wait > maxDelay) {
+                return wait;
+            }
+            if (arrival.compareAndSet(current, start + interval)) {
+                return wait;
+            }
+        }
+    }
+}
@@ -0,0 +1,408 @@
+package org.abondar.industrial.widgetstack.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.abondar.industrial.widgetstack.model.NodeStatus;
+import org.abondar.industrial.widgetstack.service.WidgetBoards;
+import org.abondar.industrial.widgetstack.service.WidgetService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/**
+ * Membership and leadership of this node in cluster mode. One node, the leader, runs every
+ * write through its service and so sequences all changes, z-index assignment included; its
+ * change log is the replication log. Followers pull it, board by board, through a {@link Replicator}, serve
+ * reads from their own store and forward writes to the leader.
+ * <p>
+ * Every heartbeat each node asks all others for their {@link NodeStatus}. A node follows the
+ * leader of the highest term it has seen, the lower leader id winning within one term. When
+ * the leader has not answered for the election timeout, or answers without leading, the
+ * live node with the highest position, the lowest id among equals, takes over in the next
+ * term. A node that just started waits one election timeout to learn the current leader
+ * before taking part. Replication is asynchronous and there is no quorum: writes the old
+ * leader acknowledged but no follower pulled yet are lost on failover, and a partition
+ * can have a leader on each side until it heals.
+ * <p>
+ * With cluster mode off the node is always the leader and nothing runs.
+ */
+@Component
+@Slf4j
+public class ClusterNode implements SmartLifecycle {
+
+    private final boolean enabled;
+    private final int nodeId;
+    private final List<String> nodes;
+    private final Set<InetAddress> peers;
+    private final long heartbeat;
+    private final long electionTimeout;
+    private final long pollInterval;
+    private final Duration requestTimeout;
+
+    private final WidgetBoards boards;
+    private final ObjectMapper mapper;
+    private final HttpClient client;
+    private final Replicator replicator;
+
+    private final long[] lastSeen;
+    private final NodeStatus[] statuses;
+
+    private long term;
+    private int leader = -1;
+    private long started;
+
+    private volatile boolean running;
+    private ScheduledExecutorService heartbeats;
+    private Thread replication;
+
+    @Autowired
+    public ClusterNode(WidgetBoards boards, ObjectMapper mapper,
+                       @Value("${cluster.enabled:false}") boolean enabled,
+                       @Value("${cluster.node-id:0}") int nodeId,
+                       @Value("${cluster.nodes:}") String[] nodes,
+                       @Value("${cluster.heartbeat:200}") long heartbeat,
+                       @Value("${cluster.election-timeout:1000}") long electionTimeout,
+                       @Value("${cluster.poll-interval:50}") long pollInterval,
+                       @Value("${cluster.request-timeout:2000}") long requestTimeout) {
+        this.enabled = enabled;
+        this.nodeId = nodeId;
+        this.nodes = Arrays.stream(nodes)
+                .map(String::trim)
+                .filter(node -> !node.isEmpty())
+                .map(node -> node.endsWith("/") ? node.substring(0, node.length() - 1) : node)
+                .collect(Collectors.toList());
+        if (enabled && (nodeId < 0 || nodeId >= this.nodes.size())) {
+            throw new IllegalArgumentException("Node id " + nodeId + " is not an index into cluster nodes " + this.nodes);
+        }
+
+        this.peers = enabled ? resolve(this.nodes) : Set.of();
+        this.heartbeat = heartbeat;
+        this.electionTimeout = electionTimeout;
+        this.pollInterval = pollInterval;
+        this.requestTimeout = Duration.ofMillis(requestTimeout);
+
+        this.boards = boards;
+        this.mapper = mapper;
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(this.requestTimeout)
+                .build();
+        this.replicator = new Replicator(boards, mapper, client, "node-" + nodeId, this.requestTimeout);
+
+        this.lastSeen = new long[this.nodes.size()];
+        this.statuses = new NodeStatus[this.nodes.size()];
+        if (!enabled) {
+            leader = nodeId;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Whether a request came from one of the cluster nodes.
+     *
+     * @param address remote address of the request, an IP literal
+     */
+    public boolean isPeer(String address) {
+        if (peers.isEmpty()) {
+            return false;
+        }
+        try {
+            return peers.contains(InetAddress.getByName(address));
+        } catch (UnknownHostException ex) {
+            return false;
+        }
+    }
+
+    public synchronized boolean isLeader() {
+        return leader == nodeId;
+    }
+
+    /**
+     * @return base URL of the leader, or null while this node knows none
+     */
+    public synchronized String getLeaderUrl() {
+        return leader < 0 || !enabled ? null : nodes.get(leader);
+    }
+
+    public synchronized NodeStatus status() {
+        var position = leader == nodeId ? storeVersion() : replicator.getPosition();
+        return new NodeStatus(nodeId, term, leader, position);
+    }
+
+    /**
+     * The store versions of all boards summed up, comparable with a follower's position.
+     */
+    private long storeVersion() {
+        return boards.all().stream()
+                .mapToLong(WidgetService::getStoreVersion)
+                .sum();
+    }
+
+    /**
+     * The addresses of the nodes, looked up once. A node whose host does not resolve is left
+     * out, so the clients it forwards are admitted as the node itself.
+     */
+    private static Set<InetAddress> resolve(List<String> nodes) {
+        Set<InetAddress> res = new HashSet<>();
+        for (var node : nodes) {
+            try {
+                res.addAll(Arrays.asList(InetAddress.getAllByName(URI.create(node).getHost())));
+            } catch (UnknownHostException | IllegalArgumentException ex) {
+                log.warn("Cannot resolve cluster node {}: {}", node, ex.getMessage());
+            }
+        }
+        return res;
+    }
+
+    HttpClient getClient() {
+        return client;
+    }
+
+    Duration getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    /**
+     * Pulls the leader's changes right away, so a write just forwarded to it can be read
+     * here. Failures are left to the next regular pull.
+     */
+    void catchUp() throws InterruptedException {
+        var url = followedLeader();
+        if (url == null) {
+            return;
+        }
+        try {
+            replicator.pull(url);
+        } catch (IOException ex) {
+            log.debug("Catching up with {} failed: {}", url, ex.getMessage());
+        }
+    }
+
+    @Override
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+
+        running = true;
+        started = System.nanoTime();
+        heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "cluster-heartbeat"));
+        heartbeats.scheduleWithFixedDelay(this::heartbeat, 0, heartbeat, TimeUnit.MILLISECONDS);
+        replication = new Thread(this::replicate, "cluster-replication");
+        replication.start();
+    }
+
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+
+        running = false;
+        heartbeats.shutdownNow();
+        replication.interrupt();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void heartbeat() {
+        try {
+            var now = System.nanoTime();
+            poll(now);
+            elect(now);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException ex) {
+            log.warn("Heartbeat failed", ex);
+        }
+    }
+
+    /**
+     * Asks all other nodes for their status at once and waits up to the request timeout.
+     */
+    private void poll(long now) throws InterruptedException {
+        List<CompletableFuture<Void>> requests = new ArrayList<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            if (i == nodeId) {
+                continue;
+            }
+
+            var node = i;
+            var request = HttpRequest.newBuilder(URI.create(nodes.get(i) + "/cluster/status"))
+                    .timeout(requestTimeout)
+                    .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+                    .GET()
+                    .build();
+            requests.add(client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                    .thenAccept(response -> {
+                        if (response.statusCode() == 200) {
+                            seen(node, response.body(), now);
+                        }
+                    }));
+        }
+
+        try {
+            CompletableFuture.allOf(requests.toArray(new CompletableFuture[0]))
+                    .get(requestTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException ex) {
+            log.debug("Status poll incomplete: {}", ex.getMessage());
+        }
+    }
+
+    private void seen(int node, byte[] body, long now) {
+        try {
+            var status = mapper.readValue(body, NodeStatus.class);
+            synchronized (this) {
+                statuses[node] = status;
+                lastSeen[node] = now;
+            }
+        } catch (IOException ex) {
+            log.debug("Bad status from {}: {}", nodes.get(node), ex.getMessage());
+        }
+    }
+
+    private synchronized void elect(long now) {
+        for (int i = 0; i < nodes.size(); i++) {
+            if (i != nodeId && isAlive(i, now)) {
+                adopt(statuses[i]);
+            }
+        }
+
+        if (leader == nodeId || isLeading(leader, now)) {
+            return;
+        }
+        if (now - started < TimeUnit.MILLISECONDS.toNanos(electionTimeout)) {
+            return;
+        }
+
+        var candidate = nodeId;
+        var best = replicator.getPosition();
+        var maxTerm = term;
+        for (int i = 0; i < nodes.size(); i++) {
+            if (i == nodeId || !isAlive(i, now)) {
+                continue;
+            }
+            var status = statuses[i];
+            maxTerm = Math.max(maxTerm, status.getTerm());
+            if (status.getPosition() > best || status.getPosition() == best && i < candidate) {
+                candidate = i;
+                best = status.getPosition();
+            }
+        }
+
+        if (candidate == nodeId) {
+            term = maxTerm + 1;
+            leader = nodeId;
+            replicator.reset();
+            log.info("Node {} leads in term {}", nodeId, term);
+        }
+    }
+
+    /**
+     * Follows the leader another node reports if it is newer than the one followed now. A
+     * status naming this node as leader is only taken from its own term, so a node that
+     * restarted does not lead with an empty store just because the others still think so.
+     */
+    private void adopt(NodeStatus status) {
+        var other = status.getLeader();
+        if (other < 0 || other >= nodes.size()) {
+            return;
+        }
+        if (other == nodeId && !(leader == nodeId && term == status.getTerm())) {
+            return;
+        }
+
+        if (status.getTerm() > term || status.getTerm() == term && (leader < 0 || other < leader)) {
+            if (leader == nodeId && other != nodeId) {
+                log.info("Node {} steps down for node {} in term {}", nodeId, other, status.getTerm());
+            }
+            if (leader != other) {
+                log.info("Node {} follows node {} in term {}", nodeId, other, status.getTerm());
+            }
+            term = status.getTerm();
+            leader = other;
+        }
+    }
+
+    private boolean isAlive(int node, long now) {
+        return statuses[node] != null
+                && now - lastSeen[node] < TimeUnit.MILLISECONDS.toNanos(electionTimeout);
+    }
+
+    /**
+     * The node answers and still leads in the current term.
+     */
+    private boolean isLeading(int node, long now) {
+        return node >= 0 && isAlive(node, now)
+                && statuses[node].getLeader() == node
+                && statuses[node].getTerm() >= term;
+    }
+
+    /**
+     * @return base URL of the leader if this node follows one
+     */
+    private synchronized String followedLeader() {
+        return leader < 0 || leader == nodeId ? null : nodes.get(leader);
+    }
+
+    private void replicate() {
+        while (running) {
+            try {
+                var url = followedLeader();
+                if (url == null || !replicator.pull(url)) {
+                    Thread.sleep(pollInterval);
+                }
+            } catch (IOException ex) {
+                log.debug("Replication pull failed: {}", ex.getMessage());
+                sleep();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException ex) {
+                log.warn("Replication pull failed", ex);
+                sleep();
+            }
+        }
+    }
+
+    private void sleep() {
+        try {
+            Thread.sleep(pollInterval);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
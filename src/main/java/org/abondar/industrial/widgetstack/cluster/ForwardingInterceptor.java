@@ -0,0 +1,89 @@
+package org.abondar.industrial.widgetstack.cluster;
+
+import org.abondar.industrial.widgetstack.admission.AdmissionInterceptor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+/**
+ * Sends writes that reach a follower on to the leader and relays its answer, so clients may
+ * use any node. Before answering, the follower pulls the leader's changes, so the client
+ * reads its own write from this node right after. A write forwarded once is never forwarded
+ * again: a node that got it without leading answers 503, as does a follower without a
+ * reachable leader. The address of the original client goes along as X-Client-Id, which
+ * the leader's admission control trusts from cluster nodes only.
+ */
+public class ForwardingInterceptor implements HandlerInterceptor {
+
+    public static final String FORWARDED_HEADER = "X-Forwarded-By";
+
+    private static final List<String> REQUEST_HEADERS = List.of(HttpHeaders.CONTENT_TYPE, HttpHeaders.ACCEPT,
+            HttpHeaders.IF_NONE_MATCH, "db");
+    private static final List<String> RESPONSE_HEADERS = List.of(HttpHeaders.CONTENT_TYPE, HttpHeaders.RETRY_AFTER,
+            HttpHeaders.ETAG, "X-Next-Cursor");
+
+    private final ClusterNode node;
+
+    public ForwardingInterceptor(ClusterNode node) {
+        this.node = node;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+            throws Exception {
+        if (request.getDispatcherType() != DispatcherType.REQUEST || isRead(request) || node.isLeader()) {
+            return true;
+        }
+
+        var leader = node.getLeaderUrl();
+        if (leader == null || request.getHeader(FORWARDED_HEADER) != null) {
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), "No leader");
+            return false;
+        }
+
+        var query = request.getQueryString();
+        var uri = leader + request.getRequestURI() + (query == null ? "" : "?" + query);
+        var forwarded = HttpRequest.newBuilder(URI.create(uri))
+                .timeout(node.getRequestTimeout())
+                .method(request.getMethod(),
+                        HttpRequest.BodyPublishers.ofByteArray(request.getInputStream().readAllBytes()))
+                .header(FORWARDED_HEADER, String.valueOf(node.getNodeId()))
+                .header(AdmissionInterceptor.CLIENT_HEADER, request.getRemoteAddr());
+        for (var name : REQUEST_HEADERS) {
+            var value = request.getHeader(name);
+            if (value != null) {
+                forwarded.header(name, value);
+            }
+        }
+
+        HttpResponse<byte[]> res;
+        try {
+            res = node.getClient().send(forwarded.build(), HttpResponse.BodyHandlers.ofByteArray());
+        } catch (IOException ex) {
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), "Leader unreachable");
+            return false;
+        }
+
+        node.catchUp();
+
+        response.setStatus(res.statusCode());
+        for (var name : RESPONSE_HEADERS) {
+            res.headers().firstValue(name).ifPresent(value -> response.setHeader(name, value));
+        }
+        response.getOutputStream().write(res.body());
+        return false;
+    }
+
+    private static boolean isRead(HttpServletRequest request) {
+        return "GET".equals(request.getMethod()) || "HEAD".equals(request.getMethod());
+    }
+}
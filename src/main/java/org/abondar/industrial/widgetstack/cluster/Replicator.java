@@ -0,0 +1,176 @@
+package org.abondar.industrial.widgetstack.cluster;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.abondar.industrial.widgetstack.admission.AdmissionInterceptor;
+import org.abondar.industrial.widgetstack.exception.InvalidBoardException;
+import org.abondar.industrial.widgetstack.model.WidgetChanges;
+import org.abondar.industrial.widgetstack.service.WidgetBoards;
+import org.abondar.industrial.widgetstack.service.WidgetService;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps a follower's boards in step with the leader. Each pull asks the leader for the store
+ * version of every board and, for each board whose version moved past the last leader version
+ * applied, its position, asks for the net changes since then and applies them as they are.
+ * When the leader cannot tell the changes of a board, because its change log no longer
+ * reaches back or it restarted, the board is copied from the leader's snapshot instead and
+ * its position starts over from there. A different leader, or the same one after a restart,
+ * has every board copied, and boards it does not have are emptied.
+ */
+@Slf4j
+class Replicator {
+
+    private static final TypeReference<Map<String, Long>> VERSIONS = new TypeReference<>() {
+    };
+
+    private final WidgetBoards boards;
+    private final ObjectMapper mapper;
+    private final HttpClient client;
+    private final String clientId;
+    private final Duration timeout;
+
+    private String source;
+    private String epoch;
+    private final Map<String, Long> positions = new ConcurrentHashMap<>();
+
+    Replicator(WidgetBoards boards, ObjectMapper mapper, HttpClient client, String clientId, Duration timeout) {
+        this.boards = boards;
+        this.mapper = mapper;
+        this.client = client;
+        this.clientId = clientId;
+        this.timeout = timeout;
+    }
+
+    /**
+     * The leader versions applied, summed over all boards.
+     */
+    long getPosition() {
+        return positions.values().stream()
+                .mapToLong(Long::longValue)
+                .sum();
+    }
+
+    /**
+     * Forgets the positions, so the next pull copies every board.
+     */
+    synchronized void reset() {
+        source = null;
+        epoch = null;
+        positions.clear();
+    }
+
+    /**
+     * @param leader base URL of the leader
+     * @return true if anything was applied
+     */
+    synchronized boolean pull(String leader) throws IOException, InterruptedException {
+        var response = get(leader + "/cluster/boards");
+        Map<String, Long> versions = mapper.readValue(response.body(), VERSIONS);
+
+        var applied = false;
+        var leaderEpoch = epoch(response);
+        if (!leader.equals(source) || !leaderEpoch.equals(epoch)) {
+            positions.clear();
+            source = leader;
+            epoch = leaderEpoch;
+            applied = dropMissing(versions);
+        }
+
+        for (var entry : versions.entrySet()) {
+            var position = positions.get(entry.getKey());
+            if (position == null) {
+                resync(leader, entry.getKey());
+                applied = true;
+            } else if (position != entry.getValue().longValue()) {
+                applied |= pull(leader, entry.getKey(), position);
+            }
+        }
+        return applied;
+    }
+
+    private boolean pull(String leader, String boardId, long position) throws IOException, InterruptedException {
+        var response = get(leader + "/cluster/delta?board=" + boardId + "&since=" + position + "&epoch=" + epoch);
+        var changes = mapper.readValue(response.body(), WidgetChanges.class);
+        if (changes.isResync()) {
+            resync(leader, boardId);
+            return true;
+        }
+
+        var changed = !changes.getUpserts().isEmpty() || !changes.getDeletes().isEmpty();
+        if (changed) {
+            board(boardId).replicate(changes.getUpserts(), changes.getDeletes());
+        }
+        positions.put(boardId, changes.getVersion());
+        return changed;
+    }
+
+    private void resync(String leader, String boardId) throws IOException, InterruptedException {
+        var response = get(leader + "/cluster/snapshot?board=" + boardId);
+        var snapshot = mapper.readValue(response.body(), WidgetChanges.class);
+        board(boardId).replace(snapshot.getUpserts());
+
+        positions.put(boardId, snapshot.getVersion());
+        log.info("Copied {} widgets of board {} from {} at version {}", snapshot.getUpserts().size(), boardId,
+                leader, snapshot.getVersion());
+    }
+
+    /**
+     * Empties the boards of this node the leader does not have.
+     */
+    private boolean dropMissing(Map<String, Long> versions) {
+        var dropped = false;
+        for (var service : boards.all()) {
+            if (!versions.containsKey(service.getBoardId()) && service.getStoreVersion() > 0) {
+                service.replace(List.of());
+                dropped = true;
+            }
+        }
+        return dropped;
+    }
+
+    private WidgetService board(String boardId) throws IOException {
+        try {
+            return boards.get(boardId);
+        } catch (InvalidBoardException ex) {
+            throw new IOException("Leader sent board " + boardId, ex);
+        }
+    }
+
+    private HttpResponse<byte[]> get(String uri) throws IOException, InterruptedException {
+        var request = HttpRequest.newBuilder(URI.create(uri))
+                .timeout(timeout)
+                .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+                .header(AdmissionInterceptor.CLIENT_HEADER, clientId)
+                .GET()
+                .build();
+
+        var response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200) {
+            throw new IOException("GET " + uri + " returned " + response.statusCode());
+        }
+        return response;
+    }
+
+    /**
+     * The epoch part of a version ETag, {@code W/"<epoch>-<version>"}.
+     */
+    private static String epoch(HttpResponse<?> response) throws IOException {
+        var etag = response.headers().firstValue(HttpHeaders.ETAG)
+                .orElseThrow(() -> new IOException("Response without ETag"));
+        var tag = etag.substring(etag.indexOf('"') + 1, etag.lastIndexOf('"'));
+        return tag.substring(0, tag.lastIndexOf('-'));
+    }
+}
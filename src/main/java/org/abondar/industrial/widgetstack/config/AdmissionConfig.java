@@ -0,0 +1,28 @@
+package org.abondar.industrial.widgetstack.config;
+
+import org.abondar.industrial.widgetstack.admission.AdmissionController;
+import org.abondar.industrial.widgetstack.admission.AdmissionInterceptor;
+import org.abondar.industrial.widgetstack.cluster.ClusterNode;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class AdmissionConfig {
+
+    @Bean
+    public WebMvcConfigurer admission(AdmissionController admission, ClusterNode cluster,
+                                      @Value("${admission.enabled:true}") boolean enabled) {
+        return new WebMvcConfigurer() {
+            @Override
+            public void addInterceptors(InterceptorRegistry registry) {
+                if (enabled) {
+                    registry.addInterceptor(new AdmissionInterceptor(admission, cluster))
+                            .addPathPatterns("/widget", "/widget/**", "/board/**");
+                }
+            }
+        };
+    }
+}
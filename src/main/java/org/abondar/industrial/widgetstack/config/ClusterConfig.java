@@ -0,0 +1,25 @@
+package org.abondar.industrial.widgetstack.config;
+
+import org.abondar.industrial.widgetstack.cluster.ClusterNode;
+import org.abondar.industrial.widgetstack.cluster.ForwardingInterceptor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class ClusterConfig {
+
+    @Bean
+    public WebMvcConfigurer forwarding(ClusterNode node) {
+        return new WebMvcConfigurer() {
+            @Override
+            public void addInterceptors(InterceptorRegistry registry) {
+                if (node.isEnabled()) {
+                    registry.addInterceptor(new ForwardingInterceptor(node))
+                            .addPathPatterns("/widget", "/widget/**", "/board/**");
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,62 @@
+package org.abondar.industrial.widgetstack.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.web.servlet.WebMvcRegistrations;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+public class ExecutionConfig {
+
+    @Bean(destroyMethod = "shutdown")
+    public ThreadPoolExecutor widgetExecutor(@Value("${execution.threads:16}") int threads,
+                                             @Value("${execution.queue:1000}") int queue,
+                                             MeterRegistry registry) {
+        var executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queue), new CustomizableThreadFactory("widget-exec-"),
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        ExecutorServiceMetrics.monitor(registry, executor, "widget.execution", List.of());
+        return executor;
+    }
+
+    @Bean
+    public WebMvcRegistrations executionMode(@Value("${execution.mode:blocking}") String mode,
+                                             ThreadPoolExecutor widgetExecutor) {
+        switch (mode) {
+            case "blocking":
+                return new WebMvcRegistrations() {
+                };
+            case "async":
+                return new WebMvcRegistrations() {
+                    @Override
+                    public RequestMappingHandlerAdapter getRequestMappingHandlerAdapter() {
+                        return new OffloadingHandlerAdapter(widgetExecutor);
+                    }
+                };
+            default:
+                throw new IllegalStateException("Unknown execution mode: " + mode);
+        }
+    }
+
+    @Bean
+    public WebMvcConfigurer asyncTimeout(@Value("${execution.timeout:30000}") long timeout) {
+        return new WebMvcConfigurer() {
+            @Override
+            public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+                configurer.setDefaultTimeout(timeout);
+            }
+        };
+    }
+}
@@ -0,0 +1,16 @@
+package org.abondar.industrial.widgetstack.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public static BeanPostProcessor repositoryTimer(ObjectProvider<MeterRegistry> registry) {
+        return new RepositoryTimer(registry);
+    }
+}
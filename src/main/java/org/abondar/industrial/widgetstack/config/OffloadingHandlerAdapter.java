@@ -0,0 +1,86 @@
+package org.abondar.industrial.widgetstack.config;
+
+import org.springframework.core.ResolvableType;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.http.HttpEntity;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.method.support.ModelAndViewContainer;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.ServletInvocableHandlerMethod;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs REST controller methods on the given executor instead of the servlet thread. Arguments,
+ * including the request body, are resolved on the servlet thread; the method itself is
+ * invoked on the executor and its result is handed back to MVC as a CompletableFuture, so
+ * the servlet thread returns to the pool while the service works.
+ * <p>
+ * Methods whose result is asynchronous already, such as streamed bodies, run as before.
+ * When the executor rejects a call the RejectedExecutionException is raised to the caller.
+ */
+final class OffloadingHandlerAdapter extends RequestMappingHandlerAdapter {
+
+    private static final List<Class<?>> ASYNC_TYPES = List.of(StreamingResponseBody.class,
+            ResponseBodyEmitter.class, Callable.class, CompletionStage.class, DeferredResult.class,
+            WebAsyncTask.class);
+
+    private final Executor executor;
+
+    OffloadingHandlerAdapter(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    protected ServletInvocableHandlerMethod createInvocableHandlerMethod(HandlerMethod handlerMethod) {
+        if (!AnnotatedElementUtils.hasAnnotation(handlerMethod.getBeanType(), RestController.class)
+                || isAsync(handlerMethod)) {
+            return super.createInvocableHandlerMethod(handlerMethod);
+        }
+        return new OffloadedHandlerMethod(handlerMethod, executor);
+    }
+
+    private static boolean isAsync(HandlerMethod handlerMethod) {
+        var type = ResolvableType.forMethodParameter(handlerMethod.getReturnType());
+        if (HttpEntity.class.isAssignableFrom(type.toClass())) {
+            type = type.as(HttpEntity.class).getGeneric();
+        }
+
+        var resolved = type.toClass();
+        return ASYNC_TYPES.stream().anyMatch(async -> async.isAssignableFrom(resolved));
+    }
+
+    private static final class OffloadedHandlerMethod extends ServletInvocableHandlerMethod {
+
+        private final Executor executor;
+
+        private OffloadedHandlerMethod(HandlerMethod handlerMethod, Executor executor) {
+            super(handlerMethod);
+            this.executor = executor;
+        }
+
+        @Override
+        public Object invokeForRequest(NativeWebRequest request, ModelAndViewContainer mavContainer,
+                                       Object... providedArgs) throws Exception {
+            var args = getMethodArgumentValues(request, mavContainer, providedArgs);
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return doInvoke(args);
+                } catch (Exception ex) {
+                    throw new CompletionException(ex);
+                }
+            }, executor);
+        }
+    }
+}
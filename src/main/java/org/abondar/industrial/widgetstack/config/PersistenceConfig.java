@@ -0,0 +1,48 @@
+package org.abondar.industrial.widgetstack.config;
+
+import org.abondar.industrial.widgetstack.persistence.JpaWidgetPersistence;
+import org.abondar.industrial.widgetstack.persistence.LogWidgetPersistence;
+import org.abondar.industrial.widgetstack.persistence.NoopWidgetPersistence;
+import org.abondar.industrial.widgetstack.persistence.WidgetPersistence;
+import org.abondar.industrial.widgetstack.persistence.WriteBehindWidgetPersistence;
+import org.abondar.industrial.widgetstack.repository.WidgetRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+@Configuration
+public class PersistenceConfig {
+
+    @Bean
+    public WidgetPersistence widgetPersistence(WidgetRepository repository,
+                                               @Value("${db-store}") boolean dbStore,
+                                               @Value("${write-behind.enabled:false}") boolean writeBehind,
+                                               @Value("${write-behind.flush-interval:200}") long flushInterval,
+                                               @Value("${write-behind.batch-size:500}") int batchSize,
+                                               @Value("${write-behind.capacity:10000}") int capacity,
+                                               @Value("${log-store.enabled:false}") boolean logStore,
+                                               @Value("${log-store.dir:widget-log}") Path logDir,
+                                               @Value("${log-store.fsync-interval:50}") long fsyncInterval,
+                                               @Value("${log-store.sync-commit:true}") boolean syncCommit)
+            throws IOException {
+        if (logStore) {
+            if (dbStore) {
+                throw new IllegalStateException("db-store and log-store can't be enabled together");
+            }
+            return new LogWidgetPersistence(logDir, fsyncInterval, syncCommit);
+        }
+
+        if (!dbStore) {
+            return new NoopWidgetPersistence();
+        }
+
+        if (writeBehind) {
+            return new WriteBehindWidgetPersistence(repository, flushInterval, batchSize, capacity);
+        }
+
+        return new JpaWidgetPersistence(repository);
+    }
+}
@@ -0,0 +1,53 @@
+package org.abondar.industrial.widgetstack.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.abondar.industrial.widgetstack.repository.WidgetRepository;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Wraps the widget repository so every call is timed as {@code widget.repository}, tagged
+ * with the method. Calls returning a stream are timed until the query is open, not until
+ * the stream is consumed.
+ */
+final class RepositoryTimer implements BeanPostProcessor {
+
+    private final ObjectProvider<MeterRegistry> registry;
+    private final Map<Method, Timer> timers = new ConcurrentHashMap<>();
+
+    RepositoryTimer(ObjectProvider<MeterRegistry> registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (!(bean instanceof WidgetRepository)) {
+            return bean;
+        }
+
+        var factory = new ProxyFactory(bean);
+        factory.addAdvice((MethodInterceptor) invocation -> {
+            var sample = Timer.start();
+            try {
+                return invocation.proceed();
+            } finally {
+                sample.stop(timer(invocation.getMethod()));
+            }
+        });
+        return factory.getProxy();
+    }
+
+    private Timer timer(Method method) {
+        return timers.computeIfAbsent(method, m -> Timer.builder("widget.repository")
+                .description("Widget repository calls")
+                .tag("method", m.getName())
+                .register(registry.getObject()));
+    }
+}
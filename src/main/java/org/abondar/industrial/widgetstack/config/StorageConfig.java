@@ -0,0 +1,36 @@
+package org.abondar.industrial.widgetstack.config;
+
+import org.abondar.industrial.widgetstack.storage.ColumnarWidgetStorage;
+import org.abondar.industrial.widgetstack.storage.HeapWidgetStorage;
+import org.abondar.industrial.widgetstack.storage.WidgetStorage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.function.Supplier;
+
+@Configuration
+public class StorageConfig {
+
+    /**
+     * Makes an empty storage of the configured engine, one per board.
+     */
+    @Bean
+    public Supplier<WidgetStorage> widgetStorageFactory(@Value("${storage.engine:heap}") String engine,
+                                                        @Value("${storage.off-heap:false}") boolean offHeap,
+                                                        @Value("${storage.initial-capacity:1024}") int initialCapacity) {
+        switch (engine) {
+            case "heap":
+                return HeapWidgetStorage::new;
+            case "columnar":
+                return () -> new ColumnarWidgetStorage(offHeap, initialCapacity);
+            default:
+                throw new IllegalStateException("Unknown storage engine: " + engine);
+        }
+    }
+
+    @Bean
+    public WidgetStorage widgetStorage(Supplier<WidgetStorage> widgetStorageFactory) {
+        return widgetStorageFactory.get();
+    }
+}
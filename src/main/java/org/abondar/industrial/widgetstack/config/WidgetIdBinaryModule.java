@@ -0,0 +1,77 @@
+package org.abondar.industrial.widgetstack.config;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import org.abondar.industrial.widgetstack.model.WidgetId;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes widget ids as 16 raw bytes, high long first, to formats that carry binary natively
+ * such as CBOR, instead of the 36 character UUID string. Text formats keep the string,
+ * and both forms are accepted on input.
+ */
+class WidgetIdBinaryModule extends SimpleModule {
+
+    WidgetIdBinaryModule() {
+        super("WidgetIdBinaryModule");
+        addSerializer(WidgetId.class, new Serializer());
+        addDeserializer(WidgetId.class, new Deserializer());
+    }
+
+    private static final class Serializer extends StdSerializer<WidgetId> {
+
+        private Serializer() {
+            super(WidgetId.class);
+        }
+
+        @Override
+        public void serialize(WidgetId id, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            if (!gen.canWriteBinaryNatively()) {
+                gen.writeString(id.toString());
+                return;
+            }
+
+            var bytes = ByteBuffer.allocate(2 * Long.BYTES)
+                    .putLong(id.getHigh())
+                    .putLong(id.getLow())
+                    .array();
+            gen.writeBinary(bytes);
+        }
+    }
+
+    private static final class Deserializer extends StdDeserializer<WidgetId> {
+
+        private Deserializer() {
+            super(WidgetId.class);
+        }
+
+        @Override
+        public WidgetId deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            if (p.currentToken() == JsonToken.VALUE_STRING) {
+                var text = p.getText();
+                var id = WidgetId.tryParse(text);
+                if (id == null) {
+                    return (WidgetId) ctxt.handleWeirdStringValue(WidgetId.class, text, "not a widget id");
+                }
+                return id;
+            }
+
+            if (p.currentToken() == JsonToken.VALUE_EMBEDDED_OBJECT) {
+                var bytes = p.getBinaryValue();
+                if (bytes.length == 2 * Long.BYTES) {
+                    var buffer = ByteBuffer.wrap(bytes);
+                    return new WidgetId(buffer.getLong(), buffer.getLong());
+                }
+            }
+            return (WidgetId) ctxt.handleUnexpectedToken(WidgetId.class, p);
+        }
+    }
+}
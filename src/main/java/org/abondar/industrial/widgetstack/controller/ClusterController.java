@@ -0,0 +1,89 @@
+package org.abondar.industrial.widgetstack.controller;
+
+import org.abondar.industrial.widgetstack.cluster.ClusterNode;
+import org.abondar.industrial.widgetstack.exception.InvalidBoardException;
+import org.abondar.industrial.widgetstack.model.NodeStatus;
+import org.abondar.industrial.widgetstack.model.WidgetChanges;
+import org.abondar.industrial.widgetstack.service.WidgetBoards;
+import org.abondar.industrial.widgetstack.service.WidgetChangeLog;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Endpoints the cluster nodes use among themselves, see {@link ClusterNode}. They are outside
+ * /widget, so admission control does not throttle replication.
+ */
+@RestController
+@RequestMapping("/cluster")
+public class ClusterController {
+
+    private final ClusterNode node;
+    private final WidgetBoards boards;
+    private final WidgetChangeLog changeLog;
+
+    @Autowired
+    public ClusterController(ClusterNode node, WidgetBoards boards, WidgetChangeLog changeLog) {
+        this.node = node;
+        this.boards = boards;
+        this.changeLog = changeLog;
+    }
+
+    @GetMapping(path = "/status", produces = "application/json")
+    public ResponseEntity<NodeStatus> status() {
+        return ResponseEntity.ok(node.status());
+    }
+
+    /**
+     * The store version of every board, for a follower to see which boards it has to pull.
+     * The ETag carries the epoch, so the follower notices a restart of this node.
+     */
+    @GetMapping(path = "/boards", produces = {"application/json", "application/cbor"})
+    public ResponseEntity<Map<String, Long>> boards() {
+        Map<String, Long> versions = new LinkedHashMap<>();
+        long total = 0;
+        for (var board : boards.all()) {
+            versions.put(board.getBoardId(), board.getStoreVersion());
+            total += board.getStoreVersion();
+        }
+
+        return ResponseEntity.ok()
+                .eTag(WidgetETag.of(total))
+                .body(versions);
+    }
+
+    /**
+     * Every widget of a board as of one store version, for a follower starting over. The
+     * ETag carries the version, so the follower can ask for deltas from there.
+     */
+    @GetMapping(path = "/snapshot", produces = {"application/json", "application/cbor"})
+    public ResponseEntity<WidgetChanges> snapshot(@RequestParam(required = false) String board)
+            throws InvalidBoardException {
+        var boardId = boards.resolve(board);
+        var service = boards.find(boardId);
+        long[] version = {0};
+        var widgets = service.snapshot(() -> version[0] = service.getStoreVersion());
+
+        return ResponseEntity.ok()
+                .eTag(WidgetETag.of(version[0]))
+                .body(new WidgetChanges(boardId, version[0], widgets, List.of(), false));
+    }
+
+    /**
+     * The changes of a board since a version, as /widget/delta answers them, for a
+     * follower's pulls.
+     */
+    @GetMapping(path = "/delta", produces = {"application/json", "application/cbor"})
+    public ResponseEntity<WidgetChanges> delta(@RequestParam(required = false) String board,
+                                               @RequestParam long since, @RequestParam String epoch)
+            throws InvalidBoardException {
+        return WidgetChangesController.delta(changeLog, boards.resolve(board), since, epoch);
+    }
+}
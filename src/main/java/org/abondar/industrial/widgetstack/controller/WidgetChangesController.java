@@ -0,0 +1,130 @@
+package org.abondar.industrial.widgetstack.controller;
+
+import org.abondar.industrial.widgetstack.exception.InvalidBoardException;
+import org.abondar.industrial.widgetstack.model.WidgetChanges;
+import org.abondar.industrial.widgetstack.service.WidgetBoards;
+import org.abondar.industrial.widgetstack.service.WidgetChangeFeed;
+import org.abondar.industrial.widgetstack.service.WidgetChangeLog;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Incremental updates for clients that already hold the widgets of a board: server-sent
+ * events with the changes as they happen, see {@link WidgetChangeFeed}, and the changes since
+ * a given store version on request, see {@link WidgetChangeLog}. Both carry the store version
+ * of the board they bring the client to.
+ */
+@RestController
+@RequestMapping({"/widget", "/board/{boardId}/widget"})
+public class WidgetChangesController {
+
+    private final WidgetBoards boards;
+    private final WidgetChangeFeed feed;
+    private final WidgetChangeLog changeLog;
+    private final long timeout;
+
+    @Autowired
+    public WidgetChangesController(WidgetBoards boards, WidgetChangeFeed feed, WidgetChangeLog changeLog,
+                                   @Value("${changes.timeout:1800000}") long timeout) {
+        this.boards = boards;
+        this.feed = feed;
+        this.changeLog = changeLog;
+        this.timeout = timeout;
+    }
+
+    /**
+     * @param since version the client's widgets are at, from an earlier delta or the ETag
+     *              of a listing
+     * @param epoch epoch part of that ETag; versions of another process never match
+     */
+    @GetMapping(path = "/delta", produces = {"application/json", "application/cbor"})
+    public ResponseEntity<WidgetChanges> findDelta(@PathVariable(required = false) String boardId,
+                                                   @RequestParam long since,
+                                                   @RequestParam(required = false) String epoch)
+            throws InvalidBoardException {
+        return delta(changeLog, boards.resolve(boardId), since, epoch);
+    }
+
+    static ResponseEntity<WidgetChanges> delta(WidgetChangeLog changeLog, String boardId, long since, String epoch) {
+        var res = epoch == null || epoch.equals(WidgetETag.epoch()) ? changeLog.since(boardId, since) : null;
+        if (res == null) {
+            res = new WidgetChanges(boardId, changeLog.getVersion(boardId), List.of(), List.of(), true);
+        }
+
+        return ResponseEntity.ok()
+                .eTag(WidgetETag.of(res.getVersion()))
+                .body(res);
+    }
+
+    /**
+     * A client that reconnects first gets the changes it missed, or a resync if they are no
+     * longer known, then the live ones.
+     *
+     * @param lastEventId id of the last event the client got, sent by EventSource when it
+     *                    reconnects on its own
+     * @param since       version to start from for a client that reconnects by hand, as for
+     *                    a delta; ignored if Last-Event-ID is set
+     * @param epoch       epoch part of the ETag since comes from
+     */
+    @GetMapping(path = "/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter changes(@PathVariable(required = false) String boardId,
+                              @RequestHeader(name = "Last-Event-ID", required = false) String lastEventId,
+                              @RequestParam(required = false) Long since,
+                              @RequestParam(required = false) String epoch) throws InvalidBoardException {
+        var board = boards.resolve(boardId);
+        Supplier<WidgetChanges> catchUp = () -> null;
+        if (lastEventId != null) {
+            catchUp = () -> missed(changeLog, board, lastEventId);
+        } else if (since != null) {
+            catchUp = () -> delta(changeLog, board, since, epoch).getBody();
+        }
+
+        var emitter = new SseEmitter(timeout);
+        var subscription = feed.subscribe(board, new WidgetChangeFeed.Sink() {
+            @Override
+            public void send(WidgetChangeFeed.Event event) throws IOException {
+                emitter.send(SseEmitter.event()
+                        .name(event.getName())
+                        .id(WidgetETag.id(event.getVersion()))
+                        .data(event.getData(), MediaType.APPLICATION_JSON));
+            }
+
+            @Override
+            public void close() {
+                emitter.complete();
+            }
+        }, catchUp);
+
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        emitter.onError(ex -> subscription.cancel());
+        return emitter;
+    }
+
+    /**
+     * Changes after an event id, which is {@code <epoch>-<version>}. An id that does not parse
+     * is treated like one from another epoch.
+     */
+    private static WidgetChanges missed(WidgetChangeLog changeLog, String boardId, String lastEventId) {
+        var dash = lastEventId.lastIndexOf('-');
+        try {
+            var since = Long.parseLong(lastEventId.substring(dash + 1));
+            return delta(changeLog, boardId, since, lastEventId.substring(0, Math.max(dash, 0))).getBody();
+        } catch (NumberFormatException ex) {
+            return delta(changeLog, boardId, 0, "").getBody();
+        }
+    }
+}
@@ -1,12 +1,20 @@
 package org.abondar.industrial.widgetstack.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.abondar.industrial.widgetstack.exception.InvalidBoardException;
+import org.abondar.industrial.widgetstack.exception.InvalidCursorException;
 import org.abondar.industrial.widgetstack.exception.NullAtrributeException;
 import org.abondar.industrial.widgetstack.exception.TooManyWidgetsException;
 import org.abondar.industrial.widgetstack.exception.WidgetNotFoundException;
+import org.abondar.industrial.widgetstack.model.BatchOperation;
 import org.abondar.industrial.widgetstack.model.Filter;
 import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetId;
+import org.abondar.industrial.widgetstack.service.WidgetBoards;
 import org.abondar.industrial.widgetstack.service.WidgetService;
-import org.abondar.spring.ratelimitter.RateLimit;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import org.springframework.http.MediaType;
@@ -21,67 +29,223 @@ import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.function.Consumer;
 
+/**
+ * Widgets of the default board under /widget and of any other board under
+ * /board/{boardId}/widget, see {@link WidgetBoards}.
+ */
 @RestController
-@RequestMapping("/widget")
-@RateLimit
+@RequestMapping({"/widget", "/board/{boardId}/widget"})
 public class WidgetController {
 
-    private final WidgetService service;
+    private final WidgetBoards boards;
+    private final ObjectMapper mapper;
+    private final ObjectWriter widgetWriter;
 
     @Autowired
-    public WidgetController(WidgetService service) {
-        this.service = service;
+    public WidgetController(WidgetBoards boards, ObjectMapper mapper) {
+        this.boards = boards;
+        this.mapper = mapper;
+        this.widgetWriter = mapper.writerFor(Widget.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
     }
 
-    @PostMapping(consumes = "application/json",produces ="application/json")
-    public ResponseEntity<Widget> createWidget(@RequestBody Widget widget) {
-        var res = service.create(widget);
+    @PostMapping(consumes = {"application/json", "application/cbor"},produces = {"application/json", "application/cbor"})
+    public ResponseEntity<Widget> createWidget(@PathVariable(required = false) String boardId,
+                                               @RequestBody Widget widget) throws InvalidBoardException {
+        var res = boards.get(boardId).create(widget);
         return ResponseEntity.ok(res);
     }
 
-    @PutMapping(path = "/{id}",consumes = "application/json",produces ="application/json")
-    public ResponseEntity<Widget> updateWidget(@PathVariable String id, @RequestBody Widget widget) throws WidgetNotFoundException, NullAtrributeException {
-        var res = service.update(widget, id);
+    @PutMapping(path = "/{id}",consumes = {"application/json", "application/cbor"},produces = {"application/json", "application/cbor"})
+    public ResponseEntity<Widget> updateWidget(@PathVariable(required = false) String boardId,
+                                               @PathVariable String id, @RequestBody Widget widget)
+            throws WidgetNotFoundException, NullAtrributeException, InvalidBoardException {
+        var res = boards.find(boardId).update(widget, parseId(id));
         return ResponseEntity.ok(res);
     }
 
-    @GetMapping(path = "/{id}",produces ="application/json")
-    public ResponseEntity<Widget> findWidget(@PathVariable String id,
-                                             @RequestHeader(name = "db") boolean fromDb) {
-        var res = service.getById(id, fromDb);
+    @PostMapping(path = "/batch",consumes = {"application/json", "application/cbor"},produces = {"application/json", "application/cbor"})
+    public ResponseEntity<List<Widget>> applyBatch(@PathVariable(required = false) String boardId,
+                                                   @RequestBody List<BatchOperation> operations)
+            throws WidgetNotFoundException, NullAtrributeException, InvalidBoardException {
+        var res = boards.get(boardId).applyBatch(operations);
         return ResponseEntity.ok(res);
     }
 
-    @GetMapping(path = "/many",produces ="application/json")
-    @RateLimit(requests = 3, period = 5000)
-    public ResponseEntity<List<Widget>> findWidgets(@RequestParam int offset,
+    @GetMapping(path = "/{id}",produces = {"application/json", "application/cbor"})
+    public ResponseEntity<Widget> findWidget(@PathVariable(required = false) String boardId,
+                                             @PathVariable String id,
+                                             @RequestHeader(name = "db") boolean fromDb,
+                                             ServletWebRequest request) throws InvalidBoardException {
+        var service = boards.find(boardId);
+        var widgetId = WidgetId.tryParse(id);
+        WidgetETag.vary(request);
+        if (widgetId != null) {
+            var version = service.getWidgetVersion(widgetId);
+            if (version >= 0 && notModified(service, fromDb, request, version)) {
+                return null;
+            }
+        }
+
+        var res = widgetId == null ? null : service.getById(widgetId, fromDb);
+        return ResponseEntity.ok(res);
+    }
+
+    @GetMapping(path = "/many",produces = {"application/json", "application/cbor"})
+    public ResponseEntity<List<Widget>> findWidgets(@PathVariable(required = false) String boardId,
+                                                    @RequestParam(defaultValue = "0") int offset,
                                                     @RequestParam(defaultValue = "10") int limit,
-                                                    @RequestHeader(name = "db") boolean fromDb)
-            throws TooManyWidgetsException {
+                                                    @RequestParam(required = false) String cursor,
+                                                    @RequestHeader(name = "db") boolean fromDb,
+                                                    ServletWebRequest request)
+            throws TooManyWidgetsException, InvalidCursorException, InvalidBoardException {
 
-        List<Widget> res = service.getWidgets(offset, limit, fromDb);
+        var service = boards.find(boardId);
+        if (notModified(service, fromDb, request, service.getStoreVersion())) {
+            return null;
+        }
 
-        return ResponseEntity.ok(res);
+        List<Widget> res = cursor == null
+                ? service.getWidgets(offset, limit, fromDb)
+                : service.getWidgetsAfter(WidgetCursor.decode(cursor), limit, fromDb);
+
+        return page(res, limit);
     }
 
 
-    @GetMapping(path = "/filter",produces ="application/json")
-    public ResponseEntity<List<Widget>> findFilteredWidgets(@RequestParam int offset,
+    @GetMapping(path = "/filter",produces = {"application/json", "application/cbor"})
+    public ResponseEntity<List<Widget>> findFilteredWidgets(@PathVariable(required = false) String boardId,
+                                                    @RequestParam(defaultValue = "0") int offset,
                                                     @RequestParam(defaultValue = "10") int limit,
+                                                    @RequestParam(required = false) String cursor,
                                                     @RequestHeader(name = "db") boolean fromDb,
-                                                    @RequestBody Filter filter) throws TooManyWidgetsException{
+                                                    @RequestBody Filter filter,
+                                                    ServletWebRequest request)
+            throws TooManyWidgetsException, InvalidCursorException, InvalidBoardException {
 
-        List<Widget> res = service.getFilteredWidgets(offset, limit, fromDb, filter);
+        var service = boards.find(boardId);
+        if (notModified(service, fromDb, request, service.getStoreVersion())) {
+            return null;
+        }
 
+        List<Widget> res = cursor == null
+                ? service.getFilteredWidgets(offset, limit, fromDb, filter)
+                : service.getFilteredWidgetsAfter(WidgetCursor.decode(cursor), limit, fromDb, filter);
 
-        return ResponseEntity.ok(res);
+        return page(res, limit);
+    }
+
+    /**
+     * Newline-delimited JSON variant of /many: widgets are written to the response as the
+     * store or the DB cursor yields them, so there is no page size cap. Without limit all
+     * widgets from offset or cursor on are streamed.
+     */
+    @GetMapping(path = "/many", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamWidgets(@PathVariable(required = false) String boardId,
+                                                               @RequestParam(defaultValue = "0") int offset,
+                                                               @RequestParam(required = false) Integer limit,
+                                                               @RequestParam(required = false) String cursor,
+                                                               @RequestHeader(name = "db") boolean fromDb,
+                                                               ServletWebRequest request)
+            throws InvalidCursorException, InvalidBoardException {
+
+        var service = boards.find(boardId);
+        if (notModified(service, fromDb, request, service.getStoreVersion())) {
+            return null;
+        }
+
+        var afterZ = cursor == null ? null : WidgetCursor.decode(cursor);
+        var max = limit == null ? Integer.MAX_VALUE : limit;
+        return ndjson(action -> service.streamWidgets(offset, afterZ, max, fromDb, action));
+    }
+
+    @GetMapping(path = "/filter", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamFilteredWidgets(@PathVariable(required = false) String boardId,
+                                                                       @RequestParam(defaultValue = "0") int offset,
+                                                                       @RequestParam(required = false) Integer limit,
+                                                                       @RequestParam(required = false) String cursor,
+                                                                       @RequestHeader(name = "db") boolean fromDb,
+                                                                       @RequestBody Filter filter,
+                                                                       ServletWebRequest request)
+            throws InvalidCursorException, InvalidBoardException {
+
+        var service = boards.find(boardId);
+        if (notModified(service, fromDb, request, service.getStoreVersion())) {
+            return null;
+        }
+
+        var afterZ = cursor == null ? null : WidgetCursor.decode(cursor);
+        var max = limit == null ? Integer.MAX_VALUE : limit;
+        return ndjson(action -> service.streamFilteredWidgets(offset, afterZ, max, fromDb, filter, action));
+    }
+
+    /**
+     * Writes every widget source hands over as one JSON line through a single generator,
+     * which flushes to the response only when its buffer fills up.
+     */
+    private ResponseEntity<StreamingResponseBody> ndjson(Consumer<Consumer<Widget>> source) {
+        StreamingResponseBody body = out -> {
+            try (var generator = mapper.getFactory().createGenerator(out)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                source.accept(wd -> {
+                    try {
+                        widgetWriter.writeValue(generator, wd);
+                        generator.writeRaw('\n');
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+            }
+        };
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
+    }
+
+    /**
+     * {@link WidgetETag#notModified}, skipped for DB reads while the DB is behind the store:
+     * their result may be older than version, and a tag would pin it at the client. Vary is
+     * set either way.
+     */
+    private static boolean notModified(WidgetService service, boolean fromDb, ServletWebRequest request,
+                                       long version) {
+        if (fromDb && service.isDbBehind()) {
+            WidgetETag.vary(request);
+            return false;
+        }
+        return WidgetETag.notModified(request, version);
+    }
+
+    private static ResponseEntity<List<Widget>> page(List<Widget> res, int limit) {
+        var next = WidgetCursor.next(res, limit);
+        if (next == null) {
+            return ResponseEntity.ok(res);
+        }
+        return ResponseEntity.ok()
+                .header(WidgetCursor.HEADER, next)
+                .body(res);
     }
 
     @DeleteMapping(path = "/{id}",produces ="application/json")
-    public void delete(@PathVariable String id) throws WidgetNotFoundException {
-        service.delete(id);
+    public void delete(@PathVariable(required = false) String boardId, @PathVariable String id)
+            throws WidgetNotFoundException, InvalidBoardException {
+        boards.find(boardId).delete(parseId(id));
+    }
+
+    private static WidgetId parseId(String id) throws WidgetNotFoundException {
+        var res = WidgetId.tryParse(id);
+        if (res == null) {
+            throw new WidgetNotFoundException(id);
+        }
+        return res;
     }
 }
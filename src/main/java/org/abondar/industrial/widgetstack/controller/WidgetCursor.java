@@ -0,0 +1,49 @@
+package org.abondar.industrial.widgetstack.controller;
+
+import org.abondar.industrial.widgetstack.exception.InvalidCursorException;
+import org.abondar.industrial.widgetstack.model.Widget;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Opaque keyset cursor handed to clients: the z-index of the last widget on a page.
+ * The next page starts right after it, whatever changed before that z meanwhile.
+ */
+final class WidgetCursor {
+
+    static final String HEADER = "X-Next-Cursor";
+
+    private static final String PREFIX = "z:";
+
+    private WidgetCursor() {
+    }
+
+    static String encode(int zIndex) {
+        var raw = PREFIX + zIndex;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    static int decode(String cursor) throws InvalidCursorException {
+        try {
+            var raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII);
+            if (!raw.startsWith(PREFIX)) {
+                throw new InvalidCursorException(cursor);
+            }
+            return Integer.parseInt(raw.substring(PREFIX.length()));
+        } catch (IllegalArgumentException ex) {
+            throw new InvalidCursorException(cursor);
+        }
+    }
+
+    /**
+     * Cursor for the page after res, or null when res was the last page.
+     */
+    static String next(List<Widget> res, int limit) {
+        if (res.isEmpty() || res.size() < limit) {
+            return null;
+        }
+        return encode(res.get(res.size() - 1).getZIndex());
+    }
+}
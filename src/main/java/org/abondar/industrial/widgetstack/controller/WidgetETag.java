@@ -0,0 +1,60 @@
+package org.abondar.industrial.widgetstack.controller;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Weak entity tags derived from store versions. Versions restart with the process, so
+ * the tag also carries a per-process epoch: a tag issued before a restart never matches.
+ * Tags are weak because JSON and CBOR renderings of one version are equivalent.
+ */
+final class WidgetETag {
+
+    private static final String EPOCH = Long.toHexString(ThreadLocalRandom.current().nextLong());
+
+    /**
+     * Request headers a read depends on: the representation and whether it came from the DB.
+     */
+    static final String VARY = HttpHeaders.ACCEPT + ", db";
+
+    private WidgetETag() {
+    }
+
+    static String epoch() {
+        return EPOCH;
+    }
+
+    static String of(long version) {
+        return "W/\"" + id(version) + "\"";
+    }
+
+    /**
+     * The opaque part of a tag, also used as the id of change feed events.
+     */
+    static String id(long version) {
+        return EPOCH + "-" + version;
+    }
+
+    /**
+     * Sets Vary on a read response, whether it is a 304 or carries the widgets.
+     */
+    static void vary(ServletWebRequest request) {
+        var response = request.getResponse();
+        if (response != null) {
+            response.setHeader(HttpHeaders.VARY, VARY);
+        }
+    }
+
+    /**
+     * Sets Vary and the tag for version on the response and checks If-None-Match against it.
+     *
+     * @return true if the client's copy is current; the response is then a 304 and the
+     * handler returns without reading anything
+     */
+    static boolean notModified(ServletWebRequest request, long version) {
+        vary(request);
+        return request.checkNotModified(of(version));
+    }
+}
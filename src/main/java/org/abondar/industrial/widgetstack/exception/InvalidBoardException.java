@@ -0,0 +1,8 @@
+package org.abondar.industrial.widgetstack.exception;
+
+public class InvalidBoardException extends Exception {
+
+    public InvalidBoardException(String boardId){
+        super("Invalid board id: "+boardId);
+    }
+}
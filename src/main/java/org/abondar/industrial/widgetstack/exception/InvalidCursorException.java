@@ -0,0 +1,8 @@
+package org.abondar.industrial.widgetstack.exception;
+
+public class InvalidCursorException extends Exception {
+
+    public InvalidCursorException(String cursor){
+        super("Invalid page cursor: "+cursor);
+    }
+}
@@ -1,6 +1,8 @@
 package org.abondar.industrial.widgetstack.exception;
 
-import org.abondar.spring.ratelimitter.RateLimitException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -8,17 +10,43 @@ import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExcep
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
 
 @ControllerAdvice
 public class WidgetExceptionHandler extends ResponseEntityExceptionHandler {
 
+    private final Counter notFound;
+    private final Counter tooMany;
+    private final Counter rejected;
+
+    @Autowired
+    public WidgetExceptionHandler(MeterRegistry registry) {
+        this.notFound = errorCounter(registry, WidgetNotFoundException.class);
+        this.tooMany = errorCounter(registry, TooManyWidgetsException.class);
+        this.rejected = errorCounter(registry, RejectedExecutionException.class);
+    }
+
+    private static Counter errorCounter(MeterRegistry registry, Class<? extends Exception> exception) {
+        return Counter.builder("widget.errors")
+                .description("Requests rejected by the widget service")
+                .tag("exception", exception.getSimpleName())
+                .register(registry);
+    }
+
     @ExceptionHandler({WidgetNotFoundException.class})
     public void handleNotFound(Exception ex,HttpServletResponse response) throws IOException {
+        notFound.increment();
         response.sendError(HttpStatus.NOT_FOUND.value(), ex.getMessage());
     }
 
     @ExceptionHandler({TooManyWidgetsException.class})
     public void handleBadRequest(Exception ex,HttpServletResponse response) throws IOException {
+        tooMany.increment();
+        response.sendError(HttpStatus.BAD_REQUEST.value(), ex.getMessage());
+    }
+
+    @ExceptionHandler({InvalidCursorException.class, InvalidBoardException.class, ZIndexOverflowException.class})
+    public void handleBadRequestCursor(Exception ex,HttpServletResponse response) throws IOException {
         response.sendError(HttpStatus.BAD_REQUEST.value(), ex.getMessage());
     }
 
@@ -27,9 +55,10 @@ public class WidgetExceptionHandler extends ResponseEntityExceptionHandler {
         response.sendError(HttpStatus.BAD_REQUEST.value(), ex.getMessage());
     }
 
-    @ExceptionHandler({RateLimitException.class})
-    public void handleTooManyRequests(Exception ex,HttpServletResponse response) throws Exception {
-        response.sendError(HttpStatus.TOO_MANY_REQUESTS.value(), ex.getMessage());
+    @ExceptionHandler({RejectedExecutionException.class})
+    public void handleRejected(Exception ex,HttpServletResponse response) throws IOException {
+        rejected.increment();
+        response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), ex.getMessage());
     }
 
 }
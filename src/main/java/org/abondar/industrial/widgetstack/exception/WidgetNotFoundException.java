@@ -1,8 +1,14 @@
 package org.abondar.industrial.widgetstack.exception;
 
+import org.abondar.industrial.widgetstack.model.WidgetId;
+
 public class WidgetNotFoundException extends Exception{
 
     public WidgetNotFoundException(String id){
         super("Widget not found with id: "+id);
     }
+
+    public WidgetNotFoundException(WidgetId id){
+        this(String.valueOf(id));
+    }
 }
@@ -0,0 +1,12 @@
+package org.abondar.industrial.widgetstack.exception;
+
+/**
+ * A create or update would move a widget past the highest z-index. Unchecked because it is
+ * raised by the storage engines below the service.
+ */
+public class ZIndexOverflowException extends RuntimeException {
+
+    public ZIndexOverflowException() {
+        super("Z-index would pass " + Integer.MAX_VALUE);
+    }
+}
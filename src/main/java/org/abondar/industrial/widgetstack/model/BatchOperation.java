@@ -0,0 +1,29 @@
+package org.abondar.industrial.widgetstack.model;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@NoArgsConstructor
+public class BatchOperation {
+
+    public enum Type {
+        CREATE,
+        UPDATE,
+        DELETE
+    }
+
+    private Type type;
+
+    private WidgetId id;
+
+    private Widget widget;
+
+    public BatchOperation(Type type, WidgetId id, Widget widget) {
+        this.type = type;
+        this.id = id;
+        this.widget = widget;
+    }
+}
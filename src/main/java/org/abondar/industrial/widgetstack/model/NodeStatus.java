@@ -0,0 +1,24 @@
+package org.abondar.industrial.widgetstack.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * What a cluster node believes: the election term, the leader it follows in that term,
+ * -1 while it knows none, and its position, the leader store versions it has applied summed
+ * over all boards. The leader reports the sum of its own store versions.
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class NodeStatus {
+
+    private int node;
+
+    private long term;
+
+    private int leader;
+
+    private long position;
+}
@@ -1,11 +1,13 @@
 package org.abondar.industrial.widgetstack.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 import lombok.ToString;
+import org.hibernate.annotations.Type;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
@@ -22,8 +24,11 @@ import java.util.Date;
 @EqualsAndHashCode
 public class Widget implements Comparable<Widget>{
 
+    public static final String DEFAULT_BOARD = "default";
+
     @Id
-    private String id;
+    @Type(type = "org.abondar.industrial.widgetstack.model.WidgetIdType")
+    private WidgetId id;
 
     @JsonProperty("x")
     @Column(name = "x_coord")
@@ -46,6 +51,13 @@ public class Widget implements Comparable<Widget>{
     @Column(name = "last_modified")
     private Date lastModified;
 
+    /**
+     * Board the widget belongs to. Not part of the API representation, the board is in the URL.
+     */
+    @JsonIgnore
+    @Column(name = "board_id")
+    private String boardId = DEFAULT_BOARD;
+
     public Widget(Integer xCoord, Integer yCoord, Integer zIndex, Integer width, Integer height) {
         this.xCoord = xCoord;
         this.yCoord = yCoord;
@@ -62,11 +74,12 @@ public class Widget implements Comparable<Widget>{
         this.yCoord = widget.yCoord;
         this.zIndex = widget.zIndex;
         this.lastModified = widget.lastModified;
+        this.boardId = widget.boardId;
     }
 
 
     @Override
     public int compareTo(Widget w) {
-        return this.zIndex-w.getZIndex();
+        return Integer.compare(this.zIndex, w.getZIndex());
     }
 }
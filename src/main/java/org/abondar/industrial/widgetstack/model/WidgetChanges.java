@@ -0,0 +1,30 @@
+package org.abondar.industrial.widgetstack.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Net effect of a run of changes to one board: the latest state of every widget created or
+ * changed and the ids of the widgets deleted, up to the given store version of the board.
+ * With resync set the changes could not be told and the client has to reload all widgets.
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class WidgetChanges {
+
+    @JsonProperty("board")
+    private String boardId;
+
+    private long version;
+
+    private List<Widget> upserts;
+
+    private List<WidgetId> deletes;
+
+    private boolean resync;
+}
@@ -0,0 +1,93 @@
+package org.abondar.industrial.widgetstack.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * 128-bit widget identifier held as two longs. Clients only ever see the canonical UUID
+ * string; it is parsed once at the API boundary and written back on the way out.
+ */
+public final class WidgetId implements Comparable<WidgetId>, Serializable {
+
+    private static final int LENGTH = 36;
+
+    private final long high;
+    private final long low;
+
+    public WidgetId(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    public static WidgetId random() {
+        var uuid = UUID.randomUUID();
+        return new WidgetId(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * Parses the canonical 36 character UUID form.
+     *
+     * @throws IllegalArgumentException if id is not in that form
+     */
+    @JsonCreator
+    public static WidgetId fromString(String id) {
+        if (id.length() != LENGTH || id.charAt(8) != '-' || id.charAt(13) != '-'
+                || id.charAt(18) != '-' || id.charAt(23) != '-') {
+            throw new IllegalArgumentException("Not a widget id: " + id);
+        }
+
+        var uuid = UUID.fromString(id);
+        return new WidgetId(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * Like {@link #fromString(String)}, but returns null for anything that is not an id.
+     */
+    public static WidgetId tryParse(String id) {
+        try {
+            return id == null ? null : fromString(id);
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    public long getHigh() {
+        return high;
+    }
+
+    public long getLow() {
+        return low;
+    }
+
+    @Override
+    public int compareTo(WidgetId other) {
+        var res = Long.compare(high, other.high);
+        return res != 0 ? res : Long.compare(low, other.low);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof WidgetId)) {
+            return false;
+        }
+        var that = (WidgetId) o;
+        return high == that.high && low == that.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(high * 0x9E3779B97F4A7C15L ^ low);
+    }
+
+    @JsonValue
+    @Override
+    public String toString() {
+        return new UUID(high, low).toString();
+    }
+}
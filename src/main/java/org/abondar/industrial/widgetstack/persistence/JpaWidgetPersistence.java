@@ -0,0 +1,35 @@
+package org.abondar.industrial.widgetstack.persistence;
+
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.repository.WidgetRepository;
+
+import java.util.Collection;
+
+public class JpaWidgetPersistence implements WidgetPersistence {
+
+    private final WidgetRepository repository;
+
+    public JpaWidgetPersistence(WidgetRepository repository) {
+        this.repository = repository;
+    }
+
+    @Override
+    public void save(Widget widget) {
+        repository.save(widget);
+    }
+
+    @Override
+    public void saveAll(Collection<Widget> widgets) {
+        repository.upsertAll(widgets);
+    }
+
+    @Override
+    public void delete(Widget widget) {
+        repository.delete(widget);
+    }
+
+    @Override
+    public void deleteAll(Collection<Widget> widgets) {
+        repository.deleteInBatch(widgets);
+    }
+}
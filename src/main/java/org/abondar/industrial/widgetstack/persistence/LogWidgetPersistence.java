@@ -0,0 +1,197 @@
+package org.abondar.industrial.widgetstack.persistence;
+
+import lombok.extern.slf4j.Slf4j;
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the durable copy in a local {@link WidgetLog} instead of a database.
+ * <p>
+ * Mutations are appended under the service lock, which only copies bytes into the page
+ * cache. A sync thread forces the log every fsync interval, or as soon as a writer waits in
+ * {@link #awaitDurable()}, so all writers that arrive during one fsync share the next one.
+ */
+@Slf4j
+public class LogWidgetPersistence implements WidgetPersistence, DisposableBean {
+
+    private final WidgetLog widgetLog;
+    private final long fsyncInterval;
+    private final boolean syncCommit;
+    private List<Widget> recovered;
+
+    private final ThreadLocal<Long> lastAppended = ThreadLocal.withInitial(() -> 0L);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition syncRequested = lock.newCondition();
+    private final Condition synced = lock.newCondition();
+    private final Thread syncer;
+
+    private long durable;
+    private boolean requested;
+    private boolean running = true;
+    private IOException failure;
+
+    public LogWidgetPersistence(Path dir, long fsyncInterval, boolean syncCommit) throws IOException {
+        this.widgetLog = new WidgetLog(dir);
+        this.fsyncInterval = fsyncInterval;
+        this.syncCommit = syncCommit;
+        this.recovered = widgetLog.recover();
+
+        this.syncer = new Thread(this::syncLoop, "widget-log-sync");
+        this.syncer.start();
+    }
+
+    /**
+     * Store content rebuilt from the snapshot and log when the bean was created.
+     * Handed out once, the reference is dropped afterwards.
+     */
+    public List<Widget> takeRecovered() {
+        var res = recovered == null ? List.<Widget>of() : recovered;
+        recovered = null;
+        return res;
+    }
+
+    @Override
+    public void save(Widget widget) {
+        append(widget, false);
+    }
+
+    @Override
+    public void saveAll(Collection<Widget> widgets) {
+        widgets.forEach(this::save);
+    }
+
+    @Override
+    public void delete(Widget widget) {
+        append(widget, true);
+    }
+
+    @Override
+    public void deleteAll(Collection<Widget> widgets) {
+        widgets.forEach(this::delete);
+    }
+
+    @Override
+    public void awaitDurable() {
+        if (!syncCommit) {
+            return;
+        }
+
+        var position = lastAppended.get();
+        lock.lock();
+        try {
+            while (durable < position) {
+                if (failure != null) {
+                    throw new UncheckedIOException(failure);
+                }
+                requested = true;
+                syncRequested.signal();
+                synced.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts a new log segment. Callers make sure nothing is appended concurrently.
+     *
+     * @return number of the new segment
+     */
+    public long rotate() {
+        try {
+            return widgetLog.rotate();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Writes widgets as the state at the start of segment and drops the older log.
+     */
+    public void checkpoint(Collection<Widget> widgets, long segment) throws IOException {
+        widgetLog.writeSnapshot(widgets, segment);
+    }
+
+    public long written() {
+        return widgetLog.written();
+    }
+
+    private void append(Widget widget, boolean delete) {
+        try {
+            lastAppended.set(widgetLog.append(widget, delete));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void syncLoop() {
+        while (true) {
+            lock.lock();
+            try {
+                if (running && !requested) {
+                    syncRequested.await(fsyncInterval, TimeUnit.MILLISECONDS);
+                }
+                requested = false;
+                if (durable == widgetLog.written()) {
+                    if (!running) {
+                        return;
+                    }
+                    continue;
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            long position;
+            IOException error = null;
+            try {
+                position = widgetLog.sync();
+            } catch (IOException ex) {
+                log.error("Failed to sync widget log", ex);
+                position = -1;
+                error = ex;
+            }
+
+            lock.lock();
+            try {
+                if (error != null) {
+                    failure = error;
+                } else {
+                    durable = Math.max(durable, position);
+                    failure = null;
+                }
+                synced.signalAll();
+                if (error != null && !running) {
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void destroy() throws IOException, InterruptedException {
+        lock.lock();
+        try {
+            running = false;
+            syncRequested.signal();
+        } finally {
+            lock.unlock();
+        }
+        syncer.join();
+        widgetLog.close();
+    }
+}
@@ -0,0 +1,24 @@
+package org.abondar.industrial.widgetstack.persistence;
+
+import org.abondar.industrial.widgetstack.model.Widget;
+
+import java.util.Collection;
+
+public class NoopWidgetPersistence implements WidgetPersistence {
+
+    @Override
+    public void save(Widget widget) {
+    }
+
+    @Override
+    public void saveAll(Collection<Widget> widgets) {
+    }
+
+    @Override
+    public void delete(Widget widget) {
+    }
+
+    @Override
+    public void deleteAll(Collection<Widget> widgets) {
+    }
+}
@@ -0,0 +1,385 @@
+package org.abondar.industrial.widgetstack.persistence;
+
+import lombok.extern.slf4j.Slf4j;
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetId;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary log of widget changes split into numbered segments, plus a snapshot
+ * holding the full store as of the start of some segment.
+ * <p>
+ * Every record is framed as {@code [int length][int crc32][payload]}. The payload is an
+ * operation byte followed by the two longs of the widget id and, for puts, a presence mask
+ * and the widget fields. The board of a widget off the default board follows as a length
+ * byte and its UTF-8 bytes.
+ * <p>
+ * A segment starts with {@code [int magic][byte version]}, the snapshot with
+ * {@code [int magic][byte version][long first segment][int count]}. Files of another
+ * version are refused rather than misread. Recovery reads the snapshot, replays the
+ * segments it does not cover and cuts a segment at the first torn or corrupt record.
+ * <p>
+ * Appends and rotation are serialized by the caller, sync may run concurrently with both.
+ */
+@Slf4j
+public class WidgetLog implements Closeable {
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+
+    private static final byte FORMAT_VERSION = 1;
+    private static final int SNAPSHOT_MAGIC = 0x57534E50;
+    private static final int SEGMENT_MAGIC = 0x57534C47;
+    private static final int SEGMENT_HEADER = Integer.BYTES + 1;
+    private static final String SNAPSHOT = "snapshot.bin";
+    private static final Pattern SEGMENT = Pattern.compile("widget-(\\d{20})\\.log");
+
+    private static final int HEADER = Integer.BYTES * 2;
+    private static final int MAX_BOARD_ID = 64;
+    private static final int MAX_RECORD = HEADER + 1 + Long.BYTES * 2 + 1 + Integer.BYTES * 5 + Long.BYTES
+            + 1 + MAX_BOARD_ID;
+
+    private final Path dir;
+    private final Encoder encoder = new Encoder();
+
+    private volatile FileChannel channel;
+    private long segment;
+    private volatile long written;
+
+    public WidgetLog(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+    }
+
+    /**
+     * Rebuilds the store content from the snapshot and log segments and opens a fresh
+     * segment for appends. Must be called once before anything is appended.
+     */
+    public List<Widget> recover() throws IOException {
+        Map<WidgetId, Widget> widgets = new LinkedHashMap<>();
+        var firstSegment = readSnapshot(widgets);
+
+        var segments = segments();
+        for (var seq : segments) {
+            if (seq >= firstSegment) {
+                replay(segmentPath(seq), widgets);
+            }
+        }
+
+        var last = segments.isEmpty() ? firstSegment : Math.max(firstSegment, segments.get(segments.size() - 1) + 1);
+        openSegment(last);
+        return new ArrayList<>(widgets.values());
+    }
+
+    public long append(Widget widget, boolean delete) throws IOException {
+        var record = encoder.frame(widget, delete);
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+        written += record.limit();
+        return written;
+    }
+
+    /**
+     * Forces everything appended so far to disk.
+     *
+     * @return log position known to be durable
+     */
+    public long sync() throws IOException {
+        var target = written;
+        var current = channel;
+        try {
+            current.force(false);
+        } catch (ClosedChannelException ex) {
+            // rotated meanwhile, the old segment was forced on close
+        }
+        return target;
+    }
+
+    /**
+     * Closes the current segment and starts the next one.
+     *
+     * @return number of the new segment
+     */
+    public long rotate() throws IOException {
+        var old = channel;
+        old.force(false);
+        openSegment(segment + 1);
+        old.close();
+        return segment;
+    }
+
+    /**
+     * Stores widgets as the state at the start of firstSegment and drops the segments
+     * the snapshot makes obsolete. The snapshot replaces the old one atomically.
+     */
+    public void writeSnapshot(Collection<Widget> widgets, long firstSegment) throws IOException {
+        var tmp = dir.resolve(SNAPSHOT + ".tmp");
+        try (var out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            var header = ByteBuffer.allocate(Integer.BYTES * 2 + 1 + Long.BYTES);
+            header.putInt(SNAPSHOT_MAGIC).put(FORMAT_VERSION).putLong(firstSegment).putInt(widgets.size()).flip();
+            out.write(header);
+
+            var local = new Encoder();
+            for (var widget : widgets) {
+                var record = local.frame(widget, false);
+                while (record.hasRemaining()) {
+                    out.write(record);
+                }
+            }
+            out.force(true);
+        }
+        Files.move(tmp, dir.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        for (var seq : segments()) {
+            if (seq < firstSegment) {
+                Files.deleteIfExists(segmentPath(seq));
+            }
+        }
+    }
+
+    public long written() {
+        return written;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+        }
+    }
+
+    private static void decode(ByteBuffer payload, Map<WidgetId, Widget> widgets) {
+        var op = payload.get();
+        var widgetId = new WidgetId(payload.getLong(), payload.getLong());
+
+        if (op == DELETE) {
+            widgets.remove(widgetId);
+            return;
+        }
+
+        var present = payload.get();
+        Integer[] fields = new Integer[5];
+        for (int i = 0; i < fields.length; i++) {
+            if ((present & (1 << i)) != 0) {
+                fields[i] = payload.getInt();
+            }
+        }
+
+        var widget = new Widget(fields[0], fields[1], fields[2], fields[3], fields[4]);
+        widget.setId(widgetId);
+        if ((present & (1 << fields.length)) != 0) {
+            widget.setLastModified(new Date(payload.getLong()));
+        }
+        if ((present & (1 << (fields.length + 1))) != 0) {
+            var boardId = new byte[payload.get()];
+            payload.get(boardId);
+            widget.setBoardId(new String(boardId, StandardCharsets.UTF_8));
+        }
+
+        widgets.put(widgetId, widget);
+    }
+
+    private long readSnapshot(Map<WidgetId, Widget> widgets) throws IOException {
+        var path = dir.resolve(SNAPSHOT);
+        if (!Files.exists(path)) {
+            return 0;
+        }
+
+        var data = map(path);
+        if (data.getInt() != SNAPSHOT_MAGIC) {
+            throw new IOException("Not a widget snapshot: " + path);
+        }
+        checkVersion(data.get(), path);
+
+        var firstSegment = data.getLong();
+        var count = data.getInt();
+        for (int i = 0; i < count; i++) {
+            if (readRecord(data, widgets) < 0) {
+                throw new IOException("Corrupt widget snapshot: " + path);
+            }
+        }
+        return firstSegment;
+    }
+
+    private void replay(Path path, Map<WidgetId, Widget> widgets) throws IOException {
+        var data = map(path);
+        if (data.limit() < SEGMENT_HEADER) {
+            // created just before a crash, nothing was appended to it
+            return;
+        }
+        if (data.getInt() != SEGMENT_MAGIC) {
+            throw new IOException("Not a widget log segment: " + path);
+        }
+        checkVersion(data.get(), path);
+
+        while (data.hasRemaining()) {
+            var start = data.position();
+            if (readRecord(data, widgets) < 0) {
+                log.warn("Truncating {} at {} of {} bytes: torn or corrupt record", path, start, data.limit());
+                try (var ch = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    ch.truncate(start);
+                }
+                return;
+            }
+        }
+    }
+
+    private static void checkVersion(byte version, Path path) throws IOException {
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported widget log version " + version + " in " + path);
+        }
+    }
+
+    private int readRecord(ByteBuffer data, Map<WidgetId, Widget> widgets) {
+        try {
+            var length = data.getInt();
+            var checksum = data.getInt();
+            if (length <= 0 || length > data.remaining()) {
+                return -1;
+            }
+
+            var payload = data.slice();
+            payload.limit(length);
+
+            var check = new CRC32();
+            check.update(payload.duplicate());
+            if ((int) check.getValue() != checksum) {
+                return -1;
+            }
+
+            decode(payload, widgets);
+            data.position(data.position() + length);
+            return length;
+        } catch (BufferUnderflowException ex) {
+            return -1;
+        }
+    }
+
+    private static ByteBuffer map(Path path) throws IOException {
+        try (var ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+    }
+
+    private void openSegment(long seq) throws IOException {
+        channel = FileChannel.open(segmentPath(seq), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        if (channel.size() == 0) {
+            var header = ByteBuffer.allocate(SEGMENT_HEADER);
+            header.putInt(SEGMENT_MAGIC).put(FORMAT_VERSION).flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+        }
+        segment = seq;
+    }
+
+    private List<Long> segments() throws IOException {
+        try (var files = Files.list(dir)) {
+            return files.map(p -> SEGMENT.matcher(p.getFileName().toString()))
+                    .filter(Matcher::matches)
+                    .map(m -> Long.parseLong(m.group(1)))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private Path segmentPath(long seq) {
+        return dir.resolve(String.format("widget-%020d.log", seq));
+    }
+
+    private static final class Encoder {
+        private final CRC32 crc = new CRC32();
+        private final ByteBuffer buffer = ByteBuffer.allocate(MAX_RECORD);
+
+        private ByteBuffer frame(Widget widget, boolean delete) {
+            buffer.clear();
+            buffer.position(HEADER);
+            encode(widget, delete);
+            buffer.flip();
+
+            crc.reset();
+            crc.update(buffer.array(), HEADER, buffer.limit() - HEADER);
+            buffer.putInt(0, buffer.limit() - HEADER);
+            buffer.putInt(Integer.BYTES, (int) crc.getValue());
+            return buffer;
+        }
+
+        private void encode(Widget widget, boolean delete) {
+            buffer.put(delete ? DELETE : PUT);
+            buffer.putLong(widget.getId().getHigh());
+            buffer.putLong(widget.getId().getLow());
+            if (delete) {
+                return;
+            }
+
+            Integer[] fields = {widget.getXCoord(), widget.getYCoord(), widget.getZIndex(), widget.getWidth(), widget.getHeight()};
+            byte present = 0;
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i] != null) {
+                    present |= 1 << i;
+                }
+            }
+            if (widget.getLastModified() != null) {
+                present |= 1 << fields.length;
+            }
+            var boardId = boardId(widget);
+            if (boardId != null) {
+                present |= 1 << (fields.length + 1);
+            }
+
+            buffer.put(present);
+            for (var field : fields) {
+                if (field != null) {
+                    buffer.putInt(field);
+                }
+            }
+            if (widget.getLastModified() != null) {
+                buffer.putLong(widget.getLastModified().getTime());
+            }
+            if (boardId != null) {
+                buffer.put((byte) boardId.length);
+                buffer.put(boardId);
+            }
+        }
+
+        /**
+         * @return UTF-8 bytes of the board, null for the default board
+         */
+        private static byte[] boardId(Widget widget) {
+            if (widget.getBoardId() == null || Widget.DEFAULT_BOARD.equals(widget.getBoardId())) {
+                return null;
+            }
+
+            var res = widget.getBoardId().getBytes(StandardCharsets.UTF_8);
+            if (res.length > MAX_BOARD_ID) {
+                throw new IllegalArgumentException("Board id longer than " + MAX_BOARD_ID + " bytes: " + widget.getBoardId());
+            }
+            return res;
+        }
+    }
+}
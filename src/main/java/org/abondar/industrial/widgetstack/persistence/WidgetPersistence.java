@@ -0,0 +1,34 @@
+package org.abondar.industrial.widgetstack.persistence;
+
+import org.abondar.industrial.widgetstack.model.Widget;
+
+import java.util.Collection;
+
+/**
+ * Durable copy of the in-memory store. Called by the service under its write lock
+ * with widgets that must not be changed afterwards by the implementation.
+ */
+public interface WidgetPersistence {
+
+    void save(Widget widget);
+
+    void saveAll(Collection<Widget> widgets);
+
+    void delete(Widget widget);
+
+    void deleteAll(Collection<Widget> widgets);
+
+    /**
+     * Blocks until everything the calling thread wrote is durable. Called by the service
+     * after releasing its lock, so concurrent writers can share one sync.
+     */
+    default void awaitDurable() {
+    }
+
+    /**
+     * Widgets accepted but not yet written to the durable copy.
+     */
+    default int pending() {
+        return 0;
+    }
+}
@@ -0,0 +1,230 @@
+package org.abondar.industrial.widgetstack.persistence;
+
+import lombok.extern.slf4j.Slf4j;
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetId;
+import org.abondar.industrial.widgetstack.repository.WidgetRepository;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Queues DB writes and flushes them in batches from a background thread, so the service
+ * lock is never held across DB I/O. Writes are coalesced per widget id: only the latest
+ * state of a widget is written. When the queue holds capacity distinct ids, new ids wait
+ * for the next flush. On shutdown the queue is drained before the bean is destroyed: a
+ * failed flush is retried a few times, and if writes are still pending after that the
+ * shutdown fails instead of dropping them silently.
+ */
+@Slf4j
+public class WriteBehindWidgetPersistence implements WidgetPersistence, DisposableBean {
+
+    private static final class PendingWrite {
+        private final Widget widget;
+        private final boolean delete;
+
+        private PendingWrite(Widget widget, boolean delete) {
+            this.widget = widget;
+            this.delete = delete;
+        }
+    }
+
+    private static final int SHUTDOWN_ATTEMPTS = 3;
+    private static final long SHUTDOWN_RETRY_DELAY_MS = 100;
+
+    private final WidgetRepository repository;
+    private final long flushInterval;
+    private final int batchSize;
+    private final int capacity;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition flushNeeded = lock.newCondition();
+    private final Thread flusher;
+
+    private Map<WidgetId, PendingWrite> pending = new LinkedHashMap<>();
+    private int flushing;
+    private boolean running = true;
+    private int shutdownFailures;
+
+    public WriteBehindWidgetPersistence(WidgetRepository repository, long flushInterval, int batchSize, int capacity) {
+        this.repository = repository;
+        this.flushInterval = flushInterval;
+        this.batchSize = batchSize;
+        this.capacity = capacity;
+
+        this.flusher = new Thread(this::flushLoop, "widget-write-behind");
+        this.flusher.start();
+    }
+
+    @Override
+    public void save(Widget widget) {
+        enqueue(new PendingWrite(new Widget(widget), false));
+    }
+
+    @Override
+    public void saveAll(Collection<Widget> widgets) {
+        widgets.forEach(this::save);
+    }
+
+    @Override
+    public void delete(Widget widget) {
+        enqueue(new PendingWrite(new Widget(widget), true));
+    }
+
+    @Override
+    public void deleteAll(Collection<Widget> widgets) {
+        widgets.forEach(this::delete);
+    }
+
+    /**
+     * Queued widgets plus the ones the flush in progress is writing.
+     */
+    @Override
+    public int pending() {
+        lock.lock();
+        try {
+            return pending.size() + flushing;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(PendingWrite write) {
+        var id = write.widget.getId();
+        lock.lock();
+        try {
+            while (running && pending.size() >= capacity && !pending.containsKey(id)) {
+                notFull.awaitUninterruptibly();
+            }
+            if (!running) {
+                throw new IllegalStateException("Write-behind persistence is shut down");
+            }
+
+            pending.put(id, write);
+            if (pending.size() >= batchSize) {
+                flushNeeded.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            Map<WidgetId, PendingWrite> batch;
+            lock.lock();
+            try {
+                if (running && pending.size() < batchSize) {
+                    flushNeeded.await(flushInterval, TimeUnit.MILLISECONDS);
+                }
+                if (pending.isEmpty() || shutdownFailures >= SHUTDOWN_ATTEMPTS) {
+                    if (!running) {
+                        return;
+                    }
+                    continue;
+                }
+
+                batch = pending;
+                pending = new LinkedHashMap<>();
+                flushing = batch.size();
+                notFull.signalAll();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            flush(batch);
+            flushed();
+        }
+    }
+
+    private void flushed() {
+        lock.lock();
+        try {
+            flushing = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flush(Map<WidgetId, PendingWrite> batch) {
+        List<PendingWrite> writes = new ArrayList<>(batch.values());
+        for (int from = 0; from < writes.size(); from += batchSize) {
+            var chunk = writes.subList(from, Math.min(from + batchSize, writes.size()));
+            try {
+                write(chunk);
+            } catch (RuntimeException ex) {
+                log.error("Failed to flush {} widget writes", chunk.size(), ex);
+                retry(writes.subList(from, writes.size()));
+                return;
+            }
+        }
+    }
+
+    private void write(List<PendingWrite> chunk) {
+        List<Widget> saved = new ArrayList<>();
+        List<Widget> deleted = new ArrayList<>();
+        chunk.forEach(w -> (w.delete ? deleted : saved).add(w.widget));
+
+        if (!deleted.isEmpty()) {
+            repository.deleteInBatch(deleted);
+        }
+        if (!saved.isEmpty()) {
+            repository.upsertAll(saved);
+        }
+    }
+
+    private void retry(List<PendingWrite> failed) {
+        lock.lock();
+        try {
+            Map<WidgetId, PendingWrite> merged = new LinkedHashMap<>();
+            failed.forEach(w -> merged.put(w.widget.getId(), w));
+            merged.putAll(pending);
+            pending = merged;
+            flushing = 0;
+
+            if (running) {
+                flushNeeded.await(flushInterval, TimeUnit.MILLISECONDS);
+            } else {
+                shutdownFailures++;
+                flushNeeded.await(SHUTDOWN_RETRY_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if writes are still pending after the flush was retried
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        lock.lock();
+        try {
+            running = false;
+            flushNeeded.signal();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        flusher.join();
+
+        var lost = pending();
+        if (lost > 0) {
+            log.error("{} widget writes were not flushed on shutdown after {} attempts", lost, SHUTDOWN_ATTEMPTS);
+            throw new IllegalStateException(lost + " widget writes were not flushed on shutdown");
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.abondar.industrial.widgetstack.repository;
+
+import org.abondar.industrial.widgetstack.model.Widget;
+
+import java.util.Collection;
+
+/**
+ * Writes that bypass the persistence context, see {@link WidgetBatchRepositoryImpl}.
+ */
+public interface WidgetBatchRepository {
+
+    /**
+     * Inserts the widgets that are not in the table and overwrites the ones that are, in JDBC
+     * batches and without reading any of them first.
+     */
+    void upsertAll(Collection<Widget> widgets);
+}
@@ -0,0 +1,48 @@
+package org.abondar.industrial.widgetstack.repository;
+
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.util.Collection;
+
+/**
+ * Saving detached widgets through JPA merges them, and a merge first selects the row to
+ * tell an insert from an update: one SELECT per widget before the batched writes. The
+ * service always holds the complete state of a widget, so an H2 MERGE keyed on the id does
+ * both in one statement, sent in JDBC batches of hibernate.jdbc.batch_size.
+ */
+public class WidgetBatchRepositoryImpl implements WidgetBatchRepository {
+
+    private static final String UPSERT = "MERGE INTO widget "
+            + "(id, board_id, x_coord, y_coord, z_index, width, height, last_modified) KEY (id) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int batchSize;
+
+    @Autowired
+    public WidgetBatchRepositoryImpl(JdbcTemplate jdbcTemplate,
+                                     @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:100}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    @Transactional
+    public void upsertAll(Collection<Widget> widgets) {
+        jdbcTemplate.batchUpdate(UPSERT, widgets, batchSize, (st, wd) -> {
+            st.setString(1, wd.getId().toString());
+            st.setString(2, wd.getBoardId());
+            st.setInt(3, wd.getXCoord());
+            st.setInt(4, wd.getYCoord());
+            st.setInt(5, wd.getZIndex());
+            st.setInt(6, wd.getWidth());
+            st.setInt(7, wd.getHeight());
+            st.setTimestamp(8, new Timestamp(wd.getLastModified().getTime()));
+        });
+    }
+}
@@ -1,11 +1,71 @@
 package org.abondar.industrial.widgetstack.repository;
 
 import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetId;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+
 @Repository
-public interface WidgetRepository extends JpaRepository<Widget, String> {
+public interface WidgetRepository extends JpaRepository<Widget, WidgetId>, WidgetBatchRepository {
+
+    /**
+     * Every widget ordered by board and z-index, read through a cursor for loading.
+     */
+    @Query("select w from Widget w order by w.boardId, w.zIndex")
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = "1000"), @QueryHint(name = HINT_READONLY, value = "true")})
+    Stream<Widget> streamAll();
+
+    /**
+     * Widgets of one board; order, offset and limit come from the pageable.
+     */
+    @Query("select w from Widget w where w.boardId = :boardId")
+    List<Widget> findOnBoard(@Param("boardId") String boardId, Pageable pageable);
+
+    /**
+     * Widgets with z-index of at least zIndex in z order, read through a cursor for streaming.
+     */
+    @Query("select w from Widget w where w.boardId = :boardId and w.zIndex >= :zIndex order by w.zIndex")
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = "1000"), @QueryHint(name = HINT_READONLY, value = "true")})
+    Stream<Widget> streamFrom(@Param("boardId") String boardId, @Param("zIndex") int zIndex);
+
+    @Query("select w from Widget w where w.boardId = :boardId and w.zIndex > :zIndex order by w.zIndex")
+    List<Widget> findAfter(@Param("boardId") String boardId, @Param("zIndex") int zIndex, Pageable pageable);
+
+    /**
+     * Widgets anchored below (xStop, yStop) that are at most maxWidth wide and maxHeight high,
+     * in z order. Offset and limit come from the pageable.
+     */
+    @Query("select w from Widget w where w.boardId = :boardId and w.xCoord < :xStop and w.yCoord < :yStop " +
+            "and w.width <= :maxWidth and w.height <= :maxHeight order by w.zIndex")
+    List<Widget> findInRegion(@Param("boardId") String boardId, @Param("xStop") int xStop, @Param("yStop") int yStop,
+                              @Param("maxWidth") int maxWidth, @Param("maxHeight") int maxHeight,
+                              Pageable pageable);
+
+    @Query("select w from Widget w where w.boardId = :boardId and w.zIndex > :zIndex " +
+            "and w.xCoord < :xStop and w.yCoord < :yStop " +
+            "and w.width <= :maxWidth and w.height <= :maxHeight order by w.zIndex")
+    List<Widget> findInRegionAfter(@Param("boardId") String boardId, @Param("zIndex") int zIndex,
+                                   @Param("xStop") int xStop, @Param("yStop") int yStop,
+                                   @Param("maxWidth") int maxWidth, @Param("maxHeight") int maxHeight,
+                                   Pageable pageable);
 
+    @Query("select w from Widget w where w.boardId = :boardId and w.zIndex >= :zIndex " +
+            "and w.xCoord < :xStop and w.yCoord < :yStop " +
+            "and w.width <= :maxWidth and w.height <= :maxHeight order by w.zIndex")
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = "1000"), @QueryHint(name = HINT_READONLY, value = "true")})
+    Stream<Widget> streamInRegionFrom(@Param("boardId") String boardId, @Param("zIndex") int zIndex,
+                                      @Param("xStop") int xStop, @Param("yStop") int yStop,
+                                      @Param("maxWidth") int maxWidth, @Param("maxHeight") int maxHeight);
 
 }
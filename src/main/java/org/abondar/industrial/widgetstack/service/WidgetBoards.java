@@ -0,0 +1,293 @@
+package org.abondar.industrial.widgetstack.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.abondar.industrial.widgetstack.exception.InvalidBoardException;
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.persistence.WidgetPersistence;
+import org.abondar.industrial.widgetstack.repository.WidgetRepository;
+import org.abondar.industrial.widgetstack.storage.WidgetSnapshot;
+import org.abondar.industrial.widgetstack.storage.WidgetStorage;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Independent widget boards, each a {@link WidgetService} with its own storage, z sequence,
+ * lock and versions. The default board is the service bean, the others are made by the
+ * first write to them; reads of a board nobody wrote to see an empty one. Every board feeds
+ * the change listeners with its id, so the change feed, the delta log and cluster
+ * replication cover all of them.
+ */
+@Component
+public class WidgetBoards {
+
+    private static final Pattern BOARD_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    /**
+     * Board id no board can have, so the empty board finds nothing in the DB either.
+     */
+    private static final String NO_BOARD = "";
+
+    private final WidgetService defaultBoard;
+    private final WidgetService emptyBoard;
+    private final Map<String, WidgetService> boards = new ConcurrentHashMap<>();
+
+    private final WidgetRepository repository;
+    private final WidgetPersistence persistence;
+    private final Supplier<WidgetStorage> storageFactory;
+    private final WidgetDbCache dbCache;
+    private final List<WidgetChangeListener> listeners;
+    private final EntityManager entityManager;
+    private final PlatformTransactionManager transactionManager;
+    private final MeterRegistry registry;
+    private final boolean dbStore;
+    private final int maxBoards;
+
+    @Autowired
+    public WidgetBoards(WidgetService defaultBoard, WidgetRepository repository, WidgetPersistence persistence,
+                        Supplier<WidgetStorage> widgetStorageFactory, WidgetDbCache dbCache,
+                        ObjectProvider<WidgetChangeListener> listeners, EntityManager entityManager, PlatformTransactionManager transactionManager,
+                        MeterRegistry registry,
+                        @Value("${db-store}") boolean dbStore,
+                        @Value("${boards.max-boards:1000}") int maxBoards) {
+        this.defaultBoard = defaultBoard;
+        this.repository = repository;
+        this.persistence = persistence;
+        this.storageFactory = widgetStorageFactory;
+        this.dbCache = dbCache;
+        this.listeners = listeners.orderedStream().collect(Collectors.toList());
+        this.entityManager = entityManager;
+        this.transactionManager = transactionManager;
+        this.registry = registry;
+        this.dbStore = dbStore;
+        this.maxBoards = maxBoards;
+        this.emptyBoard = new WidgetService(NO_BOARD, repository, persistence, widgetStorageFactory.get(), dbCache,
+                List.of(), entityManager, transactionManager, registry, dbStore);
+
+        Gauge.builder("widget.boards", boards, map -> map.size() + 1)
+                .description("Boards in use, the default one included")
+                .register(registry);
+    }
+
+    /**
+     * Board to create widgets on, made if it does not exist yet.
+     *
+     * @param boardId board from the URL, null for the default board
+     * @throws RejectedExecutionException if the board is new and max-boards are in use
+     */
+    public WidgetService get(String boardId) throws InvalidBoardException {
+        if (boardId == null || Widget.DEFAULT_BOARD.equals(boardId)) {
+            return defaultBoard;
+        }
+        check(boardId);
+        return board(boardId);
+    }
+
+    /**
+     * Board to read or change existing widgets of. A board that does not exist is not
+     * made: an empty board without widgets stands in for it.
+     *
+     * @param boardId board from the URL, null for the default board
+     */
+    public WidgetService find(String boardId) throws InvalidBoardException {
+        if (boardId == null || Widget.DEFAULT_BOARD.equals(boardId)) {
+            return defaultBoard;
+        }
+        check(boardId);
+        return boards.getOrDefault(boardId, emptyBoard);
+    }
+
+    /**
+     * Id of the board a URL names, checked but without making the board.
+     *
+     * @param boardId board from the URL, null for the default board
+     */
+    public String resolve(String boardId) throws InvalidBoardException {
+        if (boardId == null) {
+            return Widget.DEFAULT_BOARD;
+        }
+        check(boardId);
+        return boardId;
+    }
+
+    /**
+     * All boards, the default one first.
+     */
+    public List<WidgetService> all() {
+        List<WidgetService> res = new ArrayList<>(boards.size() + 1);
+        res.add(defaultBoard);
+        res.addAll(boards.values());
+        return res;
+    }
+
+    /**
+     * Threads waiting for the store lock of any board.
+     */
+    public int getLockQueueLength() {
+        var res = defaultBoard.getLockQueueLength();
+        for (var board : boards.values()) {
+            res += board.getLockQueueLength();
+        }
+        return res;
+    }
+
+    /**
+     * Replaces the content of every board with the widgets read from the durable copy,
+     * each widget going to the board it was stored with.
+     *
+     * @return number of widgets whose z-index was changed to keep z unique on their board
+     */
+    public int load(List<Widget> widgets) {
+        Map<String, List<Widget>> byBoard = new LinkedHashMap<>();
+        byBoard.put(Widget.DEFAULT_BOARD, new ArrayList<>());
+        for (var wd : widgets) {
+            byBoard.computeIfAbsent(boardOf(wd), id -> new ArrayList<>()).add(wd);
+        }
+
+        var repaired = 0;
+        for (var entry : byBoard.entrySet()) {
+            var service = Widget.DEFAULT_BOARD.equals(entry.getKey()) ? defaultBoard : board(entry.getKey());
+            repaired += service.load(entry.getValue());
+        }
+        return repaired;
+    }
+
+    /**
+     * {@link #load(List)} for widgets streamed in board and z-index order: each board takes
+     * its run of the stream as it comes, see {@link WidgetService#loadSorted}.
+     *
+     * @return number of widgets whose z-index was changed to keep z unique on their board
+     */
+    public int loadSorted(Iterator<Widget> widgets) {
+        var repaired = 0;
+        var defaultLoaded = false;
+        var next = widgets.hasNext() ? widgets.next() : null;
+        while (next != null) {
+            var run = new BoardRun(widgets, next);
+            var isDefault = Widget.DEFAULT_BOARD.equals(run.boardId);
+            repaired += (isDefault ? defaultBoard : board(run.boardId)).loadSorted(run);
+            defaultLoaded |= isDefault;
+            while (run.hasNext()) {
+                run.next();
+            }
+            next = run.following;
+        }
+
+        if (!defaultLoaded) {
+            repaired += defaultBoard.loadSorted(Collections.emptyIterator());
+        }
+        return repaired;
+    }
+
+    /**
+     * The widgets of one board at the head of a stream ordered by board. Ends before the
+     * first widget of another board, which is kept in following.
+     */
+    private static final class BoardRun implements Iterator<Widget> {
+        private final Iterator<Widget> source;
+        private final String boardId;
+        private Widget head;
+        private Widget following;
+
+        private BoardRun(Iterator<Widget> source, Widget first) {
+            this.source = source;
+            this.boardId = boardOf(first);
+            this.head = first;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return head != null;
+        }
+
+        @Override
+        public Widget next() {
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            var res = head;
+            head = null;
+            if (source.hasNext()) {
+                var wd = source.next();
+                if (boardId.equals(boardOf(wd))) {
+                    head = wd;
+                } else {
+                    following = wd;
+                }
+            }
+            return res;
+        }
+    }
+
+    private static String boardOf(Widget widget) {
+        return widget.getBoardId() == null ? Widget.DEFAULT_BOARD : widget.getBoardId();
+    }
+
+    /**
+     * {@link WidgetService#snapshot} over all boards at once: the barrier runs while writers
+     * of every board are held off, and no board can be added until it is done. The widgets
+     * are copied after all boards are released.
+     */
+    public List<Widget> snapshot(Runnable barrier) {
+        List<WidgetSnapshot> versions = new ArrayList<>();
+        synchronized (this) {
+            capture(all(), 0, barrier, versions);
+        }
+
+        List<Widget> res = new ArrayList<>();
+        versions.forEach(version -> res.addAll(version.values()));
+        return res;
+    }
+
+    private static void capture(List<WidgetService> services, int next, Runnable barrier,
+                                List<WidgetSnapshot> versions) {
+        if (next == services.size()) {
+            barrier.run();
+            return;
+        }
+        versions.add(services.get(next).capture(() -> capture(services, next + 1, barrier, versions)));
+    }
+
+    private static void check(String boardId) throws InvalidBoardException {
+        if (!BOARD_ID.matcher(boardId).matches()) {
+            throw new InvalidBoardException(boardId);
+        }
+    }
+
+    private WidgetService board(String boardId) {
+        var res = boards.get(boardId);
+        if (res != null) {
+            return res;
+        }
+
+        synchronized (this) {
+            res = boards.get(boardId);
+            if (res == null) {
+                if (boards.size() + 1 >= maxBoards) {
+                    throw new RejectedExecutionException("No more than " + maxBoards + " boards");
+                }
+                res = new WidgetService(boardId, repository, persistence, storageFactory.get(), dbCache, listeners,
+                        entityManager, transactionManager, registry, dbStore);
+                boards.put(boardId, res);
+            }
+            return res;
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package org.abondar.industrial.widgetstack.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetChanges;
+import org.abondar.industrial.widgetstack.model.WidgetId;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Pushes the changes the board services publish to the subscribers of each board. Changes
+ * are coalesced per widget for one window: a widget created and then shifted twice goes out
+ * once, with its latest state, and a widget deleted within the window goes out as a delete
+ * only. At the end of each window the net changes of every changed board are serialized once
+ * and queued for every subscriber of that board.
+ * <p>
+ * Every subscriber has its own bounded queue, drained by a small delivery pool, so a slow
+ * one never holds up the others or the writers. A subscriber whose queue is full is dropped:
+ * its backlog is replaced by a single resync event, after which it is closed and has to
+ * reload the widgets. A load or clear of a whole board resyncs every subscriber of the board.
+ */
+@Component
+@Slf4j
+public class WidgetChangeFeed implements WidgetChangeListener, DisposableBean {
+
+    public static final String CHANGES = "changes";
+    public static final String RESYNC = "resync";
+
+    /**
+     * One message for subscribers: its name, the store version of the board it brings them
+     * to and the serialized {@link WidgetChanges}.
+     */
+    public static final class Event {
+        private final String name;
+        private final long version;
+        private final String data;
+
+        private Event(String name, long version, String data) {
+            this.name = name;
+            this.version = version;
+            this.data = data;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public String getData() {
+            return data;
+        }
+    }
+
+    /**
+     * Transport of one subscriber. Both methods are called from a delivery thread, one
+     * at a time.
+     */
+    public interface Sink {
+
+        void send(Event event) throws IOException;
+
+        void close();
+    }
+
+    public final class Subscription {
+        private final String boardId;
+        private final Sink sink;
+        private final long since;
+        private final BlockingQueue<Event> queue;
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private volatile boolean closed;
+
+        private Subscription(String boardId, Sink sink, long since) {
+            this.boardId = boardId;
+            this.sink = sink;
+            this.since = since;
+            this.queue = new ArrayBlockingQueue<>(buffer);
+        }
+
+        /**
+         * Stops delivery, for a subscriber that went away.
+         */
+        public void cancel() {
+            closed = true;
+            queue.clear();
+            if (subscriptions.remove(this)) {
+                subscribers.decrementAndGet();
+            }
+        }
+
+        /**
+         * Only called by the flusher, so a full queue cannot fill up again while the resync
+         * event replaces its content.
+         */
+        private void offer(Event event) {
+            if (closed) {
+                return;
+            }
+
+            if (RESYNC.equals(event.name) || !queue.offer(event)) {
+                if (!RESYNC.equals(event.name)) {
+                    dropped.increment();
+                }
+                closed = true;
+                queue.clear();
+                queue.offer(resync(boardId, event.version));
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            if (draining.compareAndSet(false, true)) {
+                try {
+                    delivery.execute(this::drain);
+                } catch (RejectedExecutionException ex) {
+                    draining.set(false);
+                }
+            }
+        }
+
+        private void drain() {
+            try {
+                Event event;
+                while ((event = queue.poll()) != null) {
+                    sink.send(event);
+                    if (RESYNC.equals(event.name)) {
+                        close();
+                        return;
+                    }
+                }
+            } catch (IOException | RuntimeException ex) {
+                log.debug("Dropping change subscriber: {}", ex.getMessage());
+                close();
+                return;
+            } finally {
+                draining.set(false);
+            }
+
+            if (!queue.isEmpty()) {
+                schedule();
+            }
+        }
+
+        private void close() {
+            cancel();
+            sink.close();
+        }
+    }
+
+    private final ObjectMapper mapper;
+    private final int buffer;
+    private final int maxSubscribers;
+
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final Counter dropped;
+
+    private final ScheduledExecutorService flusher;
+    private final ExecutorService delivery;
+
+    /**
+     * Changes of one board coalesced since the last flush.
+     */
+    private static final class Pending {
+        private Map<WidgetId, Widget> upserts = new LinkedHashMap<>();
+        private Set<WidgetId> deletes = new LinkedHashSet<>();
+        private long version;
+        private long resetVersion = -1;
+
+        private boolean isEmpty() {
+            return resetVersion < 0 && upserts.isEmpty() && deletes.isEmpty();
+        }
+    }
+
+    private final Map<String, Pending> boards = new HashMap<>();
+
+    @Autowired
+    public WidgetChangeFeed(ObjectMapper mapper, MeterRegistry registry,
+                            @Value("${changes.window:50}") long window,
+                            @Value("${changes.buffer:64}") int buffer,
+                            @Value("${changes.max-subscribers:10000}") int maxSubscribers,
+                            @Value("${changes.delivery-threads:4}") int deliveryThreads) {
+        this.mapper = mapper;
+        this.buffer = buffer;
+        this.maxSubscribers = maxSubscribers;
+
+        registry.gauge("widget.changes.subscribers", subscribers);
+        this.dropped = Counter.builder("widget.changes.dropped")
+                .description("Subscribers dropped to a resync for falling behind")
+                .register(registry);
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "widget-changes"));
+        this.flusher.scheduleWithFixedDelay(this::flush, window, window, TimeUnit.MILLISECONDS);
+
+        var threadNumber = new AtomicInteger();
+        this.delivery = Executors.newFixedThreadPool(deliveryThreads,
+                runnable -> new Thread(runnable, "widget-changes-delivery-" + threadNumber.incrementAndGet()));
+    }
+
+    /**
+     * @param boardId board whose changes the subscriber gets
+     * @throws RejectedExecutionException if the subscriber limit is reached
+     */
+    public Subscription subscribe(String boardId, Sink sink) {
+        return subscribe(boardId, sink, () -> null);
+    }
+
+    /**
+     * Subscribes a client that reconnects. The changes it missed are taken while no window
+     * can be cut, so every change is either in them or in a later event; they are queued
+     * ahead of the live ones. A resync there is the only event the subscriber gets.
+     *
+     * @param catchUp changes since the client's last event, null or empty if it is current
+     * @throws RejectedExecutionException if the subscriber limit is reached
+     */
+    public Subscription subscribe(String boardId, Sink sink, Supplier<WidgetChanges> catchUp) {
+        if (subscribers.incrementAndGet() > maxSubscribers) {
+            subscribers.decrementAndGet();
+            throw new RejectedExecutionException("Too many change subscribers");
+        }
+
+        Subscription subscription;
+        synchronized (this) {
+            var board = boards.get(boardId);
+            subscription = new Subscription(boardId, sink, board == null ? 0 : board.version);
+            var missed = catchUp.get();
+            if (missed != null && missed.isResync()) {
+                subscription.closed = true;
+                subscription.queue.offer(resync(boardId, missed.getVersion()));
+            } else if (missed != null && (!missed.getUpserts().isEmpty() || !missed.getDeletes().isEmpty())) {
+                subscription.queue.offer(changes(boardId, missed.getVersion(), missed.getUpserts(),
+                        missed.getDeletes()));
+            }
+            subscriptions.add(subscription);
+        }
+        subscription.schedule();
+        return subscription;
+    }
+
+    public int getSubscribers() {
+        return subscribers.get();
+    }
+
+    @Override
+    public void onChange(String boardId, long version, Collection<Widget> changed, Collection<WidgetId> removed) {
+        synchronized (this) {
+            var board = boards.computeIfAbsent(boardId, id -> new Pending());
+            board.version = version;
+            if (subscriptions.isEmpty()) {
+                return;
+            }
+
+            for (var wd : changed) {
+                board.deletes.remove(wd.getId());
+                board.upserts.put(wd.getId(), new Widget(wd));
+            }
+            for (var id : removed) {
+                board.upserts.remove(id);
+                board.deletes.add(id);
+            }
+        }
+    }
+
+    @Override
+    public void onReset(String boardId, long version) {
+        synchronized (this) {
+            var board = boards.computeIfAbsent(boardId, id -> new Pending());
+            board.upserts = new LinkedHashMap<>();
+            board.deletes = new LinkedHashSet<>();
+            board.version = version;
+            if (!subscriptions.isEmpty()) {
+                board.resetVersion = version;
+            }
+        }
+    }
+
+    /**
+     * Sends out the changes coalesced since the last flush. Subscribers of a board that were
+     * there before a reset of it in this window get a resync, later ones the changes made
+     * after it.
+     */
+    void flush() {
+        Map<String, Event> changes = new HashMap<>();
+        Map<String, Event> resyncs = new HashMap<>();
+        Map<String, Long> resets = new HashMap<>();
+        synchronized (this) {
+            for (var entry : boards.entrySet()) {
+                var board = entry.getValue();
+                if (board.isEmpty()) {
+                    continue;
+                }
+
+                if (!board.upserts.isEmpty() || !board.deletes.isEmpty()) {
+                    changes.put(entry.getKey(), changes(entry.getKey(), board.version, board.upserts.values(),
+                            board.deletes));
+                }
+                if (board.resetVersion >= 0) {
+                    resyncs.put(entry.getKey(), resync(entry.getKey(), board.version));
+                    resets.put(entry.getKey(), board.resetVersion);
+                }
+                board.upserts = new LinkedHashMap<>();
+                board.deletes = new LinkedHashSet<>();
+                board.resetVersion = -1;
+            }
+        }
+        if (changes.isEmpty() && resyncs.isEmpty()) {
+            return;
+        }
+
+        for (var subscription : subscriptions) {
+            var reset = resets.getOrDefault(subscription.boardId, -1L);
+            var event = subscription.since < reset ? resyncs.get(subscription.boardId)
+                    : changes.get(subscription.boardId);
+            if (event != null) {
+                subscription.offer(event);
+            }
+        }
+    }
+
+    private Event changes(String boardId, long version, Collection<Widget> changed, Collection<WidgetId> removed) {
+        try {
+            var data = mapper.writeValueAsString(new WidgetChanges(boardId, version, new ArrayList<>(changed),
+                    new ArrayList<>(removed), false));
+            return new Event(CHANGES, version, data);
+        } catch (JsonProcessingException ex) {
+            log.error("Failed to serialize widget changes, resyncing subscribers", ex);
+            return resync(boardId, version);
+        }
+    }
+
+    /**
+     * Board ids are letters, digits, - and _, so they need no escaping.
+     */
+    private static Event resync(String boardId, long version) {
+        return new Event(RESYNC, version, "{\"board\":\"" + boardId + "\",\"version\":" + version
+                + ",\"upserts\":[],\"deletes\":[],\"resync\":true}");
+    }
+
+    @Override
+    public void destroy() {
+        flusher.shutdownNow();
+        delivery.shutdownNow();
+        subscriptions.forEach(Subscription::close);
+    }
+}
@@ -0,0 +1,29 @@
+package org.abondar.industrial.widgetstack.service;
+
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetId;
+
+import java.util.Collection;
+
+/**
+ * Told about every change the board services publish, under the write lock of the board and
+ * in its version order. Boards have versions of their own, so changes of different boards
+ * arrive interleaved and concurrently. Implementations must return quickly and copy what they
+ * keep, since the widgets passed in belong to the storage.
+ */
+public interface WidgetChangeListener {
+
+    /**
+     * @param boardId board the change was made on
+     * @param version store version the change produced on that board
+     * @param changed created and updated widgets, including the ones shifted up
+     * @param removed ids of deleted widgets
+     */
+    void onChange(String boardId, long version, Collection<Widget> changed, Collection<WidgetId> removed);
+
+    /**
+     * The whole content of the board was replaced by a load or a clear, so any incremental
+     * state built from its earlier changes is void.
+     */
+    void onReset(String boardId, long version);
+}
@@ -0,0 +1,200 @@
+package org.abondar.industrial.widgetstack.service;
+
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetChanges;
+import org.abondar.industrial.widgetstack.model.WidgetId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The last capacity widget changes of every board in a ring of its own, in the store version
+ * order of the board: every created, changed or shifted widget with its state at that
+ * version, and a tombstone for every deleted one. A client that saw a board at some version
+ * gets the net changes since then from {@link #since(String, long)} instead of reloading
+ * every widget, as long as the ring still reaches back that far. Rings start small and grow
+ * up to capacity, so boards with few changes keep little.
+ * <p>
+ * Evicting the oldest change raises the floor of the board to its version, since from then on
+ * the changes of that version are no longer complete. A load or clear empties the ring and
+ * moves the floor to the version it produced.
+ */
+@Component
+public class WidgetChangeLog implements WidgetChangeListener {
+
+    private static final int INITIAL_RING = 16;
+
+    private static final class Entry {
+        private final long version;
+        private final WidgetId id;
+        private final Widget widget;
+
+        private Entry(long version, WidgetId id, Widget widget) {
+            this.version = version;
+            this.id = id;
+            this.widget = widget;
+        }
+    }
+
+    private static final class Board {
+        private Entry[] ring;
+        private long head;
+        private long floor;
+        private long version;
+
+        private Board(int size) {
+            this.ring = new Entry[size];
+        }
+    }
+
+    private final int capacity;
+    private final Map<String, Board> boards = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @Autowired
+    public WidgetChangeLog(@Value("${change-log.capacity:100000}") int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Change log capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    @Override
+    public void onChange(String boardId, long version, Collection<Widget> changed, Collection<WidgetId> removed) {
+        lock.writeLock().lock();
+        try {
+            var board = board(boardId);
+            for (var wd : changed) {
+                append(board, new Entry(version, wd.getId(), new Widget(wd)));
+            }
+            for (var id : removed) {
+                append(board, new Entry(version, id, null));
+            }
+            board.version = version;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onReset(String boardId, long version) {
+        lock.writeLock().lock();
+        try {
+            var board = new Board(Math.min(capacity, INITIAL_RING));
+            board.floor = version;
+            board.version = version;
+            boards.put(boardId, board);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Net changes of a board after version since, each widget once with its latest state or
+     * as a tombstone. A board without changes is at version 0.
+     *
+     * @return null if since is below the floor or above the current version of the board, in
+     * which case the client has to reload everything
+     */
+    public WidgetChanges since(String boardId, long since) {
+        lock.readLock().lock();
+        try {
+            var board = boards.get(boardId);
+            if (board == null) {
+                return since == 0 ? new WidgetChanges(boardId, 0, List.of(), List.of(), false) : null;
+            }
+            if (since < board.floor || since > board.version) {
+                return null;
+            }
+
+            Map<WidgetId, Widget> latest = new LinkedHashMap<>();
+            for (long i = first(board, since); i < board.head; i++) {
+                var entry = board.ring[slot(board, i)];
+                latest.remove(entry.id);
+                latest.put(entry.id, entry.widget);
+            }
+
+            List<Widget> upserts = new ArrayList<>();
+            List<WidgetId> deletes = new ArrayList<>();
+            latest.forEach((id, wd) -> {
+                if (wd == null) {
+                    deletes.add(id);
+                } else {
+                    upserts.add(new Widget(wd));
+                }
+            });
+            return new WidgetChanges(boardId, board.version, upserts, deletes, false);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getFloor(String boardId) {
+        lock.readLock().lock();
+        try {
+            var board = boards.get(boardId);
+            return board == null ? 0 : board.floor;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getVersion(String boardId) {
+        lock.readLock().lock();
+        try {
+            var board = boards.get(boardId);
+            return board == null ? 0 : board.version;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Board board(String boardId) {
+        return boards.computeIfAbsent(boardId, id -> new Board(Math.min(capacity, INITIAL_RING)));
+    }
+
+    /**
+     * Appends to the ring, doubling it while it is below capacity. A ring only wraps once it
+     * is at capacity, so until then every position is its own slot and growing keeps them.
+     */
+    private void append(Board board, Entry entry) {
+        if (board.head == board.ring.length && board.ring.length < capacity) {
+            board.ring = Arrays.copyOf(board.ring, (int) Math.min(capacity, 2L * board.ring.length));
+        }
+        if (board.head >= board.ring.length) {
+            board.floor = Math.max(board.floor, board.ring[slot(board, board.head)].version);
+        }
+        board.ring[slot(board, board.head)] = entry;
+        board.head++;
+    }
+
+    /**
+     * Position of the first retained change with a version above since.
+     */
+    private static long first(Board board, long since) {
+        var lo = Math.max(board.head - board.ring.length, 0);
+        var hi = board.head;
+        while (lo < hi) {
+            var mid = (lo + hi) >>> 1;
+            if (board.ring[slot(board, mid)].version <= since) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static int slot(Board board, long position) {
+        return (int) (position % board.ring.length);
+    }
+}
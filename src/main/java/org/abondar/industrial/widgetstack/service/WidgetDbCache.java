@@ -0,0 +1,152 @@
+package org.abondar.industrial.widgetstack.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetId;
+import org.abondar.industrial.widgetstack.persistence.WidgetPersistence;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Read-through cache in front of the repository for db=true reads: single widgets by id and
+ * result pages by query. Both are bounded Caffeine caches, so admission and eviction follow
+ * W-TinyLFU; pages are weighed by the number of widgets they hold.
+ * <p>
+ * Every entry remembers the version it was read at, the widget version for single widgets
+ * and the store version for pages, and is only served while that version is still
+ * current. A result is only cached if the DB held every accepted write when it was read,
+ * that is nothing was pending in the persistence: with write-behind the DB may still have
+ * the state before the current version, and caching that under the current version would
+ * serve it until the next write. Writers additionally drop the entries they made stale
+ * right away, see {@link #invalidate}.
+ * <p>
+ * With db-cache.enabled off every read goes to the DB, e.g. to measure the DB itself.
+ */
+@Component
+public class WidgetDbCache {
+
+    private static final class Entry<T> {
+        private final long version;
+        private final T value;
+
+        private Entry(long version, T value) {
+            this.version = version;
+            this.value = value;
+        }
+    }
+
+    private final Cache<WidgetId, Entry<Widget>> widgets;
+    private final Cache<List<Object>, Entry<List<Widget>>> pages;
+    private final WidgetPersistence persistence;
+    private final boolean enabled;
+
+    @Autowired
+    public WidgetDbCache(@Value("${db-cache.enabled:true}") boolean enabled,
+                         @Value("${db-cache.capacity:10000}") long capacity, WidgetPersistence persistence,
+                         MeterRegistry registry) {
+        this.enabled = enabled;
+        this.persistence = persistence;
+        this.widgets = Caffeine.newBuilder()
+                .maximumSize(capacity)
+                .recordStats()
+                .build();
+        this.pages = Caffeine.newBuilder()
+                .maximumWeight(capacity)
+                .<List<Object>, Entry<List<Widget>>>weigher((key, entry) -> Math.max(entry.value.size(), 1))
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(registry, widgets, "widget.db.byId");
+        CaffeineCacheMetrics.monitor(registry, pages, "widget.db.pages");
+    }
+
+    /**
+     * @param version current version of the widget, read before the cache is consulted
+     * @param loader  reads the widget from the DB, may return null which is not cached
+     */
+    public Widget getWidget(WidgetId id, long version, Supplier<Widget> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+
+        var entry = widgets.getIfPresent(id);
+        if (entry != null && entry.version == version) {
+            return new Widget(entry.value);
+        }
+
+        var cacheable = persistence.pending() == 0;
+        var res = loader.get();
+        if (res != null && cacheable) {
+            widgets.put(id, new Entry<>(version, new Widget(res)));
+        }
+        return res;
+    }
+
+    /**
+     * @param key     the board, the query and its arguments
+     * @param version current store version, read before the cache is consulted
+     * @param loader  reads the page from the DB; empty pages are not cached
+     */
+    public List<Widget> getPage(List<Object> key, long version, Supplier<List<Widget>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+
+        var entry = pages.getIfPresent(key);
+        if (entry != null && entry.version == version) {
+            return copy(entry.value);
+        }
+
+        var cacheable = persistence.pending() == 0;
+        var res = loader.get();
+        if (!res.isEmpty() && cacheable) {
+            pages.put(key, new Entry<>(version, copy(res)));
+        }
+        return res;
+    }
+
+    /**
+     * Drops the given widgets and every page of their board, since any change may move
+     * widgets between pages.
+     */
+    public void invalidate(String boardId, Collection<WidgetId> ids) {
+        widgets.invalidateAll(ids);
+        invalidatePages(boardId);
+    }
+
+    /**
+     * Drops all widgets and every page of the board.
+     */
+    public void invalidateAll(String boardId) {
+        widgets.invalidateAll();
+        invalidatePages(boardId);
+    }
+
+    private void invalidatePages(String boardId) {
+        pages.asMap().keySet().removeIf(key -> boardId.equals(key.get(0)));
+    }
+
+    public CacheStats widgetStats() {
+        return widgets.stats();
+    }
+
+    public CacheStats pageStats() {
+        return pages.stats();
+    }
+
+    private static List<Widget> copy(List<Widget> widgets) {
+        return widgets.stream()
+                .map(Widget::new)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,79 @@
+package org.abondar.industrial.widgetstack.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.abondar.industrial.widgetstack.persistence.LogWidgetPersistence;
+import org.abondar.industrial.widgetstack.persistence.WidgetPersistence;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically folds the widget log into a snapshot. All boards are copied while writers are
+ * held off and the log is rotated at the same instant, so the snapshot covers exactly the
+ * segments before the new one; it is written outside the lock.
+ */
+@Component
+@ConditionalOnProperty(name = "log-store.enabled", havingValue = "true")
+@Slf4j
+public class WidgetLogCompactor implements DisposableBean {
+
+    private final WidgetBoards boards;
+    private final LogWidgetPersistence persistence;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Log position covered by the last snapshot. Written on the scheduler thread and read by
+     * callers of {@link #compact()} on others.
+     */
+    private volatile long compacted;
+
+    @Autowired
+    public WidgetLogCompactor(WidgetBoards boards, WidgetPersistence persistence,
+                              @Value("${log-store.snapshot-interval:60000}") long snapshotInterval) {
+        this.boards = boards;
+        this.persistence = (LogWidgetPersistence) persistence;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "widget-log-compactor"));
+        this.scheduler.scheduleWithFixedDelay(this::compactQuietly, snapshotInterval, snapshotInterval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public void compact() throws IOException {
+        var written = persistence.written();
+        if (written == compacted) {
+            return;
+        }
+
+        var start = System.nanoTime();
+        var segment = new long[1];
+        var covered = new long[1];
+        var widgets = boards.snapshot(() -> {
+            segment[0] = persistence.rotate();
+            covered[0] = persistence.written();
+        });
+        persistence.checkpoint(widgets, segment[0]);
+        compacted = covered[0];
+
+        log.info("Compacted widget log into a snapshot of {} widgets in {} ms",
+                widgets.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException | RuntimeException ex) {
+            log.error("Failed to compact widget log", ex);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+}
@@ -1,36 +1,91 @@
 package org.abondar.industrial.widgetstack.service;
 
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.abondar.industrial.widgetstack.exception.NullAtrributeException;
 import org.abondar.industrial.widgetstack.exception.TooManyWidgetsException;
+import org.abondar.industrial.widgetstack.exception.ZIndexOverflowException;
 import org.abondar.industrial.widgetstack.exception.WidgetNotFoundException;
+import org.abondar.industrial.widgetstack.model.BatchOperation;
 import org.abondar.industrial.widgetstack.model.Filter;
 import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetId;
+import org.abondar.industrial.widgetstack.persistence.WidgetPersistence;
+import org.abondar.industrial.widgetstack.repository.OffsetPageRequest;
 import org.abondar.industrial.widgetstack.repository.WidgetRepository;
+import org.abondar.industrial.widgetstack.storage.WidgetSnapshot;
+import org.abondar.industrial.widgetstack.storage.WidgetStorage;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
-
+import java.util.stream.Stream;
+
+/**
+ * Writers are serialized by the write lock: they change the storage, persist the result and
+ * publish the next {@link WidgetSnapshot}. Reads never lock, they query the snapshot that is
+ * current when they start.
+ * <p>
+ * One service holds the widgets of one board. The bean is the default board, the others are
+ * made by {@link WidgetBoards}, each with its own storage, lock and versions, so writers of
+ * different boards never wait for each other.
+ * <p>
+ * Meters: lock wait and hold times ({@code widget.lock.wait}, {@code widget.lock.held} by
+ * lock), widgets shifted per insert ({@code widget.shifted}), store size
+ * ({@code widget.storage.size}), widgets per returned page ({@code widget.page.size} by
+ * query) and the share of scanned widgets a filter matched ({@code widget.filter.selectivity}).
+ */
 @Service
 public class WidgetService {
 
+    private final String boardId;
     private final WidgetRepository repository;
-    private final Map<String, Widget> storage;
+    private final WidgetPersistence persistence;
+    private final WidgetStorage storage;
+    private final WidgetDbCache dbCache;
+    private final List<WidgetChangeListener> listeners;
+    private final EntityManager entityManager;
+    private final TransactionTemplate readOnlyTransaction;
     private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
     private final Lock readLock = rwLock.readLock();
     private final Lock writeLock = rwLock.writeLock();
+    private volatile WidgetSnapshot current;
+
+    private final Timer readLockWait;
+    private final Timer readLockHeld;
+    private final Timer writeLockWait;
+    private final Timer writeLockHeld;
+    private final DistributionSummary shiftedWidgets;
+    private final DistributionSummary pageSizes;
+    private final DistributionSummary filterPageSizes;
+    private final DistributionSummary filterSelectivity;
+
+    private static final int MAX_LIMIT = 500;
 
     private static final List<Function<Widget, Object>> NOT_NULL_FIELDS = List.of(
             Widget::getId,
@@ -47,87 +102,294 @@ public class WidgetService {
 
 
     @Autowired
-    public WidgetService(WidgetRepository repository, @Value("${db-store}") boolean dbStore) {
+    public WidgetService(WidgetRepository repository, WidgetPersistence persistence, WidgetStorage storage,
+                         WidgetDbCache dbCache, ObjectProvider<WidgetChangeListener> listeners,
+                         EntityManager entityManager,
+                         PlatformTransactionManager transactionManager, MeterRegistry registry,
+                         @Value("${db-store}") boolean dbStore) {
+        this(Widget.DEFAULT_BOARD, repository, persistence, storage, dbCache,
+                listeners.orderedStream().collect(Collectors.toList()), entityManager, transactionManager,
+                registry, dbStore);
+    }
+
+    /**
+     * Service of another board. Its lock and page meters are shared with the default board,
+     * the store size gauge only counts the default board.
+     */
+    WidgetService(String boardId, WidgetRepository repository, WidgetPersistence persistence, WidgetStorage storage,
+                  WidgetDbCache dbCache, List<WidgetChangeListener> listeners, EntityManager entityManager,
+                  PlatformTransactionManager transactionManager, MeterRegistry registry, boolean dbStore) {
+        this.boardId = boardId;
+        this.current = WidgetSnapshot.empty(boardId);
         this.repository = repository;
+        this.persistence = persistence;
         this.dbStore = dbStore;
-        this.storage = new ConcurrentHashMap<>();
+        this.storage = storage;
+        this.dbCache = dbCache;
+        this.listeners = listeners;
+        this.entityManager = entityManager;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+
+        this.readLockWait = lockTimer(registry, "widget.lock.wait", "read");
+        this.readLockHeld = lockTimer(registry, "widget.lock.held", "read");
+        this.writeLockWait = lockTimer(registry, "widget.lock.wait", "write");
+        this.writeLockHeld = lockTimer(registry, "widget.lock.held", "write");
+        this.shiftedWidgets = DistributionSummary.builder("widget.shifted")
+                .description("Widgets moved up by one insert")
+                .baseUnit("widgets")
+                .register(registry);
+        this.pageSizes = pageSummary(registry, "page");
+        this.filterPageSizes = pageSummary(registry, "filter");
+        this.filterSelectivity = DistributionSummary.builder("widget.filter.selectivity")
+                .description("Share of the widgets scanned by a filter query that matched it")
+                .register(registry);
+        if (Widget.DEFAULT_BOARD.equals(boardId)) {
+            Gauge.builder("widget.storage.size", this, service -> service.current.size())
+                    .description("Widgets in the store")
+                    .baseUnit("widgets")
+                    .register(registry);
+        }
+    }
+
+    private static Timer lockTimer(MeterRegistry registry, String name, String lock) {
+        return Timer.builder(name)
+                .tag("lock", lock)
+                .register(registry);
+    }
 
+    private static DistributionSummary pageSummary(MeterRegistry registry, String query) {
+        return DistributionSummary.builder("widget.page.size")
+                .description("Widgets returned per page")
+                .baseUnit("widgets")
+                .tag("query", query)
+                .register(registry);
     }
 
     public Widget create(Widget widget) {
-        writeLock.lock();
+        Widget res;
+        var acquired = lock(writeLock, writeLockWait);
         try {
-            var uuid = UUID.randomUUID().toString();
-            widget.setId(uuid);
-            widget.setLastModified(new Date());
+            var shifted = insert(widget);
 
-            if (widget.getZIndex() == null) {
-                widget.setZIndex(getMaxZIndex());
+            if (!shifted.isEmpty()) {
+                persistence.saveAll(shifted);
             }
+            persistence.save(widget);
+            publish(shifted, widget);
 
-            fillStorage(widget);
+            res = new Widget(widget);
+        } finally {
+            unlock(writeLock, writeLockHeld, acquired);
+        }
 
-            if (dbStore) {
-                repository.save(widget);
-            }
+        persistence.awaitDurable();
+        return res;
+    }
 
-            return new Widget(widget);
-        } finally {
-            writeLock.unlock();
+    private List<Widget> insert(Widget widget) {
+        widget.setId(WidgetId.random());
+        widget.setLastModified(new Date());
+
+        if (widget.getZIndex() == null) {
+            widget.setZIndex(getMaxZIndex());
         }
 
+        return fillStorage(widget);
     }
 
     private Integer getMaxZIndex() {
-        return storage.values()
-                .stream()
-                .max(java.util.Comparator.naturalOrder())
-                .map(w -> w.getZIndex() + 1)
-                .orElse(Integer.MAX_VALUE);
-
+        var top = storage.top();
+        if (top == null) {
+            return 0;
+        }
+        if (top.getZIndex() == Integer.MAX_VALUE) {
+            throw new ZIndexOverflowException();
+        }
+        return top.getZIndex() + 1;
     }
 
-    private void fillStorage(Widget widget) {
-        storage.values().stream()
-                .filter(v -> v.getZIndex() >= widget.getZIndex())
-                .forEach(v -> v.setZIndex(v.getZIndex() + 1));
-        storage.put(widget.getId(), widget);
+    private List<Widget> fillStorage(Widget widget) {
+        widget.setBoardId(boardId);
+        var shifted = storage.shiftFrom(widget.getZIndex());
+        shifted.forEach(wd -> wd.setBoardId(boardId));
+        storage.put(widget);
+        shiftedWidgets.record(shifted.size());
+        return shifted;
+    }
 
+    private void publish(List<Widget> shifted, Widget widget) {
+        List<Widget> changed = new ArrayList<>(shifted.size() + 1);
+        changed.addAll(shifted);
+        changed.add(widget);
+        publish(changed, List.of());
+    }
 
+    /**
+     * Makes the changes visible to readers, drops the DB cache entries they made stale and
+     * tells the change listeners. Listeners hear of a version before readers can see it, so
+     * a version read from the store is always known to them.
+     */
+    private void publish(Collection<Widget> changed, Collection<WidgetId> removed) {
+        var next = current.apply(changed, removed);
+        listeners.forEach(listener -> listener.onChange(boardId, next.getVersion(), changed, removed));
+        current = next;
+
+        List<WidgetId> ids = new ArrayList<>(changed.size() + removed.size());
+        changed.forEach(wd -> ids.add(wd.getId()));
+        ids.addAll(removed);
+        dbCache.invalidate(boardId, ids);
     }
 
 
-    public Widget update(Widget widget, String id) throws WidgetNotFoundException, NullAtrributeException {
-        readLock.lock();
-        try {
-            checkWidget(widget);
+    public Widget update(Widget widget, WidgetId id) throws WidgetNotFoundException, NullAtrributeException {
+        checkWidget(widget);
+
+        if (current.get(id) == null) {
+            throw new WidgetNotFoundException(widget.getId());
+        }
 
-            if (storage.get(id) == null) {
-                throw new WidgetNotFoundException(widget.getId());
+        Widget res;
+        var acquired = lock(writeLock, writeLockWait);
+        try {
+            var shifted = replace(widget, id);
+            if (!shifted.isEmpty()) {
+                persistence.saveAll(shifted);
             }
+            persistence.save(widget);
+            publish(shifted, widget);
+
+            res = new Widget(widget);
         } finally {
-            readLock.unlock();
+            unlock(writeLock, writeLockHeld, acquired);
         }
 
-        writeLock.lock();
+        persistence.awaitDurable();
+        return res;
+    }
+
+    private List<Widget> replace(Widget widget, WidgetId id) throws WidgetNotFoundException {
+        widget.setId(id);
+        widget.setLastModified(new Date());
+
+        var old = storage.remove(id);
+        if (old == null) {
+            throw new WidgetNotFoundException(id);
+        }
+
+        try {
+            return fillStorage(widget);
+        } catch (ZIndexOverflowException ex) {
+            storage.put(old);
+            throw ex;
+        }
+    }
+
+    /**
+     * Applies all operations under a single write lock. Every operation is validated before
+     * anything changes, so either the whole batch is applied or none of it. Widgets touched
+     * several times (directly or by z-shifts) are written to the DB once, and readers see
+     * the whole batch in one new version. A batch that would push a z-index past
+     * Integer.MAX_VALUE is rolled back.
+     *
+     * @return resulting widget per operation as of the end of the batch, shifts by later
+     *         operations included; the removed widget for deletes
+     */
+    public List<Widget> applyBatch(List<BatchOperation> operations) throws WidgetNotFoundException, NullAtrributeException {
+        List<Widget> res = new ArrayList<>(operations.size());
+        var acquired = lock(writeLock, writeLockWait);
         try {
-            widget.setId(id);
-            widget.setLastModified(new Date());
+            checkBatch(operations);
+
+            Map<WidgetId, Widget> saved = new LinkedHashMap<>();
+            Map<WidgetId, Widget> deleted = new LinkedHashMap<>();
+            List<WidgetId> touched = new ArrayList<>(operations.size());
+
+            try {
+                for (var op : operations) {
+                    switch (op.getType()) {
+                        case CREATE:
+                            insert(op.getWidget()).forEach(wd -> saved.put(wd.getId(), wd));
+                            saved.put(op.getWidget().getId(), op.getWidget());
+                            touched.add(op.getWidget().getId());
+                            break;
+                        case UPDATE:
+                            replace(op.getWidget(), op.getId()).forEach(wd -> saved.put(wd.getId(), wd));
+                            saved.put(op.getId(), op.getWidget());
+                            touched.add(op.getId());
+                            break;
+                        case DELETE:
+                            var widget = storage.remove(op.getId());
+                            widget.setBoardId(boardId);
+                            saved.remove(op.getId());
+                            deleted.put(op.getId(), widget);
+                            touched.add(op.getId());
+                            break;
+                    }
+                }
+            } catch (ZIndexOverflowException ex) {
+                restore();
+                throw ex;
+            }
 
-            storage.replace(id, widget);
-            if (dbStore) {
-                repository.save(widget);
+            for (var id : touched) {
+                var widget = saved.get(id);
+                res.add(new Widget(widget == null ? deleted.get(id) : widget));
             }
 
-            return new Widget(widget);
+            if (!deleted.isEmpty()) {
+                persistence.deleteAll(deleted.values());
+            }
+            if (!saved.isEmpty()) {
+                persistence.saveAll(saved.values());
+            }
+            publish(saved.values(), new ArrayList<>(deleted.keySet()));
         } finally {
-            writeLock.unlock();
+            unlock(writeLock, writeLockHeld, acquired);
         }
 
+        persistence.awaitDurable();
+        return res;
+    }
+
+    /**
+     * Puts the store back to the last published version after a batch failed halfway.
+     */
+    private void restore() {
+        storage.clear();
+        storage.load(current.values());
     }
 
+    private void checkBatch(List<BatchOperation> operations) throws WidgetNotFoundException, NullAtrributeException {
+        Set<WidgetId> removed = new HashSet<>();
+        for (var op : operations) {
+            if (op == null || op.getType() == null) {
+                throw new NullAtrributeException();
+            }
+
+            if (op.getType() == BatchOperation.Type.CREATE) {
+                if (op.getWidget() == null) {
+                    throw new NullAtrributeException();
+                }
+                continue;
+            }
+
+            if (op.getId() == null || storage.get(op.getId()) == null || removed.contains(op.getId())) {
+                throw new WidgetNotFoundException(op.getId());
+            }
+
+            if (op.getType() == BatchOperation.Type.UPDATE) {
+                if (op.getWidget() == null) {
+                    throw new NullAtrributeException();
+                }
+                checkWidget(op.getWidget());
+            } else {
+                removed.add(op.getId());
+            }
+        }
+    }
 
-    private synchronized void checkWidget(Widget widget) throws NullAtrributeException {
+    private static void checkWidget(Widget widget) throws NullAtrributeException {
         if (NOT_NULL_FIELDS.stream().anyMatch(g -> g.apply(widget) == null)) {
             throw new NullAtrributeException();
         }
@@ -135,62 +397,262 @@ public class WidgetService {
 
 
 
-    public Widget getById(String id, boolean fromDb) {
-        readLock.lock();
-        try {
-            if (dbStore && fromDb) {
-                Optional<Widget> res = repository.findById(id);
-                if (res.isPresent()) {
-                    return res.get();
-                }
-            }
+    /**
+     * Version of the whole store, incremented by every change. Equal versions mean equal
+     * content, so clients can revalidate any listing against it.
+     */
+    public long getStoreVersion() {
+        return current.getVersion();
+    }
 
-            return storage.get(id);
-        } finally {
-            readLock.unlock();
+    /**
+     * Store version that last created or changed the widget, or -1 if there is no such widget.
+     */
+    public long getWidgetVersion(WidgetId id) {
+        return current.getVersion(id);
+    }
+
+    /**
+     * The DB may not hold every accepted write yet, as with write-behind, so a DB read may
+     * return an older state than the current version.
+     */
+    public boolean isDbBehind() {
+        return dbStore && persistence.pending() > 0;
+    }
+
+    /**
+     * Threads waiting for the store lock, mostly writers queued behind the current one.
+     */
+    public int getLockQueueLength() {
+        return rwLock.getQueueLength();
+    }
+
+    public Widget getById(WidgetId id, boolean fromDb) {
+        var version = current;
+        if (dbStore && fromDb) {
+            var res = dbCache.getWidget(id, version.getVersion(id), () -> repository.findById(id)
+                    .filter(wd -> boardId.equals(wd.getBoardId()))
+                    .orElse(null));
+            if (res != null) {
+                return res;
+            }
         }
 
+        return version.get(id);
     }
 
     public List<Widget> getWidgets(int offset, int limit, boolean fromDb) throws TooManyWidgetsException {
-        readLock.lock();
-        try {
-            int maxLimit = 500;
-            if (limit > maxLimit) {
-                throw new TooManyWidgetsException();
-            }
+        if (limit > MAX_LIMIT) {
+            throw new TooManyWidgetsException();
+        }
 
-            if (dbStore && fromDb) {
-                var res = getWidgetsFromDb(offset, limit);
-                if (!res.isEmpty()) {
-                    return res;
-                }
+        var version = current;
+        if (dbStore && fromDb) {
+            var res = dbCache.getPage(List.<Object>of(boardId, "page", offset, limit), version.getVersion(),
+                    () -> getWidgetsFromDb(offset, limit));
+            if (!res.isEmpty()) {
+                return recordPage(pageSizes, res);
             }
-            return getWidgetsFromStorage(offset, limit);
-        } finally {
-            readLock.unlock();
+        }
+        return recordPage(pageSizes, version.page(offset, limit));
+    }
+
+    /**
+     * Keyset page: widgets with z-index greater than afterZ, seeked directly in the DB or the
+     * z index, so deep pages cost the same as the first one.
+     */
+    public List<Widget> getWidgetsAfter(int afterZ, int limit, boolean fromDb) throws TooManyWidgetsException {
+        if (limit > MAX_LIMIT) {
+            throw new TooManyWidgetsException();
         }
 
+        var version = current;
+        if (dbStore && fromDb) {
+            var res = dbCache.getPage(List.<Object>of(boardId, "after", afterZ, limit), version.getVersion(),
+                    () -> repository.findAfter(boardId, afterZ, PageRequest.of(0, limit)));
+            if (!res.isEmpty()) {
+                return recordPage(pageSizes, res);
+            }
+        }
+        return recordPage(pageSizes, version.pageAfter(afterZ, limit));
     }
 
     public List<Widget> getFilteredWidgets(int offset, int limit, boolean fromDb, Filter filter) throws TooManyWidgetsException {
-        readLock.lock();
-        try {
-            return getWidgets(offset, limit, fromDb)
-                    .stream()
-                    .filter(wd -> matchesFilter(filter, wd))
-                    .collect(Collectors.toList());
-        } finally {
-            readLock.unlock();
+        if (limit > MAX_LIMIT) {
+            throw new TooManyWidgetsException();
+        }
+
+        var version = current;
+        if (dbStore && fromDb) {
+            var key = List.<Object>of(boardId, "region", offset, limit, filter.getXStop(), filter.getYStop(),
+                    maxWidth(filter), maxHeight(filter));
+            var res = dbCache.getPage(key, version.getVersion(),
+                    () -> repository.findInRegion(boardId, filter.getXStop(), filter.getYStop(),
+                            maxWidth(filter), maxHeight(filter),
+                            new OffsetPageRequest(offset, limit, Sort.unsorted())));
+            if (!res.isEmpty()) {
+                return recordPage(filterPageSizes, res);
+            }
+        }
+
+        var scan = new FilterScan(filter);
+        var res = version.findBelow(filter.getXStop(), filter.getYStop(), scan, offset, limit);
+        scan.record(filterSelectivity);
+        return recordPage(filterPageSizes, res);
+    }
+
+    public List<Widget> getFilteredWidgetsAfter(int afterZ, int limit, boolean fromDb, Filter filter)
+            throws TooManyWidgetsException {
+        if (limit > MAX_LIMIT) {
+            throw new TooManyWidgetsException();
+        }
+
+        var version = current;
+        if (dbStore && fromDb) {
+            var key = List.<Object>of(boardId, "regionAfter", afterZ, limit, filter.getXStop(), filter.getYStop(),
+                    maxWidth(filter), maxHeight(filter));
+            var res = dbCache.getPage(key, version.getVersion(),
+                    () -> repository.findInRegionAfter(boardId, afterZ, filter.getXStop(), filter.getYStop(),
+                            maxWidth(filter), maxHeight(filter), PageRequest.of(0, limit)));
+            if (!res.isEmpty()) {
+                return recordPage(filterPageSizes, res);
+            }
+        }
+
+        var scan = new FilterScan(filter);
+        var res = version.findBelowAfter(filter.getXStop(), filter.getYStop(), scan, afterZ, limit);
+        scan.record(filterSelectivity);
+        return recordPage(filterPageSizes, res);
+    }
+
+    /**
+     * Streaming variant of {@link #getWidgets} and {@link #getWidgetsAfter}: widgets are handed
+     * to action one at a time instead of being collected, so limit is not capped. Widgets
+     * start after afterZ when it is given, otherwise offset widgets are skipped.
+     */
+    public void streamWidgets(int offset, Integer afterZ, int limit, boolean fromDb, Consumer<Widget> action) {
+        if (afterZ != null && afterZ == Integer.MAX_VALUE) {
+            return;
         }
 
+        if (dbStore && fromDb
+                && streamFromDb(() -> repository.streamFrom(boardId, fromZ(afterZ)), afterZ == null ? offset : 0, limit, action)) {
+            return;
+        }
 
+        var version = current;
+        if (afterZ == null) {
+            version.forEach(offset, limit, action);
+        } else {
+            version.forEachAfter(afterZ, limit, action);
+        }
     }
 
-    private synchronized boolean matchesFilter(Filter filter, Widget widget) {
+    /**
+     * Streaming variant of {@link #getFilteredWidgets} and {@link #getFilteredWidgetsAfter}.
+     */
+    public void streamFilteredWidgets(int offset, Integer afterZ, int limit, boolean fromDb, Filter filter,
+                                      Consumer<Widget> action) {
+        if (afterZ != null && afterZ == Integer.MAX_VALUE) {
+            return;
+        }
+
+        if (dbStore && fromDb && streamFromDb(() -> repository.streamInRegionFrom(boardId, fromZ(afterZ),
+                        filter.getXStop(), filter.getYStop(), maxWidth(filter), maxHeight(filter)),
+                afterZ == null ? offset : 0, limit, action)) {
+            return;
+        }
+
+        var version = current;
+        var scan = new FilterScan(filter);
+        if (afterZ == null) {
+            version.forEachBelow(filter.getXStop(), filter.getYStop(), scan, offset, limit, action);
+        } else {
+            version.forEachBelowAfter(filter.getXStop(), filter.getYStop(), scan, afterZ, limit, action);
+        }
+        scan.record(filterSelectivity);
+    }
 
-        var fWidth = filter.getXStop() - filter.getYStart();
-        var fHeight = filter.getYStop() - filter.getYStart();
+    /**
+     * Runs query in a read-only transaction and hands rows over as the cursor yields them.
+     * Every row is detached right away, so the persistence context stays empty.
+     *
+     * @return false if the query found nothing, so the caller can fall back to the store
+     */
+    private boolean streamFromDb(Supplier<Stream<Widget>> query, int offset, int limit, Consumer<Widget> action) {
+        var streamed = readOnlyTransaction.execute(status -> {
+            try (var stream = query.get()) {
+                var it = stream.peek(entityManager::detach)
+                        .skip(offset)
+                        .limit(limit)
+                        .iterator();
+                if (!it.hasNext()) {
+                    return false;
+                }
+                it.forEachRemaining(action);
+                return true;
+            }
+        });
+        return Boolean.TRUE.equals(streamed);
+    }
+
+    private static long lock(Lock lock, Timer wait) {
+        var start = System.nanoTime();
+        lock.lock();
+        var acquired = System.nanoTime();
+        wait.record(acquired - start, TimeUnit.NANOSECONDS);
+        return acquired;
+    }
+
+    private static void unlock(Lock lock, Timer held, long acquired) {
+        var duration = System.nanoTime() - acquired;
+        lock.unlock();
+        held.record(duration, TimeUnit.NANOSECONDS);
+    }
+
+    private static int fromZ(Integer afterZ) {
+        return afterZ == null ? Integer.MIN_VALUE : afterZ + 1;
+    }
+
+    private static List<Widget> recordPage(DistributionSummary summary, List<Widget> page) {
+        summary.record(page.size());
+        return page;
+    }
+
+    /**
+     * The filter predicate for store scans, counting the widgets the scan offered and the
+     * ones that matched.
+     */
+    private static final class FilterScan implements Predicate<Widget> {
+        private final Filter filter;
+        private long scanned;
+        private long matched;
+
+        private FilterScan(Filter filter) {
+            this.filter = filter;
+        }
+
+        @Override
+        public boolean test(Widget widget) {
+            scanned++;
+            if (matchesFilter(filter, widget)) {
+                matched++;
+                return true;
+            }
+            return false;
+        }
+
+        private void record(DistributionSummary selectivity) {
+            if (scanned > 0) {
+                selectivity.record((double) matched / scanned);
+            }
+        }
+    }
+
+    private static boolean matchesFilter(Filter filter, Widget widget) {
+
+        var fWidth = maxWidth(filter);
+        var fHeight = maxHeight(filter);
 
         return widget.getWidth() <= fWidth && widget.getHeight() <= fHeight &&
                 filter.getXStop() > widget.getXCoord() &&
@@ -198,49 +660,228 @@ public class WidgetService {
 
     }
 
+    private static int maxWidth(Filter filter) {
+        return filter.getXStop() - filter.getXStart();
+    }
+
+    private static int maxHeight(Filter filter) {
+        return filter.getYStop() - filter.getYStart();
+    }
+
     private List<Widget> getWidgetsFromDb(int offset, int limit) {
-        readLock.lock();
+        var page = new OffsetPageRequest(offset, limit, Sort.by("zIndex").ascending());
+
+        return repository.findOnBoard(boardId, page);
+    }
+
+
+    public void delete(WidgetId id) throws WidgetNotFoundException {
+        var acquired = lock(writeLock, writeLockWait);
         try {
-            var page = PageRequest.of(offset, limit, Sort.by("zIndex").ascending());
+            var widget = storage.remove(id);
+            if (widget==null) {
+                throw new WidgetNotFoundException(id);
+            }
 
-            return repository
-                    .findAll(page)
-                    .getContent();
+            persistence.delete(widget);
+            publish(List.of(), List.of(id));
         } finally {
-            readLock.unlock();
+            unlock(writeLock, writeLockHeld, acquired);
         }
+
+        persistence.awaitDurable();
     }
 
-    private List<Widget> getWidgetsFromStorage(int offset, int limit) {
-            return storage.values()
-                    .stream()
-                    .sorted(Widget::compareTo)
-                    .skip(offset)
-                    .limit(limit)
-                    .collect(Collectors.toList());
+
+    /**
+     * Replaces the in-memory content with widgets read from the durable copy.
+     *
+     * @return number of widgets whose z-index was changed to keep z unique
+     */
+    public int load(List<Widget> widgets) {
+        var acquired = lock(writeLock, writeLockWait);
+        try {
+            storage.clear();
+            var repaired = storage.load(widgets);
+            repaired.forEach(wd -> wd.setBoardId(boardId));
+            if (!repaired.isEmpty()) {
+                persistence.saveAll(repaired);
+            }
+            reset(current.replace(stored()));
+            return repaired.size();
+        } finally {
+            unlock(writeLock, writeLockHeld, acquired);
+        }
     }
 
+    /**
+     * Replaces the in-memory content with widgets streamed from the durable copy in z-index
+     * order. Each widget goes into the storage as it arrives, so the source is never held in
+     * memory at once. A widget whose z-index is not above the one before it is moved up
+     * just past it, as {@link #load(List)} does.
+     *
+     * @return number of widgets whose z-index was changed to keep z unique
+     */
+    public int loadSorted(Iterator<Widget> widgets) {
+        var acquired = lock(writeLock, writeLockWait);
+        try {
+            storage.clear();
+            List<Widget> repaired = new ArrayList<>();
+            Integer below = null;
+            while (widgets.hasNext()) {
+                var wd = widgets.next();
+                wd.setBoardId(boardId);
+                if (below != null && wd.getZIndex() <= below) {
+                    if (below == Integer.MAX_VALUE) {
+                        throw new ZIndexOverflowException();
+                    }
+                    wd.setZIndex(below + 1);
+                    repaired.add(wd);
+                }
+                storage.put(wd);
+                below = wd.getZIndex();
+            }
+
+            if (!repaired.isEmpty()) {
+                persistence.saveAll(repaired);
+            }
+            reset(current.replace(stored()));
+            return repaired.size();
+        } finally {
+            unlock(writeLock, writeLockHeld, acquired);
+        }
+    }
 
-    public void delete(String id) throws WidgetNotFoundException {
-        writeLock.lock();
+    /**
+     * Applies changes sequenced by another node: widgets are stored as they are, with their
+     * z-index, instead of being inserted. The changes must take the store from one
+     * consistent state to the next, as the net changes between two versions of the
+     * sequencing node do, so no z-index is taken twice once all of them are in.
+     */
+    public void replicate(Collection<Widget> upserts, Collection<WidgetId> deletes) {
+        var acquired = lock(writeLock, writeLockWait);
         try {
-            var widget = storage.remove(id);
-            if (widget==null) {
-                throw new WidgetNotFoundException(id);
+            List<Widget> removed = new ArrayList<>(deletes.size());
+            List<WidgetId> removedIds = new ArrayList<>(deletes.size());
+            for (var id : deletes) {
+                var widget = storage.remove(id);
+                if (widget != null) {
+                    removed.add(widget);
+                    removedIds.add(id);
+                }
             }
+            upserts.forEach(wd -> wd.setBoardId(boardId));
+            upserts.forEach(wd -> storage.remove(wd.getId()));
+            upserts.forEach(storage::put);
 
-            storage.remove(id);
-            if (dbStore) {
-                repository.delete(widget);
+            if (!removed.isEmpty()) {
+                persistence.deleteAll(removed);
+            }
+            if (!upserts.isEmpty()) {
+                persistence.saveAll(upserts);
             }
+            publish(upserts, removedIds);
         } finally {
-            writeLock.unlock();
+            unlock(writeLock, writeLockHeld, acquired);
         }
 
+        persistence.awaitDurable();
     }
 
+    /**
+     * Replaces the whole content, in memory and in the durable copy, with widgets copied
+     * from another node.
+     */
+    public void replace(List<Widget> widgets) {
+        var acquired = lock(writeLock, writeLockWait);
+        try {
+            Set<WidgetId> kept = widgets.stream()
+                    .map(Widget::getId)
+                    .collect(Collectors.toSet());
+            List<Widget> dropped = storage.values().stream()
+                    .filter(wd -> !kept.contains(wd.getId()))
+                    .collect(Collectors.toList());
+
+            widgets.forEach(wd -> wd.setBoardId(boardId));
+            storage.clear();
+            storage.load(widgets);
+            if (!dropped.isEmpty()) {
+                persistence.deleteAll(dropped);
+            }
+            if (!widgets.isEmpty()) {
+                persistence.saveAll(widgets);
+            }
+            reset(current.replace(stored()));
+        } finally {
+            unlock(writeLock, writeLockHeld, acquired);
+        }
+
+        persistence.awaitDurable();
+    }
+
+    /**
+     * Copies every widget as of one version. Only taking the version and running the barrier
+     * hold writers off, so whatever the barrier captures (e.g. a log position) matches the
+     * copy exactly; the copying itself runs without a lock.
+     */
+    public List<Widget> snapshot(Runnable barrier) {
+        return capture(barrier).values();
+    }
+
+    /**
+     * The current version, taken while writers are held off for the barrier. The version
+     * never changes, so it can be copied later without a lock.
+     */
+    public WidgetSnapshot capture(Runnable barrier) {
+        var acquired = lock(readLock, readLockWait);
+        try {
+            barrier.run();
+            return current;
+        } finally {
+            unlock(readLock, readLockHeld, acquired);
+        }
+    }
+
+    /**
+     * Drops all widgets from memory, the durable copy is left as it is.
+     */
+    public void clear() {
+        var acquired = lock(writeLock, writeLockWait);
+        try {
+            storage.clear();
+            reset(current.replace(List.of()));
+        } finally {
+            unlock(writeLock, writeLockHeld, acquired);
+        }
+    }
+
+    /**
+     * The whole storage content, each widget marked with this board: storage engines that
+     * keep widgets in columns hand them out without one.
+     */
+    private List<Widget> stored() {
+        List<Widget> res = new ArrayList<>(storage.size());
+        for (var wd : storage.values()) {
+            wd.setBoardId(boardId);
+            res.add(wd);
+        }
+        return res;
+    }
+
+    /**
+     * Publishes a snapshot that replaces the whole content.
+     */
+    private void reset(WidgetSnapshot next) {
+        listeners.forEach(listener -> listener.onReset(boardId, next.getVersion()));
+        current = next;
+        dbCache.invalidateAll(boardId);
+    }
+
+    public String getBoardId() {
+        return boardId;
+    }
 
-    public Map<String, Widget> getStorage() {
+    public WidgetStorage getStorage() {
         return storage;
     }
 }
@@ -0,0 +1,84 @@
+package org.abondar.industrial.widgetstack.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.persistence.LogWidgetPersistence;
+import org.abondar.industrial.widgetstack.persistence.WidgetPersistence;
+import org.abondar.industrial.widgetstack.repository.WidgetRepository;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+
+/**
+ * Rebuilds the in-memory store from the widget table when db-store is on, or from the
+ * recovered widget log when log-store is on. Runs once all singletons exist and before
+ * the web server starts, so no request sees a partial store.
+ * <p>
+ * The table is read through a cursor in board and z-index order and every row goes into
+ * the storage of its board as it is read, so the rows are never all held at once. The read
+ * runs in one transaction, which also writes back the z-indexes repaired on the way.
+ */
+@Component
+@Slf4j
+public class WidgetStorageLoader implements SmartInitializingSingleton {
+
+    private final WidgetBoards boards;
+    private final WidgetRepository repository;
+    private final WidgetPersistence persistence;
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean dbStore;
+    private final boolean logStore;
+
+    @Autowired
+    public WidgetStorageLoader(WidgetBoards boards, WidgetRepository repository, WidgetPersistence persistence,
+                               EntityManager entityManager, PlatformTransactionManager transactionManager,
+                               @Value("${db-store}") boolean dbStore,
+                               @Value("${log-store.enabled:false}") boolean logStore) {
+        this.boards = boards;
+        this.repository = repository;
+        this.persistence = persistence;
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.dbStore = dbStore;
+        this.logStore = logStore;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (logStore) {
+            var start = System.nanoTime();
+            var widgets = ((LogWidgetPersistence) persistence).takeRecovered();
+            boards.load(widgets);
+            log.info("Recovered {} widgets from the widget log in {} ms",
+                    widgets.size(), (System.nanoTime() - start) / 1_000_000);
+            return;
+        }
+
+        if (!dbStore) {
+            return;
+        }
+
+        var start = System.nanoTime();
+        long[] loaded = {0};
+        Integer repaired = transactionTemplate.execute(status -> {
+            try (var stream = repository.streamAll()) {
+                return boards.loadSorted(stream
+                        .map(wd -> {
+                            entityManager.detach(wd);
+                            loaded[0]++;
+                            return wd;
+                        })
+                        .iterator());
+            }
+        });
+
+        log.info("Loaded {} widgets into storage in {} ms, {} z-indexes repaired",
+                loaded[0], (System.nanoTime() - start) / 1_000_000, repaired);
+    }
+}
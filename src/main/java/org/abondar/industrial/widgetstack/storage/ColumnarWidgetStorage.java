@@ -0,0 +1,220 @@
+package org.abondar.industrial.widgetstack.storage;
+
+import org.abondar.industrial.widgetstack.exception.ZIndexOverflowException;
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetId;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Storage engine keeping widgets in primitive columns indexed by slot instead of one object
+ * per widget. Slots are handed out by an allocator that reuses freed slots first; the id
+ * map and the z index hold slot numbers only. Widget objects are
+ * created on the way out and are copies, so they can be handed to callers as they are.
+ */
+public class ColumnarWidgetStorage implements WidgetStorage {
+
+    private final WidgetColumns columns;
+    private final ZSlotTree zIndex;
+    private final IdSlotMap slots = new IdSlotMap();
+    private final SlotAllocator allocator = new SlotAllocator();
+
+    public ColumnarWidgetStorage(boolean offHeap, int initialCapacity) {
+        var capacity = Math.max(initialCapacity, 16);
+        this.columns = WidgetColumns.create(offHeap, capacity);
+        this.zIndex = new ZSlotTree(columns, capacity);
+    }
+
+    @Override
+    public Widget get(WidgetId id) {
+        return materializeOrNull(slots.get(id));
+    }
+
+    @Override
+    public void put(Widget widget) {
+        var slot = slots.get(widget.getId());
+        if (slot == IdSlotMap.MISSING) {
+            slot = allocate();
+            slots.put(widget.getId(), slot);
+        } else {
+            unindex(slot);
+        }
+
+        columns.write(slot, widget);
+        index(slot);
+    }
+
+    @Override
+    public Widget remove(WidgetId id) {
+        var slot = slots.remove(id);
+        if (slot == IdSlotMap.MISSING) {
+            return null;
+        }
+
+        var widget = materialize(slot);
+        unindex(slot);
+        allocator.release(slot);
+        return widget;
+    }
+
+    @Override
+    public Widget getByZIndex(int zIndex) {
+        return materializeOrNull(this.zIndex.get(zIndex));
+    }
+
+    @Override
+    public Widget top() {
+        return materializeOrNull(zIndex.last());
+    }
+
+    @Override
+    public List<Widget> shiftFrom(int z) {
+        return materialize(zIndex.shiftRun(z));
+    }
+
+    @Override
+    public List<Widget> page(int offset, int limit) {
+        return materialize(zIndex.page(offset, limit));
+    }
+
+    @Override
+    public List<Widget> pageAfter(int z, int limit) {
+        return materialize(zIndex.pageAfter(z, limit));
+    }
+
+    @Override
+    public List<Widget> load(Collection<Widget> loaded) {
+        if (!slots.isEmpty()) {
+            throw new IllegalStateException("Storage must be empty before load");
+        }
+
+        Map<WidgetId, Widget> unique = new HashMap<>();
+        loaded.forEach(wd -> unique.put(wd.getId(), wd));
+        var sorted = unique.values().toArray(new Widget[0]);
+        Arrays.parallelSort(sorted);
+
+        List<Widget> repaired = new ArrayList<>();
+        for (int i = 1; i < sorted.length; i++) {
+            var below = sorted[i - 1].getZIndex();
+            if (sorted[i].getZIndex() <= below) {
+                if (below == Integer.MAX_VALUE) {
+                    throw new ZIndexOverflowException();
+                }
+                sorted[i].setZIndex(below + 1);
+                repaired.add(sorted[i]);
+            }
+        }
+
+        ensureCapacity(sorted.length);
+        var order = new int[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            var slot = allocate();
+            var wd = sorted[i];
+            slots.put(wd.getId(), slot);
+            columns.write(slot, wd);
+            order[i] = slot;
+        }
+        zIndex.build(order, order.length);
+        return repaired;
+    }
+
+    /**
+     * Copies of all widgets, materialized one at a time while iterating.
+     */
+    @Override
+    public Collection<Widget> values() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<Widget> iterator() {
+                var it = slots.slots();
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    @Override
+                    public Widget next() {
+                        if (!it.hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        return materialize(it.nextInt());
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return slots.size();
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return slots.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return slots.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        slots.clear();
+        zIndex.clear();
+        allocator.clear();
+    }
+
+    private void index(int slot) {
+        zIndex.insert(slot);
+    }
+
+    private void unindex(int slot) {
+        zIndex.remove(slot);
+    }
+
+    private int allocate() {
+        var slot = allocator.allocate();
+        ensureCapacity(allocator.allocated());
+        return slot;
+    }
+
+    private void ensureCapacity(int needed) {
+        var capacity = columns.capacity();
+        if (needed <= capacity) {
+            return;
+        }
+
+        var grown = (int) Math.min(Math.max((long) capacity * 2, needed), Integer.MAX_VALUE - 8);
+        columns.grow(grown);
+        zIndex.grow(grown);
+    }
+
+    private Widget materializeOrNull(int slot) {
+        return slot < 0 ? null : materialize(slot);
+    }
+
+    private Widget materialize(int slot) {
+        var widget = new Widget();
+        columns.read(slot, widget);
+        return widget;
+    }
+
+    private List<Widget> materialize(int[] found) {
+        var res = new Widget[found.length];
+        for (int i = 0; i < found.length; i++) {
+            res[i] = materialize(found[i]);
+        }
+        return Arrays.asList(res);
+    }
+}
@@ -0,0 +1,171 @@
+package org.abondar.industrial.widgetstack.storage;
+
+import org.abondar.industrial.widgetstack.exception.ZIndexOverflowException;
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetId;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Storage engine keeping the widget objects themselves: an array of widgets by slot, an id
+ * map to the slot, plus a treap by z-index pointing at the same objects.
+ */
+public class HeapWidgetStorage implements WidgetStorage {
+
+    private final IdSlotMap ids = new IdSlotMap();
+    private final SlotAllocator allocator = new SlotAllocator();
+    private final ZIndexTree zIndex = new ZIndexTree();
+
+    private Widget[] widgets = new Widget[16];
+
+    @Override
+    public Widget get(WidgetId id) {
+        var slot = ids.get(id);
+        return slot == IdSlotMap.MISSING ? null : widgets[slot];
+    }
+
+    @Override
+    public void put(Widget widget) {
+        var slot = ids.get(widget.getId());
+        if (slot == IdSlotMap.MISSING) {
+            slot = allocate();
+            ids.put(widget.getId(), slot);
+        } else {
+            var old = widgets[slot];
+            zIndex.remove(old.getZIndex());
+        }
+
+        widgets[slot] = widget;
+        zIndex.put(widget.getZIndex(), widget);
+    }
+
+    @Override
+    public Widget remove(WidgetId id) {
+        var slot = ids.remove(id);
+        if (slot == IdSlotMap.MISSING) {
+            return null;
+        }
+
+        var widget = widgets[slot];
+        widgets[slot] = null;
+        allocator.release(slot);
+
+        zIndex.remove(widget.getZIndex());
+        return widget;
+    }
+
+    @Override
+    public Widget getByZIndex(int zIndex) {
+        return this.zIndex.get(zIndex);
+    }
+
+    @Override
+    public Widget top() {
+        return zIndex.last();
+    }
+
+    @Override
+    public List<Widget> shiftFrom(int z) {
+        return zIndex.shiftRun(z);
+    }
+
+    @Override
+    public List<Widget> page(int offset, int limit) {
+        return zIndex.page(offset, limit);
+    }
+
+    @Override
+    public List<Widget> pageAfter(int z, int limit) {
+        return zIndex.pageAfter(z, limit);
+    }
+
+    @Override
+    public List<Widget> load(Collection<Widget> loaded) {
+        if (!isEmpty()) {
+            throw new IllegalStateException("Storage must be empty before load");
+        }
+
+        for (var wd : loaded) {
+            var slot = ids.get(wd.getId());
+            if (slot == IdSlotMap.MISSING) {
+                slot = allocate();
+                ids.put(wd.getId(), slot);
+            }
+            widgets[slot] = wd;
+        }
+        var sorted = values().toArray(new Widget[0]);
+        Arrays.parallelSort(sorted);
+
+        List<Widget> repaired = new ArrayList<>();
+        for (int i = 1; i < sorted.length; i++) {
+            var below = sorted[i - 1].getZIndex();
+            if (sorted[i].getZIndex() <= below) {
+                if (below == Integer.MAX_VALUE) {
+                    throw new ZIndexOverflowException();
+                }
+                sorted[i].setZIndex(below + 1);
+                repaired.add(sorted[i]);
+            }
+        }
+
+        zIndex.build(Arrays.asList(sorted));
+        return repaired;
+    }
+
+    @Override
+    public Collection<Widget> values() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<Widget> iterator() {
+                var it = ids.slots();
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    @Override
+                    public Widget next() {
+                        return widgets[it.nextInt()];
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return ids.size();
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return ids.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return ids.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        ids.clear();
+        allocator.clear();
+        Arrays.fill(widgets, null);
+        zIndex.clear();
+    }
+
+    private int allocate() {
+        var slot = allocator.allocate();
+        if (slot >= widgets.length) {
+            widgets = Arrays.copyOf(widgets, widgets.length * 2);
+        }
+        return slot;
+    }
+}
@@ -0,0 +1,192 @@
+package org.abondar.industrial.widgetstack.storage;
+
+import org.abondar.industrial.widgetstack.model.WidgetId;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Open-addressing hash map from a 128-bit widget id to a slot. Keys are kept in two long
+ * arrays and slots in an int array, so an entry costs 20 bytes and no objects. Linear
+ * probing with backward-shift deletion keeps the table free of tombstones.
+ * Not thread safe: guarded by the owner's lock.
+ */
+class IdSlotMap {
+
+    static final int MISSING = -1;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] highs;
+    private long[] lows;
+    private int[] slots;
+    private int mask;
+    private int size;
+
+    IdSlotMap() {
+        allocate(MIN_CAPACITY);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int get(WidgetId id) {
+        var high = id.getHigh();
+        var low = id.getLow();
+        for (int i = index(high, low); ; i = (i + 1) & mask) {
+            var slot = slots[i];
+            if (slot == MISSING) {
+                return MISSING;
+            }
+            if (highs[i] == high && lows[i] == low) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * @return slot previously mapped to id, or {@link #MISSING}
+     */
+    int put(WidgetId id, int slot) {
+        if (slot < 0) {
+            throw new IllegalArgumentException("Slot must not be negative");
+        }
+
+        var high = id.getHigh();
+        var low = id.getLow();
+        for (int i = index(high, low); ; i = (i + 1) & mask) {
+            var old = slots[i];
+            if (old == MISSING) {
+                highs[i] = high;
+                lows[i] = low;
+                slots[i] = slot;
+                if (++size > (mask + 1) >>> 1) {
+                    rehash((mask + 1) << 1);
+                }
+                return MISSING;
+            }
+            if (highs[i] == high && lows[i] == low) {
+                slots[i] = slot;
+                return old;
+            }
+        }
+    }
+
+    /**
+     * @return slot that was mapped to id, or {@link #MISSING}
+     */
+    int remove(WidgetId id) {
+        var high = id.getHigh();
+        var low = id.getLow();
+        for (int i = index(high, low); ; i = (i + 1) & mask) {
+            var slot = slots[i];
+            if (slot == MISSING) {
+                return MISSING;
+            }
+            if (highs[i] == high && lows[i] == low) {
+                shiftBack(i);
+                size--;
+                return slot;
+            }
+        }
+    }
+
+    PrimitiveIterator.OfInt slots() {
+        return new PrimitiveIterator.OfInt() {
+            private int next = advance(0);
+
+            @Override
+            public boolean hasNext() {
+                return next < slots.length;
+            }
+
+            @Override
+            public int nextInt() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                var slot = slots[next];
+                next = advance(next + 1);
+                return slot;
+            }
+
+            private int advance(int from) {
+                while (from < slots.length && slots[from] == MISSING) {
+                    from++;
+                }
+                return from;
+            }
+        };
+    }
+
+    void clear() {
+        allocate(MIN_CAPACITY);
+        size = 0;
+    }
+
+    /**
+     * Closes the gap at the freed index by moving back later entries of the same probe run
+     * whose home position lies at or before the gap.
+     */
+    private void shiftBack(int gap) {
+        for (int i = (gap + 1) & mask; slots[i] != MISSING; i = (i + 1) & mask) {
+            var home = index(highs[i], lows[i]);
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                highs[gap] = highs[i];
+                lows[gap] = lows[i];
+                slots[gap] = slots[i];
+                gap = i;
+            }
+        }
+        slots[gap] = MISSING;
+    }
+
+    private void rehash(int capacity) {
+        var oldHighs = highs;
+        var oldLows = lows;
+        var oldSlots = slots;
+        allocate(capacity);
+
+        for (int i = 0; i < oldSlots.length; i++) {
+            if (oldSlots[i] == MISSING) {
+                continue;
+            }
+            var j = index(oldHighs[i], oldLows[i]);
+            while (slots[j] != MISSING) {
+                j = (j + 1) & mask;
+            }
+            highs[j] = oldHighs[i];
+            lows[j] = oldLows[i];
+            slots[j] = oldSlots[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        highs = new long[capacity];
+        lows = new long[capacity];
+        slots = new int[capacity];
+        Arrays.fill(slots, MISSING);
+        mask = capacity - 1;
+    }
+
+    private int index(long high, long low) {
+        return (int) mix(high, low) & mask;
+    }
+
+    /**
+     * Spreads the id bits over the whole long, so any bit range can serve as a hash.
+     */
+    static long mix(long high, long low) {
+        var h = high * 0x9E3779B97F4A7C15L ^ low;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
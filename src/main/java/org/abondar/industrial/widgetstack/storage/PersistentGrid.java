@@ -0,0 +1,250 @@
+package org.abondar.industrial.widgetstack.storage;
+
+import org.abondar.industrial.widgetstack.model.Widget;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+
+/**
+ * Immutable uniform grid over the widget anchor point (x, y), the spatial index of a
+ * {@link WidgetSnapshot}. Only occupied cells are kept, in a treap ordered by column and
+ * row, and each cell holds its widgets in a {@link PersistentZTree}. Updates copy the path
+ * to one cell plus the path inside that cell and share the rest with the previous version.
+ * Widgets without x or y are left out, no region contains them.
+ */
+final class PersistentGrid {
+
+    private static final int CELL_SIZE = 256;
+    private static final int FIRST_CELL = cell(Integer.MIN_VALUE);
+
+    static final PersistentGrid EMPTY = new PersistentGrid(null);
+
+    private static final class Cell {
+        private final long key;
+        private final int priority;
+        private final PersistentZTree widgets;
+        private final Cell left;
+        private final Cell right;
+
+        private Cell(long key, int priority, PersistentZTree widgets, Cell left, Cell right) {
+            this.key = key;
+            this.priority = priority;
+            this.widgets = widgets;
+            this.left = left;
+            this.right = right;
+        }
+
+        private Cell with(Cell left, Cell right) {
+            return new Cell(key, priority, widgets, left, right);
+        }
+    }
+
+    private final Cell root;
+
+    private PersistentGrid(Cell root) {
+        this.root = root;
+    }
+
+    PersistentGrid with(Widget widget) {
+        if (widget.getXCoord() == null || widget.getYCoord() == null) {
+            return this;
+        }
+
+        var key = key(cell(widget.getXCoord()), cell(widget.getYCoord()));
+        var cell = find(key);
+        var widgets = (cell == null ? PersistentZTree.EMPTY : cell.widgets).with(widget);
+        return new PersistentGrid(insert(root, new Cell(key, priority(key), widgets, null, null)));
+    }
+
+    /**
+     * Version without widget, located by the coordinates, z-index and id it was added with.
+     */
+    PersistentGrid without(Widget widget) {
+        if (widget == null || widget.getXCoord() == null || widget.getYCoord() == null) {
+            return this;
+        }
+
+        var key = key(cell(widget.getXCoord()), cell(widget.getYCoord()));
+        var cell = find(key);
+        if (cell == null) {
+            return this;
+        }
+
+        var widgets = cell.widgets.without(widget.getZIndex(), widget.getId());
+        if (widgets == cell.widgets) {
+            return this;
+        }
+        if (widgets.size() == 0) {
+            return new PersistentGrid(delete(root, key));
+        }
+        return new PersistentGrid(insert(root, new Cell(key, cell.priority, widgets, null, null)));
+    }
+
+    /**
+     * Cells that may hold widgets anchored at x < xStop and y < yStop. Border cells hold
+     * widgets past the stop too, {@link #scan} checks the exact bounds.
+     */
+    List<PersistentZTree> cellsBelow(int xStop, int yStop) {
+        List<PersistentZTree> res = new ArrayList<>();
+        if (xStop == Integer.MIN_VALUE || yStop == Integer.MIN_VALUE) {
+            return res;
+        }
+
+        var lastColumn = cell(xStop - 1);
+        var lastRow = cell(yStop - 1);
+        var cell = ceiling(key(FIRST_CELL, FIRST_CELL));
+        while (cell != null && column(cell.key) <= lastColumn) {
+            if (row(cell.key) <= lastRow) {
+                res.add(cell.widgets);
+                cell = ceiling(cell.key + 1);
+            } else {
+                cell = ceiling(key(column(cell.key) + 1, FIRST_CELL));
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Visits the widgets of cells with z-index of at least fromZ anchored at x < xStop and
+     * y < yStop in z order, merging the cells by z-index, until visitor returns false.
+     * Every widget is read into probe, as in {@link PersistentZTree#scan}.
+     */
+    static void scan(List<PersistentZTree> cells, int fromZ, long xStop, long yStop, Widget probe,
+                     Predicate<Widget> visitor) {
+        var heads = new PriorityQueue<PersistentZTree.Cursor>(Math.max(cells.size(), 1),
+                Comparator.comparingInt(PersistentZTree.Cursor::z));
+        for (var cell : cells) {
+            var cursor = cell.cursor(fromZ);
+            if (cursor.next()) {
+                heads.add(cursor);
+            }
+        }
+
+        while (!heads.isEmpty()) {
+            var head = heads.poll();
+            if (head.isBelow(xStop, yStop) && !visitor.test(head.read(probe))) {
+                return;
+            }
+            if (head.next()) {
+                heads.add(head);
+            }
+        }
+    }
+
+    private Cell find(long key) {
+        var node = root;
+        while (node != null) {
+            if (key < node.key) {
+                node = node.left;
+            } else if (key > node.key) {
+                node = node.right;
+            } else {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private Cell ceiling(long key) {
+        Cell res = null;
+        var node = root;
+        while (node != null) {
+            if (key <= node.key) {
+                res = node;
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return res;
+    }
+
+    private static Cell insert(Cell node, Cell item) {
+        if (node == null) {
+            return item;
+        }
+
+        if (item.priority > node.priority) {
+            return item.with(splitBelow(node, item.key), splitAbove(node, item.key));
+        }
+
+        if (item.key < node.key) {
+            return node.with(insert(node.left, item), node.right);
+        }
+        if (item.key > node.key) {
+            return node.with(node.left, insert(node.right, item));
+        }
+        return new Cell(item.key, node.priority, item.widgets, node.left, node.right);
+    }
+
+    private static Cell splitBelow(Cell node, long key) {
+        if (node == null) {
+            return null;
+        }
+        if (node.key < key) {
+            return node.with(node.left, splitBelow(node.right, key));
+        }
+        return splitBelow(node.left, key);
+    }
+
+    private static Cell splitAbove(Cell node, long key) {
+        if (node == null) {
+            return null;
+        }
+        if (node.key > key) {
+            return node.with(splitAbove(node.left, key), node.right);
+        }
+        return splitAbove(node.right, key);
+    }
+
+    private static Cell delete(Cell node, long key) {
+        if (key < node.key) {
+            return node.with(delete(node.left, key), node.right);
+        }
+        if (key > node.key) {
+            return node.with(node.left, delete(node.right, key));
+        }
+        return merge(node.left, node.right);
+    }
+
+    private static Cell merge(Cell left, Cell right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+
+        if (left.priority > right.priority) {
+            return left.with(left.left, merge(left.right, right));
+        }
+        return right.with(merge(left, right.left), right.right);
+    }
+
+    private static int cell(int coord) {
+        return Math.floorDiv(coord, CELL_SIZE);
+    }
+
+    /**
+     * Orders cells by column, then row: the row is stored with its sign bit flipped, so it
+     * compares as unsigned in the low half.
+     */
+    private static long key(int column, int row) {
+        return (long) column << 32 | (row ^ Integer.MIN_VALUE) & 0xFFFFFFFFL;
+    }
+
+    private static int column(long key) {
+        return (int) (key >> 32);
+    }
+
+    private static int row(long key) {
+        return (int) key ^ Integer.MIN_VALUE;
+    }
+
+    private static int priority(long key) {
+        return (int) (IdSlotMap.mix(key, 0) >>> 32);
+    }
+}
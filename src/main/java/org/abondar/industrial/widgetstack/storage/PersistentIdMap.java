@@ -0,0 +1,253 @@
+package org.abondar.industrial.widgetstack.storage;
+
+import org.abondar.industrial.widgetstack.model.WidgetId;
+
+import java.util.Arrays;
+
+/**
+ * Immutable hash array mapped trie of widget entries by id. An entry keeps the z-index the
+ * widget is stored under in the z tree rather than the widget itself. Each level consumes five bits of the
+ * mixed id hash and stores only the occupied branches, indexed through a bitmap. Updates
+ * copy the nodes on one path, at most seven, and share everything else with the previous
+ * version. Ids whose hashes collide in full end up together in one collision node.
+ */
+final class PersistentIdMap {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final int HASH_BITS = 32;
+
+    /**
+     * Id and z-index of a stored widget and the store version that last wrote it.
+     */
+    static final class Entry {
+        private final long idHigh;
+        private final long idLow;
+        private final int z;
+        private final long version;
+
+        Entry(WidgetId id, int z, long version) {
+            this.idHigh = id.getHigh();
+            this.idLow = id.getLow();
+            this.z = z;
+            this.version = version;
+        }
+
+        int z() {
+            return z;
+        }
+
+        long version() {
+            return version;
+        }
+
+        private boolean is(WidgetId id) {
+            return idHigh == id.getHigh() && idLow == id.getLow();
+        }
+
+        private boolean sameId(Entry other) {
+            return idHigh == other.idHigh && idLow == other.idLow;
+        }
+
+        private int hash() {
+            return PersistentIdMap.hash(idHigh, idLow);
+        }
+    }
+
+    static final PersistentIdMap EMPTY = new PersistentIdMap(new Branch(0, new Object[0]), 0);
+
+    /**
+     * Inner node: entries are items or child nodes, one per set bit of the bitmap.
+     */
+    private static final class Branch {
+        private final int bitmap;
+        private final Object[] entries;
+
+        private Branch(int bitmap, Object[] entries) {
+            this.bitmap = bitmap;
+            this.entries = entries;
+        }
+    }
+
+    private static final class Collision {
+        private final Entry[] items;
+
+        private Collision(Entry[] items) {
+            this.items = items;
+        }
+    }
+
+    private final Branch root;
+    private final int size;
+
+    private PersistentIdMap(Branch root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Entry get(WidgetId id) {
+        var hash = hash(id);
+        Object node = root;
+        for (int shift = 0; ; shift += BITS) {
+            if (node instanceof Collision) {
+                for (var stored : ((Collision) node).items) {
+                    if (stored.is(id)) {
+                        return stored;
+                    }
+                }
+                return null;
+            }
+
+            var branch = (Branch) node;
+            var bit = bit(hash, shift);
+            if ((branch.bitmap & bit) == 0) {
+                return null;
+            }
+
+            var entry = branch.entries[index(branch.bitmap, bit)];
+            if (entry instanceof Entry) {
+                var stored = (Entry) entry;
+                return stored.is(id) ? stored : null;
+            }
+            node = entry;
+        }
+    }
+
+    /**
+     * Version mapping the id of item to it.
+     */
+    PersistentIdMap plus(Entry item) {
+        var added = get(new WidgetId(item.idHigh, item.idLow)) == null;
+        var branch = (Branch) plus(root, 0, item.hash(), item);
+        return new PersistentIdMap(branch, added ? size + 1 : size);
+    }
+
+    PersistentIdMap minus(WidgetId id) {
+        if (get(id) == null) {
+            return this;
+        }
+
+        return new PersistentIdMap((Branch) minus(root, 0, hash(id), id), size - 1);
+    }
+
+    private static Object plus(Object node, int shift, int hash, Entry item) {
+        if (node instanceof Collision) {
+            var items = ((Collision) node).items;
+            for (int i = 0; i < items.length; i++) {
+                if (items[i].sameId(item)) {
+                    var copy = items.clone();
+                    copy[i] = item;
+                    return new Collision(copy);
+                }
+            }
+            var copy = Arrays.copyOf(items, items.length + 1);
+            copy[items.length] = item;
+            return new Collision(copy);
+        }
+
+        var branch = (Branch) node;
+        var bit = bit(hash, shift);
+        var index = index(branch.bitmap, bit);
+        if ((branch.bitmap & bit) == 0) {
+            var entries = new Object[branch.entries.length + 1];
+            System.arraycopy(branch.entries, 0, entries, 0, index);
+            entries[index] = item;
+            System.arraycopy(branch.entries, index, entries, index + 1, branch.entries.length - index);
+            return new Branch(branch.bitmap | bit, entries);
+        }
+
+        var entry = branch.entries[index];
+        Object replaced;
+        if (entry instanceof Entry) {
+            var stored = (Entry) entry;
+            replaced = stored.sameId(item)
+                    ? item
+                    : pair(stored, stored.hash(), item, hash, shift + BITS);
+        } else {
+            replaced = plus(entry, shift + BITS, hash, item);
+        }
+
+        var entries = branch.entries.clone();
+        entries[index] = replaced;
+        return new Branch(branch.bitmap, entries);
+    }
+
+    private static Object pair(Entry first, int firstHash, Entry second, int secondHash, int shift) {
+        if (shift >= HASH_BITS) {
+            return new Collision(new Entry[]{first, second});
+        }
+
+        var firstBit = bit(firstHash, shift);
+        var secondBit = bit(secondHash, shift);
+        if (firstBit == secondBit) {
+            return new Branch(firstBit, new Object[]{pair(first, firstHash, second, secondHash, shift + BITS)});
+        }
+
+        var entries = Integer.compareUnsigned(firstBit, secondBit) < 0
+                ? new Object[]{first, second}
+                : new Object[]{second, first};
+        return new Branch(firstBit | secondBit, entries);
+    }
+
+    /**
+     * Removes id, which must be present below node. The root is always kept as a branch.
+     *
+     * @return the new node, or the last entry left in it so the parent can inline it
+     */
+    private static Object minus(Object node, int shift, int hash, WidgetId id) {
+        if (node instanceof Collision) {
+            var items = ((Collision) node).items;
+            var rest = Arrays.stream(items)
+                    .filter(stored -> !stored.is(id))
+                    .toArray(Entry[]::new);
+            return rest.length == 1 ? rest[0] : new Collision(rest);
+        }
+
+        var branch = (Branch) node;
+        var bit = bit(hash, shift);
+        var index = index(branch.bitmap, bit);
+        var entry = branch.entries[index];
+
+        var replaced = entry instanceof Entry ? null : minus(entry, shift + BITS, hash, id);
+        if (replaced != null) {
+            if (branch.entries.length == 1 && shift > 0 && replaced instanceof Entry) {
+                return replaced;
+            }
+            var entries = branch.entries.clone();
+            entries[index] = replaced;
+            return new Branch(branch.bitmap, entries);
+        }
+
+        if (branch.entries.length == 2 && shift > 0) {
+            var other = branch.entries[1 - index];
+            if (other instanceof Entry) {
+                return other;
+            }
+        }
+
+        var entries = new Object[branch.entries.length - 1];
+        System.arraycopy(branch.entries, 0, entries, 0, index);
+        System.arraycopy(branch.entries, index + 1, entries, index, entries.length - index);
+        return new Branch(branch.bitmap & ~bit, entries);
+    }
+
+    private static int hash(WidgetId id) {
+        return hash(id.getHigh(), id.getLow());
+    }
+
+    private static int hash(long high, long low) {
+        return (int) IdSlotMap.mix(high, low);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private static int index(int bitmap, int bit) {
+        return Integer.bitCount(bitmap & (bit - 1));
+    }
+}
@@ -0,0 +1,413 @@
+package org.abondar.industrial.widgetstack.storage;
+
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetId;
+
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Deque;
+import java.util.function.Predicate;
+
+/**
+ * Immutable treap of widgets by z-index. Updates copy only the nodes on the path to the
+ * change and share the rest with the previous version, so every version stays readable
+ * while the next one is built. Besides the subtree size each node keeps the lowest x and
+ * y anchored below it, which lets region scans skip whole subtrees.
+ * <p>
+ * Nodes hold the widget fields as primitives with a presence mask, like the columnar
+ * storage does, instead of a widget object with boxed fields; widgets are only created
+ * on the way out.
+ * <p>
+ * Priorities come from the widget id, so the shape does not depend on a random source.
+ */
+final class PersistentZTree {
+
+    /**
+     * Coordinate bound that lets every widget through, including those without coordinates.
+     */
+    static final long NO_BOUND = Long.MAX_VALUE;
+
+    /**
+     * Stands in for a missing x or y in the bounds checks: no int stop lets it through,
+     * {@link #NO_BOUND} does.
+     */
+    private static final int ABSENT = Integer.MAX_VALUE;
+
+    private static final int X = 0;
+    private static final int Y = 1;
+    private static final int WIDTH = 2;
+    private static final int HEIGHT = 3;
+    private static final int LAST_MODIFIED = 4;
+
+    static final PersistentZTree EMPTY = new PersistentZTree(null);
+
+    private static final class Node {
+        private final long idHigh;
+        private final long idLow;
+        private final long lastModified;
+        private final int z;
+        private final int x;
+        private final int y;
+        private final int width;
+        private final int height;
+        private final byte present;
+        private final int priority;
+        private final Node left;
+        private final Node right;
+        private final int size;
+        private final int minX;
+        private final int minY;
+
+        private Node(Widget widget, int priority) {
+            this.idHigh = widget.getId().getHigh();
+            this.idLow = widget.getId().getLow();
+            this.z = widget.getZIndex();
+            this.x = widget.getXCoord() == null ? ABSENT : widget.getXCoord();
+            this.y = widget.getYCoord() == null ? ABSENT : widget.getYCoord();
+            this.width = widget.getWidth() == null ? 0 : widget.getWidth();
+            this.height = widget.getHeight() == null ? 0 : widget.getHeight();
+            this.lastModified = widget.getLastModified() == null ? 0 : widget.getLastModified().getTime();
+            this.present = (byte) (bit(X, widget.getXCoord()) | bit(Y, widget.getYCoord())
+                    | bit(WIDTH, widget.getWidth()) | bit(HEIGHT, widget.getHeight())
+                    | bit(LAST_MODIFIED, widget.getLastModified()));
+            this.priority = priority;
+            this.left = null;
+            this.right = null;
+            this.size = 1;
+            this.minX = x;
+            this.minY = y;
+        }
+
+        private Node(Node fields, int priority, Node left, Node right) {
+            this.idHigh = fields.idHigh;
+            this.idLow = fields.idLow;
+            this.lastModified = fields.lastModified;
+            this.z = fields.z;
+            this.x = fields.x;
+            this.y = fields.y;
+            this.width = fields.width;
+            this.height = fields.height;
+            this.present = fields.present;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.size = 1 + size(left) + size(right);
+            this.minX = Math.min(x, Math.min(minX(left), minX(right)));
+            this.minY = Math.min(y, Math.min(minY(left), minY(right)));
+        }
+
+        private Node with(Node left, Node right) {
+            return new Node(this, priority, left, right);
+        }
+
+        private boolean is(WidgetId id) {
+            return idHigh == id.getHigh() && idLow == id.getLow();
+        }
+
+        /**
+         * Copies the fields into target, nulls included; the board is left as it is.
+         */
+        private Widget read(Widget target) {
+            target.setId(new WidgetId(idHigh, idLow));
+            target.setZIndex(z);
+            target.setXCoord(isPresent(X) ? x : null);
+            target.setYCoord(isPresent(Y) ? y : null);
+            target.setWidth(isPresent(WIDTH) ? width : null);
+            target.setHeight(isPresent(HEIGHT) ? height : null);
+            target.setLastModified(isPresent(LAST_MODIFIED) ? new Date(lastModified) : null);
+            return target;
+        }
+
+        private boolean isPresent(int field) {
+            return (present & (1 << field)) != 0;
+        }
+
+        private static int bit(int field, Object value) {
+            return value == null ? 0 : 1 << field;
+        }
+    }
+
+    private final Node root;
+
+    private PersistentZTree(Node root) {
+        this.root = root;
+    }
+
+    int size() {
+        return size(root);
+    }
+
+    /**
+     * @return a new widget with the fields stored under z, or null
+     */
+    Widget get(int z) {
+        var node = find(z);
+        return node == null ? null : node.read(new Widget());
+    }
+
+    Widget last() {
+        var node = root;
+        if (node == null) {
+            return null;
+        }
+        while (node.right != null) {
+            node = node.right;
+        }
+        return node.read(new Widget());
+    }
+
+    /**
+     * @return z-index of the widget at rank in z order, or null past the end
+     */
+    Integer zAt(int rank) {
+        var node = root;
+        while (node != null) {
+            var leftSize = size(node.left);
+            if (rank < leftSize) {
+                node = node.left;
+            } else if (rank == leftSize) {
+                return node.z;
+            } else {
+                rank -= leftSize + 1;
+                node = node.right;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Version holding the fields of widget under its z-index, replacing whatever held that
+     * z-index.
+     */
+    PersistentZTree with(Widget widget) {
+        return new PersistentZTree(insert(root, new Node(widget, priority(widget.getId()))));
+    }
+
+    /**
+     * Version without the widget at z, provided it is the one with the given id.
+     */
+    PersistentZTree without(int z, WidgetId id) {
+        var found = find(z);
+        if (found == null || !found.is(id)) {
+            return this;
+        }
+        return new PersistentZTree(delete(root, z));
+    }
+
+    /**
+     * Visits widgets with z-index of at least fromZ anchored at x < xStop and y < yStop in
+     * z order, until visitor returns false. Every widget is read into probe, so the visitor
+     * has to copy the ones it keeps.
+     */
+    void scan(int fromZ, long xStop, long yStop, Widget probe, Predicate<Widget> visitor) {
+        scan(fromZ, xStop, yStop, probe, visitor, Integer.MAX_VALUE);
+    }
+
+    /**
+     * {@link #scan(int, long, long, Widget, Predicate)} that gives up after stepping over
+     * budget widgets anchored outside the stop corner, the work a spatial index saves.
+     *
+     * @return z-index to go on from when it gave up, everything below it was visited;
+     *         null when it finished
+     */
+    Integer scan(int fromZ, long xStop, long yStop, Widget probe, Predicate<Widget> visitor, int budget) {
+        var scan = new Scan(fromZ, xStop, yStop, probe, visitor, budget);
+        scan.scan(root);
+        return scan.resumeZ;
+    }
+
+    /**
+     * Pull-style walk in z order from fromZ on, for merging several trees by z-index.
+     */
+    Cursor cursor(int fromZ) {
+        return new Cursor(root, fromZ);
+    }
+
+    /**
+     * In-order position in a tree. {@link #next()} has to be called before the first widget
+     * is read.
+     */
+    static final class Cursor {
+        private final Deque<Node> path = new ArrayDeque<>();
+        private Node current;
+
+        private Cursor(Node root, int fromZ) {
+            var node = root;
+            while (node != null) {
+                if (fromZ <= node.z) {
+                    path.push(node);
+                    node = node.left;
+                } else {
+                    node = node.right;
+                }
+            }
+        }
+
+        /**
+         * @return false once the tree is exhausted
+         */
+        boolean next() {
+            if (path.isEmpty()) {
+                current = null;
+                return false;
+            }
+
+            current = path.pop();
+            var node = current.right;
+            while (node != null) {
+                path.push(node);
+                node = node.left;
+            }
+            return true;
+        }
+
+        int z() {
+            return current.z;
+        }
+
+        boolean isBelow(long xStop, long yStop) {
+            return current.x < xStop && current.y < yStop;
+        }
+
+        Widget read(Widget target) {
+            return current.read(target);
+        }
+    }
+
+    private Node find(int z) {
+        var node = root;
+        while (node != null) {
+            if (z < node.z) {
+                node = node.left;
+            } else if (z > node.z) {
+                node = node.right;
+            } else {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private static final class Scan {
+        private final int fromZ;
+        private final long xStop;
+        private final long yStop;
+        private final Widget probe;
+        private final Predicate<Widget> visitor;
+        private int budget;
+        private Integer resumeZ;
+
+        private Scan(int fromZ, long xStop, long yStop, Widget probe, Predicate<Widget> visitor, int budget) {
+            this.fromZ = fromZ;
+            this.xStop = xStop;
+            this.yStop = yStop;
+            this.probe = probe;
+            this.visitor = visitor;
+            this.budget = budget;
+        }
+
+        /**
+         * @return false once the visitor is done or the budget is spent
+         */
+        private boolean scan(Node node) {
+            if (node == null || node.minX >= xStop || node.minY >= yStop) {
+                return true;
+            }
+
+            if (node.z >= fromZ) {
+                if (!scan(node.left)) {
+                    return false;
+                }
+                if (node.x < xStop && node.y < yStop) {
+                    if (!visitor.test(node.read(probe))) {
+                        return false;
+                    }
+                } else if (--budget < 0) {
+                    resumeZ = node.z;
+                    return false;
+                }
+            }
+            return scan(node.right);
+        }
+    }
+
+    private static Node insert(Node node, Node item) {
+        if (node == null) {
+            return item;
+        }
+
+        if (item.priority > node.priority) {
+            var left = splitBelow(node, item.z);
+            var right = splitAbove(node, item.z);
+            return item.with(left, right);
+        }
+
+        if (item.z < node.z) {
+            return node.with(insert(node.left, item), node.right);
+        }
+        if (item.z > node.z) {
+            return node.with(node.left, insert(node.right, item));
+        }
+        return new Node(item, node.priority, node.left, node.right);
+    }
+
+    private static Node splitBelow(Node node, int z) {
+        if (node == null) {
+            return null;
+        }
+        if (node.z < z) {
+            return node.with(node.left, splitBelow(node.right, z));
+        }
+        return splitBelow(node.left, z);
+    }
+
+    private static Node splitAbove(Node node, int z) {
+        if (node == null) {
+            return null;
+        }
+        if (node.z > z) {
+            return node.with(splitAbove(node.left, z), node.right);
+        }
+        return splitAbove(node.right, z);
+    }
+
+    private static Node delete(Node node, int z) {
+        if (z < node.z) {
+            return node.with(delete(node.left, z), node.right);
+        }
+        if (z > node.z) {
+            return node.with(node.left, delete(node.right, z));
+        }
+        return merge(node.left, node.right);
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+
+        if (left.priority > right.priority) {
+            return left.with(left.left, merge(left.right, right));
+        }
+        return right.with(merge(left, right.left), right.right);
+    }
+
+    private static int priority(WidgetId id) {
+        return (int) (IdSlotMap.mix(id.getHigh(), id.getLow()) >>> 32);
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static int minX(Node node) {
+        return node == null ? ABSENT : node.minX;
+    }
+
+    private static int minY(Node node) {
+        return node == null ? ABSENT : node.minY;
+    }
+}
@@ -0,0 +1,44 @@
+package org.abondar.industrial.widgetstack.storage;
+
+import java.util.Arrays;
+
+/**
+ * Hands out slot numbers for the slot-indexed arrays of a storage engine. Freed slots are
+ * kept on a stack and reused first, so the arrays only grow when every slot is taken.
+ * Not thread safe: guarded by the owner's lock.
+ */
+class SlotAllocator {
+
+    private int[] free = new int[16];
+    private int freeCount;
+    private int allocated;
+
+    /**
+     * @return a free slot; callers make sure their arrays hold at least {@link #allocated()}
+     */
+    int allocate() {
+        if (freeCount > 0) {
+            return free[--freeCount];
+        }
+        return allocated++;
+    }
+
+    void release(int slot) {
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, freeCount * 2);
+        }
+        free[freeCount++] = slot;
+    }
+
+    /**
+     * Slots handed out so far, free or not: every slot number is below this.
+     */
+    int allocated() {
+        return allocated;
+    }
+
+    void clear() {
+        freeCount = 0;
+        allocated = 0;
+    }
+}
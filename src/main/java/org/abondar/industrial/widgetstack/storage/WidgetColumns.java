@@ -0,0 +1,246 @@
+package org.abondar.industrial.widgetstack.storage;
+
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetId;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Widgets stored column-wise by slot: five int columns, long columns for the modification
+ * time as epoch millis and the two halves of the id, and a presence mask for the fields
+ * that may be null. The columns live in primitive arrays or, off-heap, in direct buffers
+ * the garbage collector never scans.
+ * Not thread safe: guarded by the owner's lock.
+ */
+abstract class WidgetColumns {
+
+    static final int X = 0;
+    static final int Y = 1;
+    static final int Z = 2;
+    static final int WIDTH = 3;
+    static final int HEIGHT = 4;
+
+    static final int INT_COLUMNS = 5;
+
+    static final int LAST_MODIFIED = 0;
+    static final int ID_HIGH = 1;
+    static final int ID_LOW = 2;
+
+    static final int LONG_COLUMNS = 3;
+
+    private static final int LAST_MODIFIED_PRESENT = INT_COLUMNS;
+
+    static WidgetColumns create(boolean offHeap, int capacity) {
+        return offHeap ? new OffHeap(capacity) : new Heap(capacity);
+    }
+
+    abstract int capacity();
+
+    abstract void grow(int capacity);
+
+    abstract int getInt(int column, int slot);
+
+    abstract void setInt(int column, int slot, int value);
+
+    abstract long getLong(int column, int slot);
+
+    abstract void setLong(int column, int slot, long value);
+
+    abstract byte getPresent(int slot);
+
+    abstract void setPresent(int slot, byte present);
+
+    boolean isPresent(int column, int slot) {
+        return (getPresent(slot) & (1 << column)) != 0;
+    }
+
+    WidgetId getId(int slot) {
+        return new WidgetId(getLong(ID_HIGH, slot), getLong(ID_LOW, slot));
+    }
+
+    void write(int slot, Widget widget) {
+        Integer[] fields = {widget.getXCoord(), widget.getYCoord(), widget.getZIndex(),
+                widget.getWidth(), widget.getHeight()};
+
+        byte present = 0;
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] != null) {
+                present |= 1 << i;
+            }
+            setInt(i, slot, fields[i] == null ? 0 : fields[i]);
+        }
+
+        var lastModified = widget.getLastModified();
+        if (lastModified != null) {
+            present |= 1 << LAST_MODIFIED_PRESENT;
+        }
+        setLong(LAST_MODIFIED, slot, lastModified == null ? 0 : lastModified.getTime());
+        setLong(ID_HIGH, slot, widget.getId().getHigh());
+        setLong(ID_LOW, slot, widget.getId().getLow());
+        setPresent(slot, present);
+    }
+
+    /**
+     * Copies the widget in slot into target, nulls included.
+     */
+    void read(int slot, Widget target) {
+        var present = getPresent(slot);
+        target.setId(getId(slot));
+        target.setXCoord(field(X, slot, present));
+        target.setYCoord(field(Y, slot, present));
+        target.setZIndex(field(Z, slot, present));
+        target.setWidth(field(WIDTH, slot, present));
+        target.setHeight(field(HEIGHT, slot, present));
+        target.setLastModified((present & (1 << LAST_MODIFIED_PRESENT)) != 0
+                ? new Date(getLong(LAST_MODIFIED, slot)) : null);
+    }
+
+    private Integer field(int column, int slot, byte present) {
+        return (present & (1 << column)) != 0 ? getInt(column, slot) : null;
+    }
+
+    private static final class Heap extends WidgetColumns {
+        private final int[][] ints = new int[INT_COLUMNS][];
+        private final long[][] longs = new long[LONG_COLUMNS][];
+        private byte[] present;
+
+        private Heap(int capacity) {
+            for (int i = 0; i < INT_COLUMNS; i++) {
+                ints[i] = new int[capacity];
+            }
+            for (int i = 0; i < LONG_COLUMNS; i++) {
+                longs[i] = new long[capacity];
+            }
+            present = new byte[capacity];
+        }
+
+        @Override
+        int capacity() {
+            return present.length;
+        }
+
+        @Override
+        void grow(int capacity) {
+            for (int i = 0; i < INT_COLUMNS; i++) {
+                ints[i] = Arrays.copyOf(ints[i], capacity);
+            }
+            for (int i = 0; i < LONG_COLUMNS; i++) {
+                longs[i] = Arrays.copyOf(longs[i], capacity);
+            }
+            present = Arrays.copyOf(present, capacity);
+        }
+
+        @Override
+        int getInt(int column, int slot) {
+            return ints[column][slot];
+        }
+
+        @Override
+        void setInt(int column, int slot, int value) {
+            ints[column][slot] = value;
+        }
+
+        @Override
+        long getLong(int column, int slot) {
+            return longs[column][slot];
+        }
+
+        @Override
+        void setLong(int column, int slot, long value) {
+            longs[column][slot] = value;
+        }
+
+        @Override
+        byte getPresent(int slot) {
+            return present[slot];
+        }
+
+        @Override
+        void setPresent(int slot, byte present) {
+            this.present[slot] = present;
+        }
+    }
+
+    private static final class OffHeap extends WidgetColumns {
+        private final IntBuffer[] ints = new IntBuffer[INT_COLUMNS];
+        private final LongBuffer[] longs = new LongBuffer[LONG_COLUMNS];
+        private ByteBuffer present;
+        private int capacity;
+
+        private OffHeap(int capacity) {
+            for (int i = 0; i < INT_COLUMNS; i++) {
+                ints[i] = allocate(capacity, Integer.BYTES).asIntBuffer();
+            }
+            for (int i = 0; i < LONG_COLUMNS; i++) {
+                longs[i] = allocate(capacity, Long.BYTES).asLongBuffer();
+            }
+            present = allocate(capacity, Byte.BYTES);
+            this.capacity = capacity;
+        }
+
+        @Override
+        int capacity() {
+            return capacity;
+        }
+
+        @Override
+        void grow(int capacity) {
+            for (int i = 0; i < INT_COLUMNS; i++) {
+                var grown = allocate(capacity, Integer.BYTES).asIntBuffer();
+                grown.put(ints[i].duplicate().clear());
+                ints[i] = grown;
+            }
+
+            for (int i = 0; i < LONG_COLUMNS; i++) {
+                var grown = allocate(capacity, Long.BYTES).asLongBuffer();
+                grown.put(longs[i].duplicate().clear());
+                longs[i] = grown;
+            }
+
+            var mask = allocate(capacity, Byte.BYTES);
+            mask.put(present.duplicate().clear());
+            present = mask;
+
+            this.capacity = capacity;
+        }
+
+        @Override
+        int getInt(int column, int slot) {
+            return ints[column].get(slot);
+        }
+
+        @Override
+        void setInt(int column, int slot, int value) {
+            ints[column].put(slot, value);
+        }
+
+        @Override
+        long getLong(int column, int slot) {
+            return longs[column].get(slot);
+        }
+
+        @Override
+        void setLong(int column, int slot, long value) {
+            longs[column].put(slot, value);
+        }
+
+        @Override
+        byte getPresent(int slot) {
+            return present.get(slot);
+        }
+
+        @Override
+        void setPresent(int slot, byte present) {
+            this.present.put(slot, present);
+        }
+
+        private static ByteBuffer allocate(int capacity, int width) {
+            return ByteBuffer.allocateDirect(Math.multiplyExact(capacity, width)).order(ByteOrder.nativeOrder());
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package org.abondar.industrial.widgetstack.storage;
+
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetId;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Immutable version of the store content. Writers derive the next version with
+ * {@link #apply(Collection, Collection)}, which shares all untouched structure with this
+ * one, and publish it; readers take whatever version is current and query it without any
+ * lock, seeing a consistent point in time for the whole request.
+ * <p>
+ * The widgets are kept as primitive fields in the tree nodes, not as widget objects, and
+ * never change. Queries build fresh widgets, so callers are free to modify what they get.
+ * All widgets of a snapshot belong to one board, which is kept once for the snapshot.
+ * <p>
+ * Besides the z tree and the id map every version carries a {@link PersistentGrid} over the
+ * anchor points, so a region query that covers few widgets visits only the grid cells it
+ * overlaps instead of scanning in z order.
+ */
+public final class WidgetSnapshot {
+
+    public static final WidgetSnapshot EMPTY = empty(Widget.DEFAULT_BOARD);
+
+    private static final int SCAN_BUDGET_PER_WIDGET = 16;
+    private static final int MIN_SCAN_BUDGET = 1024;
+
+    private final String boardId;
+    private final long version;
+    private final PersistentZTree byZ;
+    private final PersistentIdMap byId;
+    private final PersistentGrid grid;
+
+    private WidgetSnapshot(String boardId, long version, PersistentZTree byZ, PersistentIdMap byId,
+                           PersistentGrid grid) {
+        this.boardId = boardId;
+        this.version = version;
+        this.byZ = byZ;
+        this.byId = byId;
+        this.grid = grid;
+    }
+
+    /**
+     * Empty first version of a board.
+     */
+    public static WidgetSnapshot empty(String boardId) {
+        return new WidgetSnapshot(boardId, 0, PersistentZTree.EMPTY, PersistentIdMap.EMPTY, PersistentGrid.EMPTY);
+    }
+
+    /**
+     * Number of versions published before this one. Grows with every change, so two reads
+     * seeing the same version saw the same content.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the version that last created or changed the widget, or -1 if it is absent
+     */
+    public long getVersion(WidgetId id) {
+        var entry = byId.get(id);
+        return entry == null ? -1 : entry.version();
+    }
+
+    public Widget get(WidgetId id) {
+        var entry = byId.get(id);
+        return entry == null ? null : onBoard(byZ.get(entry.z()));
+    }
+
+    public Widget top() {
+        return onBoard(byZ.last());
+    }
+
+    public List<Widget> page(int offset, int limit) {
+        List<Widget> res = new ArrayList<>(capacity(limit));
+        forEach(offset, limit, res::add);
+        return res;
+    }
+
+    public List<Widget> pageAfter(int z, int limit) {
+        List<Widget> res = new ArrayList<>(capacity(limit));
+        forEachAfter(z, limit, res::add);
+        return res;
+    }
+
+    /**
+     * Region query: widgets anchored at x < xStop and y < yStop that also satisfy matches,
+     * in z order. The query scans in z order first, skipping subtrees anchored entirely right
+     * of or above the stop corner. If it steps over more widgets outside the region than
+     * the page is worth, the region is sparse and the rest is answered from the grid cells
+     * below the stop corner, merged by z-index, from where the scan stopped. Both end as
+     * soon as offset + limit widgets matched. The widget handed to matches is reused for
+     * the next candidate.
+     */
+    public List<Widget> findBelow(int xStop, int yStop, Predicate<Widget> matches, int offset, int limit) {
+        List<Widget> res = new ArrayList<>(capacity(limit));
+        forEachBelow(xStop, yStop, matches, offset, limit, res::add);
+        return res;
+    }
+
+    /**
+     * Keyset variant of the region query: only widgets with z-index greater than afterZ
+     * are kept, so a cursor page costs the same as the first one.
+     */
+    public List<Widget> findBelowAfter(int xStop, int yStop, Predicate<Widget> matches, int afterZ, int limit) {
+        List<Widget> res = new ArrayList<>(capacity(limit));
+        forEachBelowAfter(xStop, yStop, matches, afterZ, limit, res::add);
+        return res;
+    }
+
+    /**
+     * All widgets in z order.
+     */
+    public List<Widget> values() {
+        List<Widget> res = new ArrayList<>(size());
+        forEach(0, Integer.MAX_VALUE, res::add);
+        return res;
+    }
+
+    /**
+     * Hands the widgets of {@link #page(int, int)} to action one by one instead of
+     * collecting them, so a caller streaming them out holds one widget at a time.
+     */
+    public void forEach(int offset, int limit, Consumer<Widget> action) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Offset and limit must not be negative");
+        }
+
+        var from = byZ.zAt(offset);
+        if (from != null) {
+            visit(from, PersistentZTree.NO_BOUND, PersistentZTree.NO_BOUND, wd -> true, 0, limit, action);
+        }
+    }
+
+    public void forEachAfter(int z, int limit, Consumer<Widget> action) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit must not be negative");
+        }
+        if (z != Integer.MAX_VALUE) {
+            visit(z + 1, PersistentZTree.NO_BOUND, PersistentZTree.NO_BOUND, wd -> true, 0, limit, action);
+        }
+    }
+
+    public void forEachBelow(int xStop, int yStop, Predicate<Widget> matches, int offset, int limit,
+                             Consumer<Widget> action) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Offset and limit must not be negative");
+        }
+        visit(Integer.MIN_VALUE, xStop, yStop, matches, offset, limit, action);
+    }
+
+    public void forEachBelowAfter(int xStop, int yStop, Predicate<Widget> matches, int afterZ, int limit,
+                                  Consumer<Widget> action) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit must not be negative");
+        }
+        if (afterZ != Integer.MAX_VALUE) {
+            visit(afterZ + 1, xStop, yStop, matches, 0, limit, action);
+        }
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    public boolean isEmpty() {
+        return byId.size() == 0;
+    }
+
+    /**
+     * Next version: widgets in removed are dropped, the fields of widgets in changed are
+     * stored under their current z-index. Each widget is listed once, and the z-indexes of
+     * the result must be unique, as they are in the storage the changes come from.
+     */
+    public WidgetSnapshot apply(Collection<Widget> changed, Collection<WidgetId> removed) {
+        var nextZ = byZ;
+        var nextId = byId;
+        var nextGrid = grid;
+
+        var next = version + 1;
+
+        for (var id : removed) {
+            var old = nextId.get(id);
+            if (old != null) {
+                nextGrid = nextGrid.without(nextZ.get(old.z()));
+                nextZ = nextZ.without(old.z(), id);
+                nextId = nextId.minus(id);
+            }
+        }
+
+        for (var wd : changed) {
+            var old = nextId.get(wd.getId());
+            if (old != null) {
+                nextGrid = nextGrid.without(nextZ.get(old.z()));
+                nextZ = nextZ.without(old.z(), wd.getId());
+            }
+        }
+
+        for (var wd : changed) {
+            nextZ = nextZ.with(wd);
+            nextGrid = nextGrid.with(wd);
+            nextId = nextId.plus(new PersistentIdMap.Entry(wd.getId(), wd.getZIndex(), next));
+        }
+
+        return new WidgetSnapshot(boardId, next, nextZ, nextId, nextGrid);
+    }
+
+    /**
+     * Next version holding exactly widgets, for a store that was cleared or reloaded.
+     */
+    public WidgetSnapshot replace(Collection<Widget> widgets) {
+        return new WidgetSnapshot(boardId, version, PersistentZTree.EMPTY, PersistentIdMap.EMPTY, PersistentGrid.EMPTY)
+                .apply(widgets, List.of());
+    }
+
+    private void visit(int fromZ, long xStop, long yStop, Predicate<Widget> matches, int offset, int limit,
+                       Consumer<Widget> action) {
+        if (limit == 0) {
+            return;
+        }
+
+        int[] skipped = {0};
+        int[] visited = {0};
+        var probe = new Widget();
+        probe.setBoardId(boardId);
+        Predicate<Widget> visitor = wd -> {
+            if (!matches.test(wd)) {
+                return true;
+            }
+            if (skipped[0] < offset) {
+                skipped[0]++;
+                return true;
+            }
+            action.accept(new Widget(wd));
+            return ++visited[0] < limit;
+        };
+
+        if (xStop != PersistentZTree.NO_BOUND && yStop != PersistentZTree.NO_BOUND) {
+            var resumeZ = byZ.scan(fromZ, xStop, yStop, probe, visitor, scanBudget((long) offset + limit));
+            if (resumeZ != null) {
+                PersistentGrid.scan(grid.cellsBelow((int) xStop, (int) yStop), resumeZ, xStop, yStop, probe, visitor);
+            }
+            return;
+        }
+        byZ.scan(fromZ, xStop, yStop, probe, visitor);
+    }
+
+    /**
+     * Widgets outside the region a z-ordered scan may step over before the query moves to
+     * the grid: enough for regions holding about one in SCAN_BUDGET_PER_WIDGET widgets,
+     * where the scan is cheaper than setting up the cells, and never more than a fraction
+     * of the store.
+     */
+    private int scanBudget(long wanted) {
+        var cap = Math.max(size() / 8, MIN_SCAN_BUDGET);
+        return (int) Math.min(SCAN_BUDGET_PER_WIDGET * Math.min(wanted, cap) + MIN_SCAN_BUDGET, cap);
+    }
+
+    private int capacity(int limit) {
+        return Math.max(Math.min(limit, size()), 0);
+    }
+
+    private Widget onBoard(Widget widget) {
+        if (widget != null) {
+            widget.setBoardId(boardId);
+        }
+        return widget;
+    }
+}
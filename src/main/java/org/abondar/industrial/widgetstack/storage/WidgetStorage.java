@@ -0,0 +1,67 @@
+package org.abondar.industrial.widgetstack.storage;
+
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetId;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * In-memory widget store: widgets by id plus a z-ordered index over them. Region queries
+ * are answered by the {@link WidgetSnapshot} built from the store, not by the store itself.
+ * Not thread safe: callers keep the structures consistent under their own lock, concurrent
+ * readers are fine as long as no writer is active.
+ * <p>
+ * Engines may hand out the stored objects or copies, so callers change widgets only
+ * through {@link #put(Widget)}. A storage holds the widgets of one board and need not keep
+ * the board of a widget, so widgets handed out may name the default board.
+ */
+public interface WidgetStorage {
+
+    Widget get(WidgetId id);
+
+    /**
+     * Stores the widget, replacing the one with the same id. The z-index must be free
+     * or held by that same widget.
+     */
+    void put(Widget widget);
+
+    Widget remove(WidgetId id);
+
+    Widget getByZIndex(int zIndex);
+
+    Widget top();
+
+    /**
+     * Frees z for a new widget by incrementing the z-index of the widgets occupying
+     * z, z + 1, ... up to the first gap. Costs O(log n) plus the length of that run.
+     *
+     * @return widgets whose z-index changed, with their new z-index
+     * @throws org.abondar.industrial.widgetstack.exception.ZIndexOverflowException if the run
+     *         reaches Integer.MAX_VALUE; the store is left unchanged
+     */
+    List<Widget> shiftFrom(int z);
+
+    List<Widget> page(int offset, int limit);
+
+    /**
+     * Range seek for keyset paging: up to limit widgets with z-index greater than z.
+     */
+    List<Widget> pageAfter(int z, int limit);
+
+    /**
+     * Fills an empty store in bulk. Widgets are sorted by z-index in parallel and the z index
+     * is built in one pass; widgets sharing a z-index are moved up to keep z unique.
+     *
+     * @return widgets whose z-index had to be changed
+     */
+    List<Widget> load(Collection<Widget> loaded);
+
+    Collection<Widget> values();
+
+    int size();
+
+    boolean isEmpty();
+
+    void clear();
+}
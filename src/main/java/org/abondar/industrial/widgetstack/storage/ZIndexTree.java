@@ -0,0 +1,338 @@
+package org.abondar.industrial.widgetstack.storage;
+
+import org.abondar.industrial.widgetstack.exception.ZIndexOverflowException;
+import org.abondar.industrial.widgetstack.model.Widget;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Widgets ordered by z-index. A treap where every node also keeps the size of its subtree,
+ * so a page can be located by rank in O(log n) and then walked in order.
+ * Not thread safe: guarded by the owner's lock.
+ */
+class ZIndexTree {
+
+    private static final class Node {
+        private int key;
+        private Widget value;
+        private int priority;
+        private int size = 1;
+        private Node left;
+        private Node right;
+
+        private Node(int key, Widget value, int priority) {
+            this.key = key;
+            this.value = value;
+            this.priority = priority;
+        }
+    }
+
+    private final SplittableRandom random = new SplittableRandom();
+    private Node root;
+    private Node max;
+
+    int size() {
+        return size(root);
+    }
+
+    Widget get(int z) {
+        var node = root;
+        while (node != null) {
+            if (z < node.key) {
+                node = node.left;
+            } else if (z > node.key) {
+                node = node.right;
+            } else {
+                return node.value;
+            }
+        }
+        return null;
+    }
+
+    Widget last() {
+        return max == null ? null : max.value;
+    }
+
+    void put(int z, Widget widget) {
+        root = insert(root, z, widget);
+        if (max == null || max.key <= z) {
+            max = rightmost(root);
+        }
+    }
+
+    Widget remove(int z) {
+        var found = get(z);
+        if (found != null) {
+            root = delete(root, z);
+            if (max.key == z) {
+                max = rightmost(root);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Makes room at z by moving up the run of consecutive keys starting at z. The key right
+     * above the run is free, so bumping the run by one keeps the search order intact and the
+     * keys are rewritten in place. Widgets above the first gap are left alone. The cost is
+     * O(log n + run): in a dense stack the run is everything above z.
+     *
+     * @throws ZIndexOverflowException if the run ends at Integer.MAX_VALUE, nothing is moved then
+     */
+    List<Widget> shiftRun(int z) {
+        var it = iterator(startFrom(z));
+        List<Node> run = new ArrayList<>();
+        var expected = z;
+        while (it.hasNext()) {
+            var node = it.next();
+            if (node.key != expected) {
+                break;
+            }
+            run.add(node);
+            if (expected == Integer.MAX_VALUE) {
+                throw new ZIndexOverflowException();
+            }
+            expected++;
+        }
+
+        List<Widget> shifted = new ArrayList<>(run.size());
+        for (var node : run) {
+            node.key++;
+            node.value.setZIndex(node.key);
+            shifted.add(node.value);
+        }
+        return shifted;
+    }
+
+    List<Widget> page(int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Offset and limit must not be negative");
+        }
+
+        var res = new ArrayList<Widget>(Math.min(limit, Math.max(size() - offset, 0)));
+        var it = iterator(startAt(offset));
+        while (it.hasNext() && res.size() < limit) {
+            res.add(it.next().value);
+        }
+        return res;
+    }
+
+    /**
+     * Range seek for keyset paging: up to limit widgets with z-index greater than z.
+     */
+    List<Widget> pageAfter(int z, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit must not be negative");
+        }
+        if (z == Integer.MAX_VALUE) {
+            return List.of();
+        }
+
+        var res = new ArrayList<Widget>(Math.min(limit, size()));
+        var it = iterator(startFrom(z + 1));
+        while (it.hasNext() && res.size() < limit) {
+            res.add(it.next().value);
+        }
+        return res;
+    }
+
+    void clear() {
+        root = null;
+        max = null;
+    }
+
+    /**
+     * Replaces the content with widgets already sorted by unique z-index in O(n): a balanced
+     * tree is built from the sorted keys and random priorities, sorted in parallel, are handed
+     * out level by level so the heap order holds and later inserts keep the usual balance.
+     */
+    void build(List<Widget> sorted) {
+        root = build(sorted, 0, sorted.size() - 1);
+        max = rightmost(root);
+        if (root == null) {
+            return;
+        }
+
+        var priorities = random.ints(sorted.size()).toArray();
+        Arrays.parallelSort(priorities);
+
+        var next = priorities.length - 1;
+        Deque<Node> level = new ArrayDeque<>();
+        level.add(root);
+        while (!level.isEmpty()) {
+            var node = level.poll();
+            node.priority = priorities[next--];
+            if (node.left != null) {
+                level.add(node.left);
+            }
+            if (node.right != null) {
+                level.add(node.right);
+            }
+        }
+    }
+
+    private Node build(List<Widget> sorted, int from, int to) {
+        if (from > to) {
+            return null;
+        }
+
+        var mid = (from + to) >>> 1;
+        var widget = sorted.get(mid);
+        var node = new Node(widget.getZIndex(), widget, 0);
+        node.left = build(sorted, from, mid - 1);
+        node.right = build(sorted, mid + 1, to);
+        update(node);
+        return node;
+    }
+
+    private Deque<Node> startAt(int rank) {
+        Deque<Node> path = new ArrayDeque<>();
+        var node = root;
+        while (node != null) {
+            var leftSize = size(node.left);
+            if (rank < leftSize) {
+                path.push(node);
+                node = node.left;
+            } else if (rank == leftSize) {
+                path.push(node);
+                break;
+            } else {
+                rank -= leftSize + 1;
+                node = node.right;
+            }
+        }
+        return path;
+    }
+
+    private Deque<Node> startFrom(int z) {
+        Deque<Node> path = new ArrayDeque<>();
+        var node = root;
+        while (node != null) {
+            if (z <= node.key) {
+                path.push(node);
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return path;
+    }
+
+    private Iterator<Node> iterator(Deque<Node> path) {
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !path.isEmpty();
+            }
+
+            @Override
+            public Node next() {
+                var node = path.pop();
+                var next = node.right;
+                while (next != null) {
+                    path.push(next);
+                    next = next.left;
+                }
+                return node;
+            }
+        };
+    }
+
+    private Node insert(Node node, int z, Widget widget) {
+        if (node == null) {
+            return new Node(z, widget, random.nextInt());
+        }
+
+        if (z == node.key) {
+            node.value = widget;
+            return node;
+        }
+
+        if (z < node.key) {
+            node.left = insert(node.left, z, widget);
+            if (node.left.priority > node.priority) {
+                node = rotateRight(node);
+            }
+        } else {
+            node.right = insert(node.right, z, widget);
+            if (node.right.priority > node.priority) {
+                node = rotateLeft(node);
+            }
+        }
+        update(node);
+        return node;
+    }
+
+    private Node delete(Node node, int z) {
+        if (z < node.key) {
+            node.left = delete(node.left, z);
+        } else if (z > node.key) {
+            node.right = delete(node.right, z);
+        } else {
+            return merge(node.left, node.right);
+        }
+        update(node);
+        return node;
+    }
+
+    private Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            update(left);
+            return left;
+        }
+
+        right.left = merge(left, right.left);
+        update(right);
+        return right;
+    }
+
+    private Node rotateRight(Node node) {
+        var pivot = node.left;
+        node.left = pivot.right;
+        pivot.right = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private Node rotateLeft(Node node) {
+        var pivot = node.right;
+        node.right = pivot.left;
+        pivot.left = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private static Node rightmost(Node node) {
+        if (node == null) {
+            return null;
+        }
+        while (node.right != null) {
+            node = node.right;
+        }
+        return node;
+    }
+
+    private static void update(Node node) {
+        node.size = 1 + size(node.left) + size(node.right);
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+}
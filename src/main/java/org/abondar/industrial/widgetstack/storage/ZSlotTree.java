@@ -0,0 +1,373 @@
+package org.abondar.industrial.widgetstack.storage;
+
+import org.abondar.industrial.widgetstack.exception.ZIndexOverflowException;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Slots ordered by their z column: the same size-augmented treap as {@link ZIndexTree}, but
+ * a node is just a slot number and its links live in int arrays, so the index adds no
+ * objects per widget. The key is read from the columns, shifting a run rewrites it there.
+ * Not thread safe: guarded by the owner's lock.
+ */
+class ZSlotTree {
+
+    static final int NIL = -1;
+
+    private final WidgetColumns columns;
+    private final SplittableRandom random = new SplittableRandom();
+
+    private int[] left;
+    private int[] right;
+    private int[] size;
+    private int[] priority;
+
+    private int root = NIL;
+    private int max = NIL;
+
+    ZSlotTree(WidgetColumns columns, int capacity) {
+        this.columns = columns;
+        this.left = new int[capacity];
+        this.right = new int[capacity];
+        this.size = new int[capacity];
+        this.priority = new int[capacity];
+    }
+
+    void grow(int capacity) {
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        size = Arrays.copyOf(size, capacity);
+        priority = Arrays.copyOf(priority, capacity);
+    }
+
+    int size() {
+        return size(root);
+    }
+
+    int get(int z) {
+        var node = root;
+        while (node != NIL) {
+            var key = key(node);
+            if (z < key) {
+                node = left[node];
+            } else if (z > key) {
+                node = right[node];
+            } else {
+                return node;
+            }
+        }
+        return NIL;
+    }
+
+    int last() {
+        return max;
+    }
+
+    /**
+     * Adds slot under the z-index currently in its column. A slot already holding that
+     * z-index is replaced and drops out of the index.
+     */
+    void insert(int slot) {
+        var z = key(slot);
+        left[slot] = NIL;
+        right[slot] = NIL;
+        size[slot] = 1;
+        priority[slot] = random.nextInt();
+
+        root = insert(root, slot, z);
+        if (max == NIL || key(max) <= z) {
+            max = rightmost(root);
+        }
+    }
+
+    void remove(int slot) {
+        var z = key(slot);
+        if (get(z) != slot) {
+            return;
+        }
+
+        root = delete(root, z);
+        if (max == slot) {
+            max = rightmost(root);
+        }
+    }
+
+    /**
+     * Makes room at z by moving up the run of consecutive keys starting at z, see
+     * {@link ZIndexTree#shiftRun(int)}.
+     *
+     * @return slots whose z-index changed
+     * @throws ZIndexOverflowException if the run ends at Integer.MAX_VALUE, nothing is moved then
+     */
+    int[] shiftRun(int z) {
+        var run = new int[16];
+        var count = 0;
+
+        var path = startFrom(z);
+        var expected = z;
+        while (!path.isEmpty()) {
+            var node = path.next();
+            if (key(node) != expected) {
+                break;
+            }
+            if (count == run.length) {
+                run = Arrays.copyOf(run, count * 2);
+            }
+            run[count++] = node;
+            if (expected == Integer.MAX_VALUE) {
+                throw new ZIndexOverflowException();
+            }
+            expected++;
+        }
+
+        for (int i = 0; i < count; i++) {
+            columns.setInt(WidgetColumns.Z, run[i], key(run[i]) + 1);
+        }
+        return Arrays.copyOf(run, count);
+    }
+
+    int[] page(int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Offset and limit must not be negative");
+        }
+
+        return collect(startAt(offset), Math.min(limit, Math.max(size() - offset, 0)));
+    }
+
+    int[] pageAfter(int z, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit must not be negative");
+        }
+        if (z == Integer.MAX_VALUE) {
+            return new int[0];
+        }
+
+        return collect(startFrom(z + 1), Math.min(limit, size()));
+    }
+
+    /**
+     * Replaces the content with slots already sorted by unique z-index, as
+     * {@link ZIndexTree#build(java.util.List)} does.
+     */
+    void build(int[] sorted, int count) {
+        root = build(sorted, 0, count - 1);
+        max = rightmost(root);
+        if (root == NIL) {
+            return;
+        }
+
+        var priorities = random.ints(count).toArray();
+        Arrays.parallelSort(priorities);
+
+        var next = count - 1;
+        var level = new int[count];
+        int head = 0;
+        int tail = 0;
+        level[tail++] = root;
+        while (head < tail) {
+            var node = level[head++];
+            priority[node] = priorities[next--];
+            if (left[node] != NIL) {
+                level[tail++] = left[node];
+            }
+            if (right[node] != NIL) {
+                level[tail++] = right[node];
+            }
+        }
+    }
+
+    void clear() {
+        root = NIL;
+        max = NIL;
+    }
+
+    private int build(int[] sorted, int from, int to) {
+        if (from > to) {
+            return NIL;
+        }
+
+        var mid = (from + to) >>> 1;
+        var node = sorted[mid];
+        left[node] = build(sorted, from, mid - 1);
+        right[node] = build(sorted, mid + 1, to);
+        update(node);
+        return node;
+    }
+
+    private int[] collect(Path path, int limit) {
+        var res = new int[limit];
+        var count = 0;
+        while (!path.isEmpty() && count < limit) {
+            res[count++] = path.next();
+        }
+        return count == limit ? res : Arrays.copyOf(res, count);
+    }
+
+    private Path startAt(int rank) {
+        var path = new Path();
+        var node = root;
+        while (node != NIL) {
+            var leftSize = size(left[node]);
+            if (rank < leftSize) {
+                path.push(node);
+                node = left[node];
+            } else if (rank == leftSize) {
+                path.push(node);
+                break;
+            } else {
+                rank -= leftSize + 1;
+                node = right[node];
+            }
+        }
+        return path;
+    }
+
+    private Path startFrom(int z) {
+        var path = new Path();
+        var node = root;
+        while (node != NIL) {
+            if (z <= key(node)) {
+                path.push(node);
+                node = left[node];
+            } else {
+                node = right[node];
+            }
+        }
+        return path;
+    }
+
+    /**
+     * In-order iteration stack of slots, the primitive counterpart of the iterator in
+     * {@link ZIndexTree}.
+     */
+    private final class Path {
+        private int[] nodes = new int[64];
+        private int top;
+
+        private boolean isEmpty() {
+            return top == 0;
+        }
+
+        private void push(int node) {
+            if (top == nodes.length) {
+                nodes = Arrays.copyOf(nodes, top * 2);
+            }
+            nodes[top++] = node;
+        }
+
+        private int next() {
+            var node = nodes[--top];
+            var child = right[node];
+            while (child != NIL) {
+                push(child);
+                child = left[child];
+            }
+            return node;
+        }
+    }
+
+    private int insert(int node, int slot, int z) {
+        if (node == NIL) {
+            return slot;
+        }
+
+        var key = key(node);
+        if (z == key) {
+            left[slot] = left[node];
+            right[slot] = right[node];
+            priority[slot] = priority[node];
+            size[slot] = size[node];
+            if (max == node) {
+                max = slot;
+            }
+            return slot;
+        }
+
+        if (z < key) {
+            left[node] = insert(left[node], slot, z);
+            if (priority[left[node]] > priority[node]) {
+                node = rotateRight(node);
+            }
+        } else {
+            right[node] = insert(right[node], slot, z);
+            if (priority[right[node]] > priority[node]) {
+                node = rotateLeft(node);
+            }
+        }
+        update(node);
+        return node;
+    }
+
+    private int delete(int node, int z) {
+        var key = key(node);
+        if (z < key) {
+            left[node] = delete(left[node], z);
+        } else if (z > key) {
+            right[node] = delete(right[node], z);
+        } else {
+            return merge(left[node], right[node]);
+        }
+        update(node);
+        return node;
+    }
+
+    private int merge(int l, int r) {
+        if (l == NIL) {
+            return r;
+        }
+        if (r == NIL) {
+            return l;
+        }
+
+        if (priority[l] > priority[r]) {
+            right[l] = merge(right[l], r);
+            update(l);
+            return l;
+        }
+
+        left[r] = merge(l, left[r]);
+        update(r);
+        return r;
+    }
+
+    private int rotateRight(int node) {
+        var pivot = left[node];
+        left[node] = right[pivot];
+        right[pivot] = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private int rotateLeft(int node) {
+        var pivot = right[node];
+        right[node] = left[pivot];
+        left[pivot] = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private int rightmost(int node) {
+        if (node == NIL) {
+            return NIL;
+        }
+        while (right[node] != NIL) {
+            node = right[node];
+        }
+        return node;
+    }
+
+    private void update(int node) {
+        size[node] = 1 + size(left[node]) + size(right[node]);
+    }
+
+    private int size(int node) {
+        return node == NIL ? 0 : size[node];
+    }
+
+    private int key(int slot) {
+        return columns.getInt(WidgetColumns.Z, slot);
+    }
+}
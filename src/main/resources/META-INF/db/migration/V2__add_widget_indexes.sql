@@ -0,0 +1,5 @@
+ALTER TABLE widget ADD CONSTRAINT pk_widget PRIMARY KEY (id);
+
+CREATE INDEX IF NOT EXISTS idx_widget_z_index ON widget (z_index);
+CREATE INDEX IF NOT EXISTS idx_widget_x_coord ON widget (x_coord, z_index);
+CREATE INDEX IF NOT EXISTS idx_widget_y_coord ON widget (y_coord, z_index);
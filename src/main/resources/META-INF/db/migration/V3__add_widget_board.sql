@@ -0,0 +1,8 @@
+ALTER TABLE widget ADD COLUMN IF NOT EXISTS board_id VARCHAR(64) DEFAULT 'default' NOT NULL;
+
+CREATE INDEX IF NOT EXISTS idx_widget_board_z_index ON widget (board_id, z_index);
+
+DROP INDEX IF EXISTS idx_widget_x_coord;
+DROP INDEX IF EXISTS idx_widget_y_coord;
+CREATE INDEX IF NOT EXISTS idx_widget_board_x_coord ON widget (board_id, x_coord, z_index);
+CREATE INDEX IF NOT EXISTS idx_widget_board_y_coord ON widget (board_id, y_coord, z_index);
@@ -0,0 +1,72 @@
+package org.abondar.industrial.widgetstack.admission;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.abondar.industrial.widgetstack.persistence.WidgetPersistence;
+import org.abondar.industrial.widgetstack.service.WidgetBoards;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AdmissionControllerTest {
+
+    private WidgetBoards boards;
+    private WidgetPersistence persistence;
+    private SimpleMeterRegistry registry;
+    private AdmissionController admission;
+
+    @BeforeEach
+    public void setUp() {
+        boards = mock(WidgetBoards.class);
+        persistence = mock(WidgetPersistence.class);
+        registry = new SimpleMeterRegistry();
+        admission = new AdmissionController(boards, persistence, registry,
+                1000, 2, 1, 2, 0, 100_000, 250, 4, 100, 0.25, 1000);
+    }
+
+    @Test
+    public void testShedPerClientAndClass() {
+        assertTrue(admission.admit("a", RequestClass.WRITE).isAdmitted());
+        assertTrue(admission.admit("a", RequestClass.WRITE).isAdmitted());
+
+        var shed = admission.admit("a", RequestClass.WRITE);
+        assertFalse(shed.isAdmitted());
+        assertTrue(shed.getWait() > 0);
+
+        assertTrue(admission.admit("b", RequestClass.WRITE).isAdmitted());
+        assertTrue(admission.admit("a", RequestClass.READ).isAdmitted());
+
+        assertEquals(1, registry.get("widget.admission").tag("class", "write").tag("decision", "shed")
+                .counter().count());
+        assertEquals(3, registry.get("widget.admission").tag("class", "write").tag("decision", "admitted")
+                .counter().count());
+    }
+
+    @Test
+    public void testWriteFactorFollowsLockQueue() {
+        when(boards.getLockQueueLength()).thenReturn(10);
+        admission.adjust();
+        assertEquals(0.5, admission.getFactor(RequestClass.WRITE));
+        admission.adjust();
+        admission.adjust();
+        assertEquals(0.25, admission.getFactor(RequestClass.WRITE));
+        assertEquals(1, admission.getFactor(RequestClass.READ));
+
+        when(boards.getLockQueueLength()).thenReturn(0);
+        admission.adjust();
+        assertEquals(0.35, admission.getFactor(RequestClass.WRITE), 1e-9);
+        assertEquals(0.35, registry.get("widget.admission.factor").tag("class", "write").gauge().value(), 1e-9);
+    }
+
+    @Test
+    public void testWriteFactorFollowsPendingWrites() {
+        when(persistence.pending()).thenReturn(500);
+        admission.adjust();
+
+        assertEquals(0.5, admission.getFactor(RequestClass.WRITE));
+    }
+}
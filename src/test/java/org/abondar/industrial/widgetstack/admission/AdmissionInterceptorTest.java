@@ -0,0 +1,82 @@
+package org.abondar.industrial.widgetstack.admission;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.abondar.industrial.widgetstack.cluster.ClusterNode;
+import org.abondar.industrial.widgetstack.cluster.ForwardingInterceptor;
+import org.abondar.industrial.widgetstack.persistence.WidgetPersistence;
+import org.abondar.industrial.widgetstack.service.WidgetBoards;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class AdmissionInterceptorTest {
+
+    private SimpleMeterRegistry registry;
+    private AdmissionInterceptor interceptor;
+
+    @BeforeEach
+    public void setUp() {
+        registry = new SimpleMeterRegistry();
+        var admission = new AdmissionController(mock(WidgetBoards.class), mock(WidgetPersistence.class), registry,
+                1000, 100, 1000, 100, 0, 100_000, 250, 4, 100, 0.25, 1000);
+        var cluster = new ClusterNode(mock(WidgetBoards.class), new ObjectMapper(), true, 0,
+                new String[]{"http://127.0.0.1:8024", "http://10.1.2.3:8024"}, 200, 1000, 50, 2000);
+        interceptor = new AdmissionInterceptor(admission, cluster);
+    }
+
+    @Test
+    public void testClientIdFromPeersOnly() {
+        var request = new MockHttpServletRequest("POST", "/widget");
+        request.setRemoteAddr("10.9.9.9");
+        request.addHeader(AdmissionInterceptor.CLIENT_HEADER, "spoofed");
+        request.addHeader(ForwardingInterceptor.FORWARDED_HEADER, "1");
+        assertEquals("10.9.9.9", interceptor.client(request));
+
+        request.setRemoteAddr("10.1.2.3");
+        assertEquals("spoofed", interceptor.client(request));
+
+        request.removeHeader(ForwardingInterceptor.FORWARDED_HEADER);
+        assertEquals("10.1.2.3", interceptor.client(request));
+    }
+
+    @Test
+    public void testStreamedLatencyNotRecorded() throws Exception {
+        handle("changes");
+        assertEquals(0, latencyCount());
+
+        handle("get");
+        assertEquals(1, latencyCount());
+    }
+
+    private void handle(String method) throws Exception {
+        var handler = new HandlerMethod(new Handlers(), method);
+        var request = new MockHttpServletRequest("GET", "/widget");
+        var response = new MockHttpServletResponse();
+
+        assertTrue(interceptor.preHandle(request, response, handler));
+        interceptor.afterCompletion(request, response, handler, null);
+    }
+
+    private long latencyCount() {
+        return registry.get("widget.admission.latency").tag("class", "read").timer().count();
+    }
+
+    private static final class Handlers {
+
+        public SseEmitter changes() {
+            return new SseEmitter();
+        }
+
+        public String get() {
+            return "";
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.abondar.industrial.widgetstack.admission;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testBurstThenRate() {
+        var bucket = new TokenBucket();
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, bucket.reserve(0, SECOND, 3, 0));
+        }
+        assertEquals(SECOND, bucket.reserve(0, SECOND, 3, 0));
+
+        assertEquals(0, bucket.reserve(SECOND, SECOND, 3, 0));
+        assertEquals(SECOND, bucket.reserve(SECOND, SECOND, 3, 0));
+    }
+
+    @Test
+    public void testQueueWithinDelay() {
+        var bucket = new TokenBucket();
+
+        assertEquals(0, bucket.reserve(0, SECOND, 1, SECOND));
+        assertEquals(SECOND, bucket.reserve(0, SECOND, 1, SECOND));
+        assertEquals(2 * SECOND, bucket.reserve(0, SECOND, 1, SECOND));
+        assertEquals(SECOND, bucket.reserve(SECOND, SECOND, 1, SECOND));
+    }
+
+    @Test
+    public void testConcurrentReserve() throws Exception {
+        var bucket = new TokenBucket();
+        var admitted = new AtomicInteger();
+        var start = new CountDownLatch(1);
+        var pool = Executors.newFixedThreadPool(8);
+
+        for (int t = 0; t < 8; t++) {
+            pool.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                for (int i = 0; i < 1000; i++) {
+                    if (bucket.reserve(0, SECOND, 100, 0) == 0) {
+                        admitted.incrementAndGet();
+                    }
+                }
+            });
+        }
+
+        start.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(100, admitted.get());
+    }
+}
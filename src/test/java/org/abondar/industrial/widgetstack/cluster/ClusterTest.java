@@ -0,0 +1,205 @@
+package org.abondar.industrial.widgetstack.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.abondar.industrial.widgetstack.WidgetStackApplication;
+import org.abondar.industrial.widgetstack.exception.InvalidBoardException;
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetId;
+import org.abondar.industrial.widgetstack.service.WidgetBoards;
+import org.abondar.industrial.widgetstack.service.WidgetService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Three nodes on loopback ports: writes sent to any node, on any board, end up on all of
+ * them with the z-indexes the leader assigned, and when the leader goes away a follower
+ * takes over.
+ */
+public class ClusterTest {
+
+    private static final int NODES = 3;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final List<ConfigurableApplicationContext> contexts = new ArrayList<>();
+
+    private String[] urls;
+
+    @AfterEach
+    public void tearDown() {
+        contexts.stream()
+                .filter(ConfigurableApplicationContext::isActive)
+                .forEach(ConfigurableApplicationContext::close);
+    }
+
+    @Test
+    public void testReplicationAndFailover() throws Exception {
+        urls = new String[NODES];
+        for (int i = 0; i < NODES; i++) {
+            urls[i] = "http://localhost:" + freePort();
+        }
+        for (int i = 0; i < NODES; i++) {
+            contexts.add(start(i));
+        }
+
+        await(() -> leaderOf(0) == 0 && leaderOf(1) == 0 && leaderOf(2) == 0);
+
+        var first = create(1, 1);
+        var second = create(2, 1);
+        var third = create(0, 1);
+        assertEquals(1, third.getZIndex());
+
+        await(() -> converged(0, 1, 2));
+        var widgets = byId(service(1).snapshot(() -> { }));
+        assertEquals(3, widgets.get(first.getId()).getZIndex());
+        assertEquals(2, widgets.get(second.getId()).getZIndex());
+        assertUniqueZ(1);
+
+        var deleted = send(2, HttpRequest.newBuilder(URI.create(urls[2] + "/widget/" + first.getId()))
+                .DELETE());
+        assertEquals(200, deleted.statusCode());
+        assertNull(service(2).getById(first.getId(), false));
+        await(() -> converged(0, 1, 2));
+
+        var onBoard = create(1, "/board/team/widget", 5);
+        await(() -> board(0).getById(onBoard.getId(), false) != null
+                && board(2).getById(onBoard.getId(), false) != null);
+        assertEquals(5, board(2).getById(onBoard.getId(), false).getZIndex());
+        assertNull(service(2).getById(onBoard.getId(), false));
+        var boardRead = send(2, HttpRequest.newBuilder(URI.create(urls[2] + "/board/team/widget/" + onBoard.getId()))
+                .header("Accept", "application/json")
+                .header("db", "false"));
+        assertEquals(200, boardRead.statusCode());
+        assertEquals(onBoard.getId(), mapper.readValue(boardRead.body(), Widget.class).getId());
+
+        contexts.get(0).close();
+        await(() -> leaderOf(1) == 1 && leaderOf(2) == 1);
+
+        var fourth = create(2, 1);
+        assertEquals(1, fourth.getZIndex());
+        await(() -> converged(1, 2));
+        assertNotNull(service(1).getById(fourth.getId(), false));
+        assertUniqueZ(2);
+        assertEquals(byId(service(1).snapshot(() -> { })).keySet(),
+                byId(service(2).snapshot(() -> { })).keySet());
+        assertNotNull(board(1).getById(onBoard.getId(), false));
+    }
+
+    private ConfigurableApplicationContext start(int node) {
+        return new SpringApplicationBuilder(WidgetStackApplication.class)
+                .run("--server.port=" + URI.create(urls[node]).getPort(),
+                        "--cluster.enabled=true",
+                        "--cluster.node-id=" + node,
+                        "--cluster.nodes=" + String.join(",", urls),
+                        "--cluster.heartbeat=100",
+                        "--cluster.election-timeout=600",
+                        "--cluster.poll-interval=20",
+                        "--admission.enabled=false",
+                        "--db-store=false",
+                        "--spring.datasource.url=jdbc:h2:mem:node-" + node + "-" + UUID.randomUUID(),
+                        "--spring.h2.console.enabled=false",
+                        "--spring.main.banner-mode=off");
+    }
+
+    private Widget create(int node, int z) throws Exception {
+        return create(node, "/widget", z);
+    }
+
+    private Widget create(int node, String path, int z) throws Exception {
+        var body = mapper.writeValueAsString(new Widget(node, node, z, 1, 1));
+        var response = send(node, HttpRequest.newBuilder(URI.create(urls[node] + path))
+                .header("Content-Type", "application/json")
+                .header("Accept", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body)));
+        assertEquals(200, response.statusCode(), response.body());
+
+        var widget = mapper.readValue(response.body(), Widget.class);
+        var boardId = path.startsWith("/board/") ? path.split("/")[2] : null;
+        assertNotNull(contexts.get(node).getBean(WidgetBoards.class).find(boardId).getById(widget.getId(), false),
+                "Write not readable on the node it was sent to");
+        return widget;
+    }
+
+    private HttpResponse<String> send(int node, HttpRequest.Builder request) throws Exception {
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private int leaderOf(int node) {
+        var cluster = contexts.get(node).getBean(ClusterNode.class);
+        return cluster.status().getLeader();
+    }
+
+    private WidgetService service(int node) {
+        return contexts.get(node).getBean(WidgetService.class);
+    }
+
+    private WidgetService board(int node) {
+        try {
+            return contexts.get(node).getBean(WidgetBoards.class).find("team");
+        } catch (InvalidBoardException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private boolean converged(int... nodes) {
+        var expected = byId(service(nodes[0]).snapshot(() -> { }));
+        for (var node : nodes) {
+            var widgets = byId(service(node).snapshot(() -> { }));
+            if (!widgets.keySet().equals(expected.keySet())) {
+                return false;
+            }
+            for (var entry : widgets.entrySet()) {
+                if (!entry.getValue().getZIndex().equals(expected.get(entry.getKey()).getZIndex())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void assertUniqueZ(int node) {
+        Set<Integer> zs = new HashSet<>();
+        service(node).snapshot(() -> { })
+                .forEach(wd -> assertTrue(zs.add(wd.getZIndex()), "Duplicate z-index " + wd.getZIndex()));
+    }
+
+    private static Map<WidgetId, Widget> byId(List<Widget> widgets) {
+        return widgets.stream().collect(Collectors.toMap(Widget::getId, wd -> wd));
+    }
+
+    private static int freePort() throws IOException {
+        try (var socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        var deadline = System.currentTimeMillis() + 20_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Cluster did not get there in time");
+            Thread.sleep(50);
+        }
+    }
+}
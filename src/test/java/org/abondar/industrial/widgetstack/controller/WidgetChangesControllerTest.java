@@ -0,0 +1,178 @@
+package org.abondar.industrial.widgetstack.controller;
+
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.service.WidgetBoards;
+import org.abondar.industrial.widgetstack.service.WidgetService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {"changes.window=10"})
+@ExtendWith({SpringExtension.class})
+@AutoConfigureMockMvc
+public class WidgetChangesControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private WidgetService service;
+
+    @Autowired
+    private WidgetBoards boards;
+
+    @BeforeEach
+    public void setUp() {
+        service.clear();
+    }
+
+    @Test
+    public void testChangesStreamed() throws Exception {
+        var result = mockMvc.perform(get("/widget/changes")
+                .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(status().isOk())
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        var first = service.create(new Widget(1, 1, 1, 1, 1));
+        var second = service.create(new Widget(1, 1, 1, 1, 1));
+
+        var response = result.getResponse();
+        awaitContent(response, "\"z\":2");
+        var content = response.getContentAsString();
+        assertTrue(content.contains("event:changes"));
+        assertTrue(content.contains(first.getId().toString()));
+        assertTrue(content.contains(second.getId().toString()));
+
+        service.clear();
+        awaitContent(response, "event:resync");
+    }
+
+    @Test
+    public void testChangesResumed() throws Exception {
+        var first = service.create(new Widget(1, 1, 1, 1, 1));
+        var lastEventId = WidgetETag.id(service.getStoreVersion());
+        var second = service.create(new Widget(1, 1, 2, 1, 1));
+
+        var result = mockMvc.perform(get("/widget/changes")
+                .header("Last-Event-ID", lastEventId)
+                .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(status().isOk())
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        awaitContent(result.getResponse(), second.getId().toString());
+        var content = result.getResponse().getContentAsString();
+        assertTrue(content.contains("event:changes"));
+        assertTrue(content.contains("id:" + WidgetETag.id(service.getStoreVersion())));
+        assertTrue(!content.contains(first.getId().toString()));
+
+        var stale = mockMvc.perform(get("/widget/changes")
+                .param("since", "1")
+                .param("epoch", "0")
+                .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(status().isOk())
+                .andReturn();
+        awaitContent(stale.getResponse(), "event:resync");
+    }
+
+    @Test
+    public void testDelta() throws Exception {
+        var first = service.create(new Widget(1, 1, 1, 1, 1));
+
+        var etag = mockMvc.perform(get("/widget/many")
+                .header("db", false))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        var tag = etag.substring(3, etag.length() - 1);
+        var epoch = tag.substring(0, tag.lastIndexOf('-'));
+        var since = tag.substring(tag.lastIndexOf('-') + 1);
+
+        var second = service.create(new Widget(1, 1, 1, 1, 1));
+        service.delete(first.getId());
+
+        mockMvc.perform(get("/widget/delta")
+                .param("since", since)
+                .param("epoch", epoch))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, WidgetETag.of(service.getStoreVersion())))
+                .andExpect(jsonPath("$.version", is((int) service.getStoreVersion())))
+                .andExpect(jsonPath("$.resync", is(false)))
+                .andExpect(jsonPath("$.upserts", hasSize(1)))
+                .andExpect(jsonPath("$.upserts[0].id", is(second.getId().toString())))
+                .andExpect(jsonPath("$.deletes", contains(first.getId().toString())));
+
+        mockMvc.perform(get("/widget/delta")
+                .param("since", since)
+                .param("epoch", "0"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.resync", is(true)))
+                .andExpect(jsonPath("$.upserts", hasSize(0)));
+
+        mockMvc.perform(get("/widget/delta")
+                .param("since", String.valueOf(Long.parseLong(since) - 2)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.resync", is(true)));
+    }
+
+    @Test
+    public void testBoardChanges() throws Exception {
+        var board = boards.get("changes-board");
+        var since = board.getStoreVersion();
+        var defaultSince = service.getStoreVersion();
+
+        var result = mockMvc.perform(get("/board/changes-board/widget/changes")
+                .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(status().isOk())
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        var widget = board.create(new Widget(1, 1, 1, 1, 1));
+        awaitContent(result.getResponse(), widget.getId().toString());
+        assertTrue(result.getResponse().getContentAsString().contains("\"board\":\"changes-board\""));
+
+        mockMvc.perform(get("/board/changes-board/widget/delta")
+                .param("since", String.valueOf(since)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.board", is("changes-board")))
+                .andExpect(jsonPath("$.version", is((int) board.getStoreVersion())))
+                .andExpect(jsonPath("$.upserts", hasSize(1)))
+                .andExpect(jsonPath("$.upserts[0].id", is(widget.getId().toString())));
+
+        mockMvc.perform(get("/widget/delta")
+                .param("since", String.valueOf(defaultSince)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.board", is(Widget.DEFAULT_BOARD)))
+                .andExpect(jsonPath("$.upserts", hasSize(0)));
+
+        mockMvc.perform(get("/board/bad!board/widget/delta")
+                .param("since", "0"))
+                .andExpect(status().isBadRequest());
+    }
+
+    private static void awaitContent(MockHttpServletResponse response, String expected) throws Exception {
+        var deadline = System.currentTimeMillis() + 5000;
+        while (!response.getContentAsString().contains(expected)) {
+            assertTrue(System.currentTimeMillis() < deadline, "No " + expected + " in " + response.getContentAsString());
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.abondar.industrial.widgetstack.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.abondar.industrial.widgetstack.admission.AdmissionInterceptor;
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.service.WidgetService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.RequestPostProcessor;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {"admission.write-rate=0.1", "admission.write-burst=2", "admission.max-delay=0"})
+@ExtendWith({SpringExtension.class})
+@AutoConfigureMockMvc
+public class WidgetControllerAdmissionTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper mapper;
+
+    @Autowired
+    private WidgetService service;
+
+    @BeforeEach
+    public void setUp() {
+        service.clear();
+    }
+
+    @Test
+    public void testWritesShedPerClient() throws Exception {
+        var body = mapper.writeValueAsString(new Widget(1, 1, 1, 1, 1));
+
+        for (int i = 0; i < 2; i++) {
+            mockMvc.perform(post("/widget")
+                    .with(from("10.0.0.1"))
+                    .content(body)
+                    .contentType(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isOk());
+        }
+
+        mockMvc.perform(post("/widget")
+                .with(from("10.0.0.1"))
+                .content(body)
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().exists(HttpHeaders.RETRY_AFTER));
+
+        mockMvc.perform(post("/widget")
+                .with(from("10.0.0.1"))
+                .header(AdmissionInterceptor.CLIENT_HEADER, "spoofed")
+                .content(body)
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isTooManyRequests());
+
+        mockMvc.perform(post("/widget")
+                .with(from("10.0.0.2"))
+                .content(body)
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/widget/many")
+                .with(from("10.0.0.1"))
+                .header("db", "false"))
+                .andExpect(status().isOk());
+    }
+
+    private static RequestPostProcessor from(String address) {
+        return request -> {
+            request.setRemoteAddr(address);
+            return request;
+        };
+    }
+}
@@ -0,0 +1,135 @@
+package org.abondar.industrial.widgetstack.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.abondar.industrial.widgetstack.model.Filter;
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetId;
+import org.abondar.industrial.widgetstack.service.WidgetService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
+
+import java.util.Date;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {"execution.mode=async", "execution.threads=2"})
+@ExtendWith({SpringExtension.class})
+@AutoConfigureMockMvc
+public class WidgetControllerAsyncTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper mapper;
+
+    @Autowired
+    private WidgetService service;
+
+    @Autowired
+    private ThreadPoolExecutor widgetExecutor;
+
+    @BeforeEach
+    public void setUp() {
+        service.clear();
+    }
+
+    @Test
+    public void testCreate() throws Exception {
+        var completed = widgetExecutor.getCompletedTaskCount();
+
+        var body = mapper.writeValueAsString(new Widget(1, 1, 1, 1, 1));
+        offloaded(post("/widget")
+                .content(body)
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.z", is(1)));
+
+        assertEquals(1, service.getStorage().size());
+        assertEquals(completed + 1, widgetExecutor.getCompletedTaskCount());
+    }
+
+    @Test
+    public void testUpdateNotFound() throws Exception {
+        var widget = new Widget(1, 1, 1, 1, 1);
+        widget.setId(WidgetId.random());
+        widget.setLastModified(new Date());
+
+        var body = mapper.writeValueAsString(widget);
+        offloaded(put("/widget/{id}", widget.getId())
+                .content(body)
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void testFindWidgetNotModified() throws Exception {
+        var widget = service.create(new Widget(1, 1, 1, 1, 1));
+
+        var etag = offloaded(get("/widget/" + widget.getId())
+                .header("db", "false"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id", is(widget.getId().toString())))
+                .andReturn()
+                .getResponse()
+                .getHeader(HttpHeaders.ETAG);
+
+        offloaded(get("/widget/" + widget.getId())
+                .header("db", "false")
+                .header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+    }
+
+    @Test
+    public void testFilterNdjsonNotOffloaded() throws Exception {
+        service.create(new Widget(1, 1, 1, 1, 1));
+        var completed = widgetExecutor.getCompletedTaskCount();
+
+        var filter = new Filter();
+        filter.setXStop(10);
+        filter.setYStop(10);
+
+        var result = mockMvc.perform(get("/widget/filter")
+                .header("db", "false")
+                .content(mapper.writeValueAsString(filter))
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().string(startsWith("{")));
+
+        assertEquals(completed, widgetExecutor.getCompletedTaskCount());
+    }
+
+    private ResultActions offloaded(RequestBuilder builder) throws Exception {
+        var result = mockMvc.perform(builder)
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return mockMvc.perform(asyncDispatch(result));
+    }
+}
@@ -1,31 +1,45 @@
 package org.abondar.industrial.widgetstack.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.abondar.industrial.widgetstack.model.BatchOperation;
 import org.abondar.industrial.widgetstack.model.Filter;
 import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetId;
 import org.abondar.industrial.widgetstack.repository.WidgetRepository;
+import org.abondar.industrial.widgetstack.service.WidgetBoards;
+import org.abondar.industrial.widgetstack.service.WidgetService;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
 
 
 import java.util.Date;
+import java.util.List;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.hamcrest.Matchers.any;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @SpringBootTest
@@ -43,6 +57,20 @@ public class WidgetControllerTest {
     @Autowired
     private WidgetRepository repository;
 
+    @Autowired
+    private WidgetService service;
+
+    @Autowired
+    private WidgetBoards boards;
+
+    @Autowired
+    private MappingJackson2CborHttpMessageConverter cborConverter;
+
+    @BeforeEach
+    public void setUp() {
+        service.clear();
+    }
+
     @Test
     public void testCreate() throws Exception {
         repository.deleteAll();
@@ -92,12 +120,12 @@ public class WidgetControllerTest {
         repository.deleteAll();
 
         var widget = new Widget(1, 1, 1, 1, 1);
-        widget.setId("test");
+        widget.setId(WidgetId.random());
         widget.setLastModified(new Date());
 
         var body = mapper.writeValueAsString(widget);
 
-        mockMvc.perform(put("/widget/{id}","test")
+        mockMvc.perform(put("/widget/{id}",widget.getId().toString())
                 .content(body)
                 .contentType(MediaType.APPLICATION_JSON))
                 .andExpect(status().isNotFound());
@@ -146,14 +174,13 @@ public class WidgetControllerTest {
                 .header("db","true")
                 .contentType(MediaType.APPLICATION_JSON))
                 .andExpect(status().isOk())
-                .andExpect(jsonPath("$.id", is(widget.getId())));
+                .andExpect(jsonPath("$.id", is(widget.getId().toString())));
     }
 
 
     @Test
     public void testFindMany() throws Exception {
         repository.deleteAll();
-        Thread.sleep(5000);
 
         var widget = new Widget(1, 1, 1, 1, 1);
         var body = mapper.writeValueAsString(widget);
@@ -179,7 +206,6 @@ public class WidgetControllerTest {
     @Test
     public void testFindManyDefaultLimit() throws Exception {
         repository.deleteAll();
-        Thread.sleep(5000);
 
         var widget = new Widget(1, 1, 1, 1, 1);
         var body = mapper.writeValueAsString(widget);
@@ -205,7 +231,6 @@ public class WidgetControllerTest {
     @Test
     public void testFindFiltered() throws Exception {
         repository.deleteAll();
-        Thread.sleep(5000);
 
         var widget = new Widget(50, 50, 1, 100, 100);
         var body = mapper.writeValueAsString(widget);
@@ -231,6 +256,48 @@ public class WidgetControllerTest {
                 .andExpect(jsonPath("$",hasSize(1)));
     }
 
+    @Test
+    public void testFindManyCursor() throws Exception {
+        repository.deleteAll();
+
+        for (int z = 1; z <= 3; z++) {
+            var body = mapper.writeValueAsString(new Widget(1, 1, z, 1, 1));
+            mockMvc.perform(post("/widget")
+                    .content(body)
+                    .contentType(MediaType.APPLICATION_JSON));
+        }
+
+        var cursor = mockMvc.perform(get("/widget/many")
+                .queryParam("limit","2")
+                .header("db","false")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$",hasSize(2)))
+                .andExpect(header().exists("X-Next-Cursor"))
+                .andReturn()
+                .getResponse()
+                .getHeader("X-Next-Cursor");
+
+        mockMvc.perform(get("/widget/many")
+                .queryParam("limit","2")
+                .queryParam("cursor", cursor)
+                .header("db","false")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$",hasSize(1)))
+                .andExpect(jsonPath("$[0].z",is(3)))
+                .andExpect(header().doesNotExist("X-Next-Cursor"));
+    }
+
+    @Test
+    public void testFindManyBadCursor() throws Exception {
+        mockMvc.perform(get("/widget/many")
+                .queryParam("cursor","???")
+                .header("db","false")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     public void testFindManyBigLimit() throws Exception {
         repository.deleteAll();
@@ -243,6 +310,245 @@ public class WidgetControllerTest {
                 .andExpect(status().isBadRequest());
     }
 
+    @Test
+    public void testFindManyNdjson() throws Exception {
+        repository.deleteAll();
+
+        for (int z = 0; z < 600; z++) {
+            service.create(new Widget(1, 1, z, 1, 1));
+        }
+
+        var result = mockMvc.perform(get("/widget/many")
+                .queryParam("offset", "100")
+                .header("db", "false")
+                .accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        var lines = mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andReturn()
+                .getResponse()
+                .getContentAsString()
+                .split("\n");
+
+        assertEquals(500, lines.length);
+        assertEquals(100, mapper.readValue(lines[0], Widget.class).getZIndex());
+        assertEquals(599, mapper.readValue(lines[499], Widget.class).getZIndex());
+    }
+
+    @Test
+    public void testFindFilteredNdjson() throws Exception {
+        repository.deleteAll();
+
+        service.create(new Widget(50, 50, 1, 100, 100));
+        service.create(new Widget(500, 50, 2, 100, 100));
+
+        var filter = new Filter();
+        filter.setXStart(0);
+        filter.setXStop(100);
+        filter.setYStart(0);
+        filter.setYStop(150);
+
+        var result = mockMvc.perform(get("/widget/filter")
+                .header("db", "false")
+                .content(mapper.writeValueAsString(filter))
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_NDJSON))
+                .andReturn();
+
+        var body = mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andReturn()
+                .getResponse()
+                .getContentAsString();
+
+        assertEquals(1, body.split("\n").length);
+        assertEquals(50, mapper.readValue(body.split("\n")[0], Widget.class).getXCoord());
+    }
+
+    @Test
+    public void testCbor() throws Exception {
+        repository.deleteAll();
+
+        var cbor = cborConverter.getObjectMapper();
+        var body = cbor.writeValueAsBytes(new Widget(1, 2, 3, 4, 5));
+
+        var created = mockMvc.perform(post("/widget")
+                .content(body)
+                .contentType(MediaType.APPLICATION_CBOR)
+                .accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andReturn()
+                .getResponse()
+                .getContentAsByteArray();
+
+        var widget = cbor.readValue(created, Widget.class);
+        assertEquals(3, widget.getZIndex());
+        assertTrue(created.length < mapper.writeValueAsBytes(widget).length);
+
+        var found = mockMvc.perform(get("/widget/" + widget.getId())
+                .header("db", "false")
+                .accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andReturn()
+                .getResponse()
+                .getContentAsByteArray();
+
+        assertEquals(widget, cbor.readValue(found, Widget.class));
+    }
+
+    @Test
+    public void testFindWidgetNotModified() throws Exception {
+        repository.deleteAll();
+
+        var widget = service.create(new Widget(1, 1, 1, 1, 1));
+
+        var etag = mockMvc.perform(get("/widget/" + widget.getId())
+                .header("db", "false"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andExpect(header().string(HttpHeaders.VARY, WidgetETag.VARY))
+                .andReturn()
+                .getResponse()
+                .getHeader(HttpHeaders.ETAG);
+
+        service.create(new Widget(1, 1, 5, 1, 1));
+
+        mockMvc.perform(get("/widget/" + widget.getId())
+                .header("db", "false")
+                .header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.VARY, WidgetETag.VARY))
+                .andExpect(content().string(""));
+
+        widget.setXCoord(2);
+        service.update(widget, widget.getId());
+
+        mockMvc.perform(get("/widget/" + widget.getId())
+                .header("db", "false")
+                .header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.VARY, WidgetETag.VARY))
+                .andExpect(jsonPath("$.x", is(2)));
+    }
+
+    @Test
+    public void testFindManyNotModified() throws Exception {
+        repository.deleteAll();
+
+        service.create(new Widget(1, 1, 1, 1, 1));
+
+        var etag = mockMvc.perform(get("/widget/many")
+                .header("db", "false"))
+                .andExpect(status().isOk())
+                .andReturn()
+                .getResponse()
+                .getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(get("/widget/many")
+                .header("db", "true")
+                .header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+
+        service.create(new Widget(1, 1, 2, 1, 1));
+
+        mockMvc.perform(get("/widget/many")
+                .header("db", "false")
+                .header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)));
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        repository.deleteAll();
+
+        var body = mapper.writeValueAsString(List.of(
+                new BatchOperation(BatchOperation.Type.CREATE, null, new Widget(1, 1, 1, 1, 1)),
+                new BatchOperation(BatchOperation.Type.CREATE, null, new Widget(2, 2, 1, 1, 1))));
+
+        mockMvc.perform(post("/widget/batch")
+                .content(body)
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].z", is(2)))
+                .andExpect(jsonPath("$[1].z", is(1)))
+                .andExpect(jsonPath("$[1].x", is(2)));
+    }
+
+    @Test
+    public void testBatchNotFound() throws Exception {
+        repository.deleteAll();
+
+        var body = mapper.writeValueAsString(List.of(
+                new BatchOperation(BatchOperation.Type.DELETE, WidgetId.random(), null)));
+
+        mockMvc.perform(post("/widget/batch")
+                .content(body)
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void testBoards() throws Exception {
+        boards.get("a").clear();
+
+        var body = mapper.writeValueAsString(new Widget(1, 1, 1, 1, 1));
+        var onDefault = mapper.readValue(mockMvc.perform(post("/widget")
+                .content(body)
+                .contentType(MediaType.APPLICATION_JSON))
+                .andReturn()
+                .getResponse()
+                .getContentAsString(), Widget.class);
+
+        for (int i = 0; i < 2; i++) {
+            mockMvc.perform(post("/board/{boardId}/widget", "a")
+                    .content(body)
+                    .contentType(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.z", is(1)));
+        }
+
+        mockMvc.perform(get("/board/{boardId}/widget/many", "a")
+                .header("db","false")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$",hasSize(2)))
+                .andExpect(jsonPath("$[1].z", is(2)));
+
+        mockMvc.perform(get("/widget/many")
+                .header("db","false")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$",hasSize(1)))
+                .andExpect(jsonPath("$[0].z", is(1)));
+
+        mockMvc.perform(get("/board/{boardId}/widget/{id}", "a", onDefault.getId())
+                .header("db","true")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(content().string(""));
+
+        mockMvc.perform(get("/board/{boardId}/widget/many", "not.a.board")
+                .header("db","false")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+
+        var boardCount = boards.all().size();
+        mockMvc.perform(get("/board/{boardId}/widget/many", "never-written")
+                .header("db","false")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$",hasSize(0)));
+        mockMvc.perform(delete("/board/{boardId}/widget/{id}", "never-written", onDefault.getId()))
+                .andExpect(status().isNotFound());
+        assertEquals(boardCount, boards.all().size());
+    }
+
     @Test
     public void testDelete() throws Exception {
         repository.deleteAll();
@@ -261,7 +567,7 @@ public class WidgetControllerTest {
 
 
         mockMvc.perform(delete("/widget")
-                .queryParam("id",widget.getId())
+                .queryParam("id",widget.getId().toString())
                 .contentType(MediaType.APPLICATION_JSON))
                 .andExpect(status().isOk());
     }
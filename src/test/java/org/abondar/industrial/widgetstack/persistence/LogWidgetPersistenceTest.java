@@ -0,0 +1,33 @@
+package org.abondar.industrial.widgetstack.persistence;
+
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LogWidgetPersistenceTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testAwaitDurable() throws Exception {
+        var persistence = new LogWidgetPersistence(dir, 60_000, true);
+
+        var widget = new Widget(1, 1, 1, 1, 1);
+        widget.setId(WidgetId.random());
+        persistence.save(widget);
+        persistence.awaitDurable();
+        persistence.destroy();
+
+        var recovered = new LogWidgetPersistence(dir, 60_000, true);
+        assertEquals(widget.getId(), recovered.takeRecovered().get(0).getId());
+        assertTrue(recovered.takeRecovered().isEmpty());
+        recovered.destroy();
+    }
+}
@@ -0,0 +1,184 @@
+package org.abondar.industrial.widgetstack.persistence;
+
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WidgetLogTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testRecover() throws Exception {
+        var first = widget(1);
+        var second = widget(2);
+
+        try (var log = new WidgetLog(dir)) {
+            assertTrue(log.recover().isEmpty());
+            log.append(first, false);
+            log.append(second, false);
+            second.setZIndex(5);
+            log.append(second, false);
+            log.append(first, true);
+        }
+
+        try (var log = new WidgetLog(dir)) {
+            var res = log.recover();
+
+            assertEquals(1, res.size());
+            assertEquals(second.getId(), res.get(0).getId());
+            assertEquals(5, res.get(0).getZIndex());
+            assertEquals(second.getLastModified(), res.get(0).getLastModified());
+        }
+    }
+
+    @Test
+    public void testRecoverNullFields() throws Exception {
+        var widget = new Widget(null, 2, 3, null, 5);
+        widget.setId(WidgetId.random());
+
+        try (var log = new WidgetLog(dir)) {
+            log.recover();
+            log.append(widget, false);
+        }
+
+        try (var log = new WidgetLog(dir)) {
+            var res = log.recover().get(0);
+
+            assertNull(res.getXCoord());
+            assertNull(res.getWidth());
+            assertNull(res.getLastModified());
+            assertEquals(5, res.getHeight());
+        }
+    }
+
+    @Test
+    public void testRecoverBoard() throws Exception {
+        var first = widget(1);
+        var second = widget(2);
+        second.setBoardId("board-2");
+
+        try (var log = new WidgetLog(dir)) {
+            log.recover();
+            log.append(first, false);
+            log.append(second, false);
+        }
+
+        try (var log = new WidgetLog(dir)) {
+            var res = log.recover();
+
+            assertEquals(Widget.DEFAULT_BOARD, res.get(0).getBoardId());
+            assertEquals("board-2", res.get(1).getBoardId());
+            assertEquals(second.getLastModified(), res.get(1).getLastModified());
+        }
+    }
+
+    @Test
+    public void testSnapshotAndTail() throws Exception {
+        var first = widget(1);
+        var second = widget(2);
+
+        try (var log = new WidgetLog(dir)) {
+            log.recover();
+            log.append(first, false);
+            var segment = log.rotate();
+            log.append(second, false);
+            log.writeSnapshot(List.of(first), segment);
+        }
+
+        try (var files = Files.list(dir)) {
+            assertEquals(2, files.count());
+        }
+
+        try (var log = new WidgetLog(dir)) {
+            var ids = log.recover().stream().map(Widget::getId).collect(Collectors.toList());
+
+            assertEquals(List.of(first.getId(), second.getId()), ids);
+        }
+    }
+
+    @Test
+    public void testTornTail() throws Exception {
+        var first = widget(1);
+        var second = widget(2);
+
+        try (var log = new WidgetLog(dir)) {
+            log.recover();
+            log.append(first, false);
+            log.append(second, false);
+        }
+
+        var segment = segment();
+        try (var ch = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            ch.truncate(ch.size() - 3);
+        }
+
+        try (var log = new WidgetLog(dir)) {
+            var res = log.recover();
+
+            assertEquals(1, res.size());
+            assertEquals(first.getId(), res.get(0).getId());
+        }
+    }
+
+    @Test
+    public void testUnsupportedVersion() throws Exception {
+        try (var log = new WidgetLog(dir)) {
+            log.recover();
+            log.append(widget(1), false);
+        }
+        setVersion(segment(), 2);
+
+        assertThrows(IOException.class, () -> new WidgetLog(dir).recover());
+    }
+
+    @Test
+    public void testUnsupportedSnapshotVersion() throws Exception {
+        try (var log = new WidgetLog(dir)) {
+            log.recover();
+            log.writeSnapshot(List.of(widget(1)), log.rotate());
+        }
+        setVersion(dir.resolve("snapshot.bin"), 2);
+
+        assertThrows(IOException.class, () -> new WidgetLog(dir).recover());
+    }
+
+    private static void setVersion(Path path, int version) throws IOException {
+        try (var ch = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            ch.write(ByteBuffer.wrap(new byte[]{(byte) version}), Integer.BYTES);
+        }
+    }
+
+    private Path segment() throws IOException {
+        try (var files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(".log"))
+                    .sorted()
+                    .findFirst()
+                    .orElseThrow();
+        }
+    }
+
+    private static Widget widget(int z) {
+        var widget = new Widget(1, 2, z, 3, 4);
+        widget.setId(WidgetId.random());
+        widget.setLastModified(new Date());
+        return widget;
+    }
+}
@@ -0,0 +1,112 @@
+package org.abondar.industrial.widgetstack.persistence;
+
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetId;
+import org.abondar.industrial.widgetstack.repository.WidgetRepository;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class WriteBehindWidgetPersistenceTest {
+
+    private final WidgetRepository repository = mock(WidgetRepository.class);
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCoalesce() throws Exception {
+        var persistence = new WriteBehindWidgetPersistence(repository, 60_000, 500, 100);
+
+        var widget = widget();
+        persistence.save(widget);
+        widget.setXCoord(5);
+        persistence.save(widget);
+        persistence.destroy();
+
+        ArgumentCaptor<Collection<Widget>> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(repository, times(1)).upsertAll(captor.capture());
+
+        var saved = List.copyOf(captor.getValue());
+        assertEquals(1, saved.size());
+        assertEquals(5, saved.get(0).getXCoord());
+    }
+
+    @Test
+    public void testDeleteSupersedesSave() throws Exception {
+        var persistence = new WriteBehindWidgetPersistence(repository, 60_000, 500, 100);
+
+        var widget = widget();
+        persistence.save(widget);
+        persistence.delete(widget);
+        persistence.destroy();
+
+        verify(repository, never()).upsertAll(anyCollection());
+        verify(repository, times(1)).deleteInBatch(anyIterable());
+    }
+
+    @Test
+    public void testFlushOnBatchSize() throws Exception {
+        var persistence = new WriteBehindWidgetPersistence(repository, 60_000, 2, 100);
+
+        persistence.save(widget());
+        persistence.save(widget());
+
+        verify(repository, timeout(1000).times(1)).upsertAll(anyCollection());
+        assertEquals(0, persistence.pending());
+        persistence.destroy();
+    }
+
+    @Test
+    public void testFlushOnInterval() throws Exception {
+        var persistence = new WriteBehindWidgetPersistence(repository, 10, 500, 100);
+
+        persistence.save(widget());
+
+        verify(repository, timeout(1000).times(1)).upsertAll(anyCollection());
+        persistence.destroy();
+    }
+
+    @Test
+    public void testRetryOnShutdown() throws Exception {
+        doThrow(new IllegalStateException("db down"))
+                .doNothing()
+                .when(repository).upsertAll(anyCollection());
+        var persistence = new WriteBehindWidgetPersistence(repository, 60_000, 500, 100);
+
+        persistence.save(widget());
+        persistence.destroy();
+
+        verify(repository, times(2)).upsertAll(anyCollection());
+        assertEquals(0, persistence.pending());
+    }
+
+    @Test
+    public void testShutdownFailsWithPendingWrites() {
+        doThrow(new IllegalStateException("db down")).when(repository).upsertAll(anyCollection());
+        var persistence = new WriteBehindWidgetPersistence(repository, 60_000, 500, 100);
+
+        persistence.save(widget());
+
+        assertThrows(IllegalStateException.class, persistence::destroy);
+        verify(repository, times(3)).upsertAll(anyCollection());
+        assertEquals(1, persistence.pending());
+    }
+
+    private static Widget widget() {
+        var widget = new Widget(1, 1, 1, 1, 1);
+        widget.setId(WidgetId.random());
+        return widget;
+    }
+}
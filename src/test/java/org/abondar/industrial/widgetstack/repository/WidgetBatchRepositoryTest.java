@@ -0,0 +1,54 @@
+package org.abondar.industrial.widgetstack.repository;
+
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest(properties = {"db-store=true", "spring.datasource.url=jdbc:h2:mem:upsert;DB_CLOSE_DELAY=-1"})
+@ExtendWith({SpringExtension.class})
+public class WidgetBatchRepositoryTest {
+
+    @Autowired
+    private WidgetRepository repository;
+
+    @BeforeEach
+    public void setUp() {
+        repository.deleteAllInBatch();
+    }
+
+    @Test
+    public void testUpsertAll() {
+        var stored = widget(1);
+        repository.upsertAll(List.of(stored));
+
+        stored.setZIndex(2);
+        var added = widget(1);
+        added.setBoardId("team");
+        repository.upsertAll(List.of(stored, added));
+
+        assertEquals(2, repository.count());
+        assertEquals(2, repository.findById(stored.getId()).orElseThrow().getZIndex());
+
+        var read = repository.findById(added.getId()).orElseThrow();
+        assertEquals(1, read.getZIndex());
+        assertEquals("team", read.getBoardId());
+        assertEquals(7, read.getWidth());
+    }
+
+    private static Widget widget(int z) {
+        var widget = new Widget(3, 4, z, 7, 8);
+        widget.setId(WidgetId.random());
+        widget.setLastModified(new Date());
+        return widget;
+    }
+}
@@ -1,31 +1,31 @@
 package org.abondar.industrial.widgetstack.service;
 
 import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetId;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 
 public class StorageTest {
 
-    private  Map<String,Widget> storage = Collections.synchronizedMap(new LinkedHashMap<>());
+    private  Map<WidgetId,Widget> storage = Collections.synchronizedMap(new LinkedHashMap<>());
 
 
     @BeforeEach
     public void setUp() {
         storage.clear();
         var widget1 = new Widget();
-        widget1.setId(UUID.randomUUID().toString());
+        widget1.setId(WidgetId.random());
         widget1.setZIndex(6);
 
         var widget2 = new Widget();
-        widget2.setId(UUID.randomUUID().toString());
+        widget2.setId(WidgetId.random());
         widget2.setZIndex(3);
 
         storage.put(widget1.getId(),widget1);
@@ -48,7 +48,7 @@ public class StorageTest {
     @Test
     public void addStorageTest() {
         var widget = new Widget();
-        widget.setId("test");
+        widget.setId(WidgetId.random());
         widget.setZIndex(3);
 
         storage.put(widget.getId(), widget);
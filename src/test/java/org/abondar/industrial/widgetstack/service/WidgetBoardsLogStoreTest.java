@@ -0,0 +1,78 @@
+package org.abondar.industrial.widgetstack.service;
+
+import org.abondar.industrial.widgetstack.WidgetStackApplication;
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.nio.file.Path;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Boards on the columnar engine survive a restart from the widget log and a compaction of
+ * it, each widget on its own board with its own z-index.
+ */
+public class WidgetBoardsLogStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private ConfigurableApplicationContext context;
+
+    @AfterEach
+    public void tearDown() {
+        if (context != null && context.isActive()) {
+            context.close();
+        }
+    }
+
+    @Test
+    public void testRestartAndCompact() throws Exception {
+        context = start();
+        var boards = context.getBean(WidgetBoards.class);
+        var first = boards.get("b1").create(new Widget(1, 1, 1, 1, 1));
+        var second = boards.get("b1").create(new Widget(2, 2, 1, 1, 1));
+        var onDefault = boards.get(null).create(new Widget(3, 3, 1, 1, 1));
+        context.close();
+
+        context = start();
+        assertBoards(first, second, onDefault, 1);
+        context.getBean(WidgetBoards.class).get(null).create(new Widget(4, 4, 5, 1, 1));
+        context.getBean(WidgetLogCompactor.class).compact();
+        context.close();
+
+        context = start();
+        assertBoards(first, second, onDefault, 2);
+    }
+
+    private void assertBoards(Widget first, Widget second, Widget onDefault, int onDefaultBoard) throws Exception {
+        var boards = context.getBean(WidgetBoards.class);
+        var board = boards.get("b1");
+        assertEquals(2, board.getStorage().size());
+        assertEquals(2, board.getById(first.getId(), false).getZIndex());
+        assertEquals(1, board.getById(second.getId(), false).getZIndex());
+
+        var defaultBoard = boards.get(null);
+        assertEquals(onDefaultBoard, defaultBoard.getStorage().size());
+        assertEquals(1, defaultBoard.getById(onDefault.getId(), false).getZIndex());
+    }
+
+    private ConfigurableApplicationContext start() {
+        return new SpringApplicationBuilder(WidgetStackApplication.class)
+                .web(WebApplicationType.NONE)
+                .run("--db-store=false",
+                        "--log-store.enabled=true",
+                        "--log-store.dir=" + dir,
+                        "--log-store.snapshot-interval=3600000",
+                        "--storage.engine=columnar",
+                        "--spring.datasource.url=jdbc:h2:mem:boards-" + UUID.randomUUID(),
+                        "--spring.h2.console.enabled=false",
+                        "--spring.main.banner-mode=off");
+    }
+}
@@ -0,0 +1,229 @@
+package org.abondar.industrial.widgetstack.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetChanges;
+import org.abondar.industrial.widgetstack.model.WidgetId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WidgetChangeFeedTest {
+
+    private static final String BOARD = Widget.DEFAULT_BOARD;
+
+    private static class CollectingSink implements WidgetChangeFeed.Sink {
+        private final List<WidgetChangeFeed.Event> events = new CopyOnWriteArrayList<>();
+        private final CountDownLatch release;
+        private volatile boolean closed;
+
+        private CollectingSink(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void send(WidgetChangeFeed.Event event) {
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            events.add(event);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private SimpleMeterRegistry registry;
+    private WidgetChangeFeed feed;
+
+    @BeforeEach
+    public void setUp() {
+        registry = new SimpleMeterRegistry();
+        feed = new WidgetChangeFeed(mapper, registry, 60_000, 2, 3, 2);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        feed.destroy();
+    }
+
+    @Test
+    public void testCoalescePerWidget() throws Exception {
+        var sink = new CollectingSink(new CountDownLatch(0));
+        feed.subscribe(BOARD, sink);
+
+        var first = widget(1);
+        var second = widget(1);
+        feed.onChange(BOARD, 1, List.of(first), List.of());
+        first.setZIndex(2);
+        feed.onChange(BOARD, 2, List.of(first, second), List.of());
+        first.setZIndex(3);
+        feed.onChange(BOARD, 3, List.of(first), List.of(second.getId()));
+        feed.flush();
+
+        await(() -> sink.events.size() == 1);
+        var event = sink.events.get(0);
+        assertEquals(WidgetChangeFeed.CHANGES, event.getName());
+        assertEquals(3, event.getVersion());
+
+        var changes = mapper.readValue(event.getData(), WidgetChanges.class);
+        assertEquals(3, changes.getVersion());
+        assertEquals(1, changes.getUpserts().size());
+        assertEquals(first.getId(), changes.getUpserts().get(0).getId());
+        assertEquals(3, changes.getUpserts().get(0).getZIndex());
+        assertEquals(List.of(second.getId()), changes.getDeletes());
+
+        feed.flush();
+        Thread.sleep(50);
+        assertEquals(1, sink.events.size());
+    }
+
+    @Test
+    public void testSlowSubscriberResynced() {
+        var release = new CountDownLatch(1);
+        var slow = new CollectingSink(release);
+        var fast = new CollectingSink(new CountDownLatch(0));
+        feed.subscribe(BOARD, slow);
+        feed.subscribe(BOARD, fast);
+
+        for (int i = 1; i <= 5; i++) {
+            feed.onChange(BOARD, i, List.of(widget(i)), List.of());
+            feed.flush();
+            var sent = i;
+            await(() -> fast.events.size() == sent);
+        }
+
+        release.countDown();
+        await(() -> slow.closed);
+
+        var last = slow.events.get(slow.events.size() - 1);
+        assertEquals(WidgetChangeFeed.RESYNC, last.getName());
+        assertTrue(slow.events.size() <= 3);
+        assertEquals(1, feed.getSubscribers());
+        assertEquals(1, registry.get("widget.changes.dropped").counter().count());
+        assertTrue(fast.events.stream().allMatch(ev -> ev.getName().equals(WidgetChangeFeed.CHANGES)));
+    }
+
+    @Test
+    public void testResetResyncsEveryone() {
+        var sink = new CollectingSink(new CountDownLatch(0));
+        feed.subscribe(BOARD, sink);
+
+        feed.onChange(BOARD, 1, List.of(widget(1)), List.of());
+        feed.onReset(BOARD, 2);
+        feed.flush();
+
+        await(() -> sink.closed);
+        assertEquals(1, sink.events.size());
+        assertEquals(WidgetChangeFeed.RESYNC, sink.events.get(0).getName());
+        assertEquals(2, sink.events.get(0).getVersion());
+        assertEquals(0, feed.getSubscribers());
+    }
+
+    @Test
+    public void testSubscribersPerBoard() throws Exception {
+        var sink = new CollectingSink(new CountDownLatch(0));
+        var other = new CollectingSink(new CountDownLatch(0));
+        feed.subscribe(BOARD, sink);
+        feed.subscribe("team", other);
+
+        var widget = widget(1);
+        feed.onChange("team", 7, List.of(widget), List.of());
+        feed.onReset(BOARD, 3);
+        feed.flush();
+
+        await(() -> sink.closed && other.events.size() == 1);
+        assertEquals(1, sink.events.size());
+        assertEquals(WidgetChangeFeed.RESYNC, sink.events.get(0).getName());
+        assertEquals(BOARD, mapper.readValue(sink.events.get(0).getData(), WidgetChanges.class).getBoardId());
+
+        var changes = mapper.readValue(other.events.get(0).getData(), WidgetChanges.class);
+        assertEquals("team", changes.getBoardId());
+        assertEquals(7, changes.getVersion());
+        assertEquals(widget.getId(), changes.getUpserts().get(0).getId());
+        assertTrue(!other.closed);
+    }
+
+    @Test
+    public void testCatchUpFirst() throws Exception {
+        var missed = widget(1);
+        var sink = new CollectingSink(new CountDownLatch(0));
+        feed.subscribe(BOARD, sink, () -> new WidgetChanges(BOARD, 4, List.of(missed), List.of(), false));
+
+        var live = widget(2);
+        feed.onChange(BOARD, 5, List.of(live), List.of());
+        feed.flush();
+        await(() -> sink.events.size() == 2);
+
+        assertEquals(WidgetChangeFeed.CHANGES, sink.events.get(0).getName());
+        assertEquals(4, sink.events.get(0).getVersion());
+        var changes = mapper.readValue(sink.events.get(0).getData(), WidgetChanges.class);
+        assertEquals(missed.getId(), changes.getUpserts().get(0).getId());
+        assertEquals(5, sink.events.get(1).getVersion());
+        assertTrue(!sink.closed);
+    }
+
+    @Test
+    public void testCatchUpResync() {
+        var sink = new CollectingSink(new CountDownLatch(0));
+        feed.subscribe(BOARD, sink, () -> new WidgetChanges(BOARD, 9, List.of(), List.of(), true));
+        await(() -> sink.closed);
+
+        feed.onChange(BOARD, 10, List.of(widget(1)), List.of());
+        feed.flush();
+
+        assertEquals(1, sink.events.size());
+        assertEquals(WidgetChangeFeed.RESYNC, sink.events.get(0).getName());
+        assertEquals(9, sink.events.get(0).getVersion());
+        assertEquals(0, feed.getSubscribers());
+    }
+
+    @Test
+    public void testSubscriberLimit() {
+        var first = feed.subscribe(BOARD, new CollectingSink(new CountDownLatch(0)));
+        feed.subscribe(BOARD, new CollectingSink(new CountDownLatch(0)));
+        feed.subscribe(BOARD, new CollectingSink(new CountDownLatch(0)));
+        assertThrows(RejectedExecutionException.class,
+                () -> feed.subscribe(BOARD, new CollectingSink(new CountDownLatch(0))));
+
+        first.cancel();
+        feed.subscribe(BOARD, new CollectingSink(new CountDownLatch(0)));
+        assertEquals(3, feed.getSubscribers());
+    }
+
+    private static Widget widget(int z) {
+        var widget = new Widget(1, 1, z, 1, 1);
+        widget.setId(WidgetId.random());
+        return widget;
+    }
+
+    private static void await(BooleanSupplier condition) {
+        var deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Condition not met in time");
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.abondar.industrial.widgetstack.service;
+
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetId;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WidgetChangeLogTest {
+
+    private static final String BOARD = Widget.DEFAULT_BOARD;
+
+    @Test
+    public void testSinceCoalesces() {
+        var log = new WidgetChangeLog(100);
+        var first = widget(1);
+        var second = widget(2);
+
+        log.onChange(BOARD, 1, List.of(first), List.of());
+        first.setZIndex(2);
+        log.onChange(BOARD, 2, List.of(first, second), List.of());
+        log.onChange(BOARD, 3, List.of(), List.of(second.getId()));
+
+        var all = log.since(BOARD, 0);
+        assertEquals(3, all.getVersion());
+        assertFalse(all.isResync());
+        assertEquals(1, all.getUpserts().size());
+        assertEquals(2, all.getUpserts().get(0).getZIndex());
+        assertEquals(List.of(second.getId()), all.getDeletes());
+
+        var last = log.since(BOARD, 2);
+        assertTrue(last.getUpserts().isEmpty());
+        assertEquals(List.of(second.getId()), last.getDeletes());
+
+        var none = log.since(BOARD, 3);
+        assertTrue(none.getUpserts().isEmpty());
+        assertTrue(none.getDeletes().isEmpty());
+
+        assertNull(log.since(BOARD, 4));
+    }
+
+    @Test
+    public void testEvictionRaisesFloor() {
+        var log = new WidgetChangeLog(3);
+        log.onChange(BOARD, 1, List.of(widget(1)), List.of());
+        log.onChange(BOARD, 2, List.of(widget(2), widget(3)), List.of());
+        assertEquals(0, log.getFloor(BOARD));
+
+        log.onChange(BOARD, 3, List.of(widget(4)), List.of());
+        assertEquals(1, log.getFloor(BOARD));
+        assertNull(log.since(BOARD, 0));
+        assertEquals(3, log.since(BOARD, 1).getUpserts().size());
+
+        log.onChange(BOARD, 4, List.of(widget(5)), List.of());
+        assertEquals(2, log.getFloor(BOARD));
+        assertNull(log.since(BOARD, 1));
+        assertEquals(2, log.since(BOARD, 2).getUpserts().size());
+    }
+
+    @Test
+    public void testResetStartsOver() {
+        var log = new WidgetChangeLog(10);
+        log.onChange(BOARD, 1, List.of(widget(1)), List.of());
+        log.onReset(BOARD, 2);
+
+        assertNull(log.since(BOARD, 1));
+        assertTrue(log.since(BOARD, 2).getUpserts().isEmpty());
+
+        log.onChange(BOARD, 3, List.of(widget(1)), List.of());
+        assertEquals(1, log.since(BOARD, 2).getUpserts().size());
+    }
+
+    @Test
+    public void testBoardsSeparate() {
+        var log = new WidgetChangeLog(100);
+        for (int i = 1; i <= 40; i++) {
+            log.onChange("team", i, List.of(widget(i)), List.of());
+        }
+        log.onChange(BOARD, 1, List.of(widget(1)), List.of());
+        log.onReset("other", 5);
+
+        assertEquals(40, log.since("team", 0).getUpserts().size());
+        assertEquals("team", log.since("team", 0).getBoardId());
+        assertEquals(10, log.since("team", 30).getUpserts().size());
+        assertEquals(1, log.since(BOARD, 0).getUpserts().size());
+        assertEquals(1, log.getVersion(BOARD));
+        assertNull(log.since("other", 0));
+        assertTrue(log.since("other", 5).getUpserts().isEmpty());
+        assertTrue(log.since("unused", 0).getUpserts().isEmpty());
+        assertNull(log.since("unused", 1));
+    }
+
+    private static Widget widget(int z) {
+        var widget = new Widget(1, 1, z, 1, 1);
+        widget.setId(WidgetId.random());
+        return widget;
+    }
+}
@@ -0,0 +1,68 @@
+package org.abondar.industrial.widgetstack.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetId;
+import org.abondar.industrial.widgetstack.persistence.WidgetPersistence;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class WidgetDbCacheTest {
+
+    private final WidgetPersistence persistence = mock(WidgetPersistence.class);
+    private final WidgetDbCache cache = new WidgetDbCache(true, 100, persistence, new SimpleMeterRegistry());
+
+    @Test
+    public void testNotCachedWhilePending() {
+        var id = WidgetId.random();
+        var loads = new AtomicInteger();
+
+        when(persistence.pending()).thenReturn(1);
+        cache.getWidget(id, 1, () -> load(loads));
+        cache.getWidget(id, 1, () -> load(loads));
+        assertEquals(2, loads.get());
+
+        when(persistence.pending()).thenReturn(0);
+        cache.getWidget(id, 1, () -> load(loads));
+        cache.getWidget(id, 1, () -> load(loads));
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    public void testInvalidatePerBoard() {
+        var loads = new AtomicInteger();
+        List<Object> onA = List.of("a", "page", 0, 10);
+        List<Object> onB = List.of("b", "page", 0, 10);
+
+        cache.getPage(onA, 1, () -> List.of(load(loads)));
+        cache.getPage(onB, 1, () -> List.of(load(loads)));
+        cache.invalidate("b", List.of());
+
+        cache.getPage(onA, 1, () -> List.of(load(loads)));
+        assertEquals(2, loads.get());
+        cache.getPage(onB, 1, () -> List.of(load(loads)));
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    public void testDisabled() {
+        var disabled = new WidgetDbCache(false, 100, persistence, new SimpleMeterRegistry());
+        var loads = new AtomicInteger();
+        List<Object> key = List.of("a", "page", 0, 10);
+
+        disabled.getPage(key, 1, () -> List.of(load(loads)));
+        disabled.getPage(key, 1, () -> List.of(load(loads)));
+        assertEquals(2, loads.get());
+    }
+
+    private static Widget load(AtomicInteger loads) {
+        loads.incrementAndGet();
+        return new Widget(1, 1, 1, 1, 1);
+    }
+}
@@ -0,0 +1,98 @@
+package org.abondar.industrial.widgetstack.service;
+
+import org.abondar.industrial.widgetstack.model.Filter;
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.repository.WidgetRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Region reads with db=true against a real H2 database. One widget is moved into the region
+ * in the DB only, so the results show the region queries ran instead of the store.
+ */
+@SpringBootTest(properties = {"db-store=true", "db-cache.enabled=false",
+        "spring.datasource.url=jdbc:h2:mem:region;DB_CLOSE_DELAY=-1"})
+@ExtendWith({SpringExtension.class})
+public class WidgetRegionDbTest {
+
+    @Autowired
+    private WidgetService service;
+
+    @Autowired
+    private WidgetRepository repository;
+
+    private Filter filter;
+
+    @BeforeEach
+    public void setUp() {
+        service.clear();
+        repository.deleteAllInBatch();
+
+        Widget third = null;
+        for (int z = 1; z <= 30; z++) {
+            var widget = service.create(new Widget(z % 2 == 0 ? 10 : 500, 10, z, 5, 5));
+            if (z == 3) {
+                third = widget;
+            }
+        }
+
+        var moved = repository.findById(third.getId()).orElseThrow();
+        moved.setXCoord(20);
+        repository.save(moved);
+
+        filter = new Filter();
+        filter.setXStop(100);
+        filter.setYStop(100);
+    }
+
+    @Test
+    public void testFindInRegion() throws Exception {
+        assertEquals(List.of(2, 4, 6), zs(service.getFilteredWidgets(0, 3, false, filter)));
+        assertEquals(List.of(2, 3, 4), zs(service.getFilteredWidgets(0, 3, true, filter)));
+        assertEquals(List.of(6, 8, 10), zs(service.getFilteredWidgets(3, 3, true, filter)));
+    }
+
+    @Test
+    public void testFindInRegionAfter() throws Exception {
+        assertEquals(List.of(3, 4, 6), zs(service.getFilteredWidgetsAfter(2, 3, true, filter)));
+        assertEquals(List.of(28, 30), zs(service.getFilteredWidgetsAfter(26, 3, true, filter)));
+    }
+
+    @Test
+    public void testStreamInRegion() {
+        assertEquals(List.of(3, 4, 6), zs(stream(1, null, 3)));
+        assertEquals(List.of(3, 4, 6, 8), zs(stream(0, 2, 4)));
+        assertEquals(16, stream(0, null, Integer.MAX_VALUE).size());
+    }
+
+    @Test
+    public void testFindInNarrowRegion() throws Exception {
+        service.create(new Widget(10, 10, 40, 20, 5));
+        filter.setXStart(90);
+
+        assertEquals(List.of(), zs(service.getFilteredWidgetsAfter(30, 3, false, filter)));
+        assertEquals(List.of(), zs(service.getFilteredWidgetsAfter(30, 3, true, filter)));
+        assertEquals(List.of(28, 30), zs(service.getFilteredWidgets(14, 3, true, filter)));
+        assertEquals(List.of(30), zs(stream(0, 29, 3)));
+    }
+
+    private List<Widget> stream(int offset, Integer afterZ, int limit) {
+        List<Widget> res = new ArrayList<>();
+        service.streamFilteredWidgets(offset, afterZ, limit, true, filter, res::add);
+        return res;
+    }
+
+    private static List<Integer> zs(List<Widget> widgets) {
+        return widgets.stream().map(Widget::getZIndex).collect(Collectors.toList());
+    }
+}
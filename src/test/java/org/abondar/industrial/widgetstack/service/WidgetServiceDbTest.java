@@ -1,6 +1,9 @@
 package org.abondar.industrial.widgetstack.service;
 
+import org.abondar.industrial.widgetstack.model.BatchOperation;
+import org.abondar.industrial.widgetstack.model.Filter;
 import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetId;
 import org.abondar.industrial.widgetstack.repository.WidgetRepository;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -9,15 +12,23 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -33,9 +44,18 @@ public class WidgetServiceDbTest {
     @Autowired
     private WidgetService service;
 
+    @Autowired
+    private WidgetStorageLoader loader;
+
+    @Autowired
+    private WidgetBoards boards;
+
+    @Autowired
+    private WidgetDbCache dbCache;
+
     @Test
     public void testCreate() {
-        service.getStorage().clear();
+        service.clear();
 
         var widget = new Widget(1, 1, 1, 1, 1);
         when(repository.save(widget)).thenReturn(widget);
@@ -47,7 +67,7 @@ public class WidgetServiceDbTest {
 
     @Test
     public void testUpdate() throws Exception {
-        service.getStorage().clear();
+        service.clear();
 
         var widget = new Widget(1, 1, 1, 1, 1);
         when(repository.save(widget)).thenReturn(widget);
@@ -65,10 +85,11 @@ public class WidgetServiceDbTest {
 
     @Test
     public void testFindById() {
-        when(repository.findById("test")).thenReturn(Optional.of(new Widget()));
+        var id = WidgetId.random();
+        when(repository.findById(id)).thenReturn(Optional.of(new Widget()));
 
-        service.getById("test", true);
-        verify(repository, times(1)).findById("test");
+        service.getById(id, true);
+        verify(repository, times(1)).findById(id);
     }
 
     @Test
@@ -83,6 +104,44 @@ public class WidgetServiceDbTest {
         assertEquals(widget.getId(), res.getId());
     }
 
+    @Test
+    public void testFindByIdCached() throws Exception {
+        service.clear();
+
+        var widget = service.create(new Widget(1, 1, 1, 1, 1));
+        when(repository.findById(widget.getId())).thenReturn(Optional.of(new Widget(widget)));
+        var hits = dbCache.widgetStats().hitCount();
+
+        service.getById(widget.getId(), true);
+        service.getById(widget.getId(), true).setXCoord(100);
+        assertEquals(1, service.getById(widget.getId(), true).getXCoord());
+
+        verify(repository, times(1)).findById(widget.getId());
+        assertEquals(hits + 2, dbCache.widgetStats().hitCount());
+
+        widget.setXCoord(2);
+        service.update(widget, widget.getId());
+        service.getById(widget.getId(), true);
+
+        verify(repository, times(2)).findById(widget.getId());
+    }
+
+    @Test
+    public void testGetWidgetsCached() throws Exception {
+        service.clear();
+
+        var widget = service.create(new Widget(1, 1, 1, 1, 1));
+        when(repository.findOnBoard(eq(Widget.DEFAULT_BOARD), any(Pageable.class))).thenReturn(List.of(widget));
+
+        service.getWidgets(0, 7, true);
+        service.getWidgets(0, 7, true);
+        verify(repository, times(1)).findOnBoard(eq(Widget.DEFAULT_BOARD), any(Pageable.class));
+
+        service.create(new Widget(1, 1, 2, 1, 1));
+        service.getWidgets(0, 7, true);
+        verify(repository, times(2)).findOnBoard(eq(Widget.DEFAULT_BOARD), any(Pageable.class));
+    }
+
     @Test
     public void testGetWidgets() {
         var widget = new Widget(1, 1, 1, 1, 1);
@@ -100,9 +159,103 @@ public class WidgetServiceDbTest {
 
     }
 
+    @Test
+    public void testGetFilteredWidgets() throws Exception {
+        var widget = new Widget(50, 50, 1, 100, 100);
+        when(repository.findInRegion(eq(Widget.DEFAULT_BOARD), eq(100), eq(150), eq(100), eq(150), any(Pageable.class)))
+                .thenReturn(List.of(widget));
+
+        var filter = new Filter();
+        filter.setXStart(0);
+        filter.setXStop(100);
+        filter.setYStart(0);
+        filter.setYStop(150);
+
+        var res = service.getFilteredWidgets(0, 10, true, filter);
+
+        assertEquals(List.of(widget), res);
+        verify(repository, never()).findOnBoard(any(), any(Pageable.class));
+    }
+
+    @Test
+    public void testStreamWidgets() {
+        var widgets = List.of(new Widget(1, 1, 1, 1, 1), new Widget(1, 1, 2, 1, 1), new Widget(1, 1, 3, 1, 1));
+        when(repository.streamFrom(Widget.DEFAULT_BOARD, Integer.MIN_VALUE)).thenReturn(widgets.stream());
+
+        List<Widget> res = new ArrayList<>();
+        service.streamWidgets(1, null, 5, true, res::add);
+
+        assertEquals(widgets.subList(1, 3), res);
+        verify(repository, never()).findOnBoard(any(), any(Pageable.class));
+    }
+
+    @Test
+    public void testApplyBatch() throws Exception {
+        service.clear();
+
+        var first = service.create(new Widget(1, 1, 1, 1, 1));
+        var second = service.create(new Widget(1, 1, 2, 1, 1));
+
+        service.applyBatch(List.of(
+                new BatchOperation(BatchOperation.Type.CREATE, null, new Widget(1, 1, 1, 1, 1)),
+                new BatchOperation(BatchOperation.Type.CREATE, null, new Widget(1, 1, 1, 1, 1)),
+                new BatchOperation(BatchOperation.Type.DELETE, second.getId(), null)));
+
+        verify(repository, times(1)).deleteInBatch(anyIterable());
+        verify(repository, times(1)).upsertAll(anyCollection());
+        assertEquals(3, service.getById(first.getId(), false).getZIndex());
+    }
+
+    @Test
+    public void testLoad() {
+        var widget = new Widget(1, 1, 1, 1, 1);
+        widget.setId(WidgetId.random());
+        var widget1 = new Widget(1, 1, 5, 1, 1);
+        widget1.setId(WidgetId.random());
+        when(repository.streamAll()).thenReturn(Stream.of(widget, widget1));
+
+        loader.afterSingletonsInstantiated();
+
+        assertEquals(2, service.getStorage().size());
+        assertEquals(widget1.getId(), service.getStorage().top().getId());
+    }
+
+    @Test
+    public void testLoadRepairsZ() {
+        var widget = new Widget(1, 1, 2, 1, 1);
+        widget.setId(WidgetId.random());
+        var widget1 = new Widget(1, 1, 2, 1, 1);
+        widget1.setId(WidgetId.random());
+        when(repository.streamAll()).thenReturn(Stream.of(widget, widget1));
+
+        loader.afterSingletonsInstantiated();
+
+        assertEquals(2, service.getById(widget.getId(), false).getZIndex());
+        assertEquals(3, service.getById(widget1.getId(), false).getZIndex());
+        verify(repository, times(1)).upsertAll(anyCollection());
+    }
+
+    @Test
+    public void testLoadBoards() throws Exception {
+        var widget = new Widget(1, 1, 1, 1, 1);
+        widget.setId(WidgetId.random());
+        var other = new Widget(1, 1, 1, 1, 1);
+        other.setId(WidgetId.random());
+        other.setBoardId("db-board");
+        when(repository.streamAll()).thenReturn(Stream.of(widget, other));
+
+        loader.afterSingletonsInstantiated();
+
+        assertEquals(1, service.getStorage().size());
+        assertNull(service.getById(other.getId(), false));
+        var board = boards.get("db-board");
+        assertEquals(1, board.getStorage().size());
+        assertEquals(1, board.getById(other.getId(), false).getZIndex());
+    }
+
     @Test
     public void testDelete() throws Exception {
-        service.getStorage().clear();
+        service.clear();
 
         var widget = new Widget(1, 1, 1, 1, 1);
         when(repository.save(widget)).thenReturn(widget);
@@ -0,0 +1,202 @@
+package org.abondar.industrial.widgetstack.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.abondar.industrial.widgetstack.exception.WidgetNotFoundException;
+import org.abondar.industrial.widgetstack.model.Filter;
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetId;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs random interleaved creates (explicit and implicit z), updates, deletes and reads
+ * against a service from many threads and checks the store contract afterwards: z-indexes
+ * unique, every listing strictly ordered by z, the live ids exactly those created and not
+ * deleted, and the storage engine holding the same content as the published snapshot.
+ */
+@Slf4j
+class WidgetServiceStress {
+
+    private static final int Z_RANGE = 1000;
+    private static final int COORD_RANGE = 100;
+
+    private final WidgetService service;
+    private final int threads;
+    private final int opsPerThread;
+
+    private final Set<WidgetId> created = ConcurrentHashMap.newKeySet();
+    private final Set<WidgetId> deleting = ConcurrentHashMap.newKeySet();
+    private final Set<WidgetId> deleted = ConcurrentHashMap.newKeySet();
+    private final List<WidgetId> known = new CopyOnWriteArrayList<>();
+    private final Queue<String> violations = new ConcurrentLinkedQueue<>();
+    private final AtomicLong ops = new AtomicLong();
+
+    WidgetServiceStress(WidgetService service, int threads, int opsPerThread) {
+        this.service = service;
+        this.threads = threads;
+        this.opsPerThread = opsPerThread;
+    }
+
+    /**
+     * Seeds the store with initial widgets, so implicit z never starts from an empty store,
+     * runs the operations and checks the invariants.
+     *
+     * @return operations per second
+     */
+    double run(int initial, long seed) throws Exception {
+        service.clear();
+        for (int i = 0; i < initial; i++) {
+            track(service.create(widget(new Random(seed + i), i)));
+        }
+
+        var pool = Executors.newFixedThreadPool(threads);
+        var start = new CountDownLatch(1);
+        List<Throwable> failures = new CopyOnWriteArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            var random = new Random(seed * 31 + t);
+            pool.execute(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < opsPerThread; i++) {
+                        operation(random);
+                        ops.incrementAndGet();
+                    }
+                } catch (Throwable ex) {
+                    failures.add(ex);
+                }
+            });
+        }
+
+        var began = System.nanoTime();
+        start.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.MINUTES), "Stress run did not finish");
+        var seconds = (System.nanoTime() - began) / 1e9;
+
+        assertTrue(failures.isEmpty(), () -> "Operations failed: " + failures);
+        checkInvariants();
+
+        var opsPerSecond = ops.get() / seconds;
+        log.info("{} ops on {} threads in {} ms: {} ops/s", ops.get(), threads,
+                Math.round(seconds * 1000), Math.round(opsPerSecond));
+        return opsPerSecond;
+    }
+
+    private void operation(Random random) throws Exception {
+        var dice = random.nextInt(100);
+        if (dice < 15) {
+            track(service.create(widget(random, random.nextInt(Z_RANGE))));
+        } else if (dice < 25) {
+            track(service.create(widget(random, null)));
+        } else if (dice < 40) {
+            var id = pick(random);
+            var widget = widget(random, random.nextInt(Z_RANGE));
+            widget.setId(id);
+            widget.setLastModified(new Date());
+            try {
+                service.update(widget, id);
+            } catch (WidgetNotFoundException ex) {
+                expectDeleted(id);
+            }
+        } else if (dice < 55) {
+            var id = pick(random);
+            deleting.add(id);
+            try {
+                service.delete(id);
+                deleted.add(id);
+            } catch (WidgetNotFoundException ex) {
+                expectDeleted(id);
+            }
+        } else if (dice < 80) {
+            checkOrdered("page", service.getWidgets(random.nextInt(Z_RANGE), 100, false));
+        } else if (dice < 95) {
+            var filter = new Filter();
+            filter.setXStop(random.nextInt(COORD_RANGE) + 1);
+            filter.setYStop(random.nextInt(COORD_RANGE) + 1);
+            checkOrdered("filter", service.getFilteredWidgets(0, 100, false, filter));
+        } else {
+            var id = pick(random);
+            var widget = service.getById(id, false);
+            if (widget != null && !widget.getId().equals(id)) {
+                violations.add("getById " + id + " returned " + widget.getId());
+            }
+        }
+    }
+
+    /**
+     * An update or delete may only miss a widget that a delete went for.
+     */
+    private void expectDeleted(WidgetId id) {
+        if (!deleting.contains(id)) {
+            violations.add("Widget " + id + " not found, but never deleted");
+        }
+    }
+
+    private void checkOrdered(String query, List<Widget> widgets) {
+        for (int i = 1; i < widgets.size(); i++) {
+            if (widgets.get(i - 1).getZIndex() >= widgets.get(i).getZIndex()) {
+                violations.add(query + " not strictly ordered by z: " + widgets);
+                return;
+            }
+        }
+    }
+
+    private void checkInvariants() {
+        assertTrue(violations.isEmpty(), () -> "Violations during run: " + violations);
+
+        var widgets = service.snapshot(() -> { });
+        checkOrdered("snapshot", widgets);
+        assertTrue(violations.isEmpty(), () -> "Snapshot violations: " + violations);
+
+        Set<Integer> zs = new HashSet<>();
+        widgets.forEach(wd -> assertTrue(zs.add(wd.getZIndex()), "Duplicate z-index " + wd.getZIndex()));
+
+        Set<WidgetId> live = new HashSet<>(created);
+        live.removeAll(deleted);
+        assertEquals(live, widgets.stream().map(Widget::getId).collect(Collectors.toSet()));
+
+        assertEquals(byId(widgets), byId(new ArrayList<>(service.getStorage().values())));
+        assertEquals(widgets.size(), service.getStorage().size());
+    }
+
+    /**
+     * Widgets by id, with everything but the last modification time, which the DB keeps
+     * at a coarser precision.
+     */
+    static Map<WidgetId, List<Integer>> byId(List<Widget> widgets) {
+        return widgets.stream().collect(Collectors.toMap(Widget::getId, wd -> List.of(wd.getXCoord(),
+                wd.getYCoord(), wd.getZIndex(), wd.getWidth(), wd.getHeight())));
+    }
+
+    private void track(Widget widget) {
+        created.add(widget.getId());
+        known.add(widget.getId());
+    }
+
+    private WidgetId pick(Random random) {
+        return known.get(random.nextInt(known.size()));
+    }
+
+    private static Widget widget(Random random, Integer z) {
+        return new Widget(random.nextInt(COORD_RANGE), random.nextInt(COORD_RANGE), z,
+                random.nextInt(COORD_RANGE) + 1, random.nextInt(COORD_RANGE) + 1);
+    }
+}
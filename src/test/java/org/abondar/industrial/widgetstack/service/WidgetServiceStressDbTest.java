@@ -0,0 +1,36 @@
+package org.abondar.industrial.widgetstack.service;
+
+import org.abondar.industrial.widgetstack.repository.WidgetRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The stress run with db-store on a private in-memory DB: afterwards the widget table must
+ * hold exactly what the store holds.
+ */
+@SpringBootTest(properties = {"db-store=true", "spring.datasource.url=jdbc:h2:mem:stress;DB_CLOSE_DELAY=-1"})
+@ExtendWith({SpringExtension.class})
+public class WidgetServiceStressDbTest {
+
+    @Autowired
+    private WidgetService service;
+
+    @Autowired
+    private WidgetRepository repository;
+
+    @Test
+    public void testConcurrentOperationsMatchDb() throws Exception {
+        repository.deleteAllInBatch();
+        var stress = new WidgetServiceStress(service, 8, 250);
+
+        stress.run(50, 3);
+
+        assertEquals(WidgetServiceStress.byId(service.snapshot(() -> { })),
+                WidgetServiceStress.byId(repository.findAll()));
+    }
+}
@@ -0,0 +1,31 @@
+package org.abondar.industrial.widgetstack.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@ExtendWith({SpringExtension.class})
+public class WidgetServiceStressTest {
+
+    @Autowired
+    private WidgetService service;
+
+    @Test
+    public void testConcurrentOperations() throws Exception {
+        var stress = new WidgetServiceStress(service, 16, 1000);
+
+        assertTrue(stress.run(200, 1) > 0);
+    }
+
+    @Test
+    public void testConcurrentOperationsFewThreads() throws Exception {
+        var stress = new WidgetServiceStress(service, 2, 5000);
+
+        assertTrue(stress.run(10, 2) > 0);
+    }
+}
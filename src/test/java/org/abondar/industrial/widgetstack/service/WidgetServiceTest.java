@@ -1,16 +1,22 @@
 package org.abondar.industrial.widgetstack.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.abondar.industrial.widgetstack.exception.NullAtrributeException;
 import org.abondar.industrial.widgetstack.exception.TooManyWidgetsException;
 import org.abondar.industrial.widgetstack.exception.WidgetNotFoundException;
+import org.abondar.industrial.widgetstack.exception.ZIndexOverflowException;
+import org.abondar.industrial.widgetstack.model.BatchOperation;
 import org.abondar.industrial.widgetstack.model.Filter;
 import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetId;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -24,9 +30,12 @@ public class WidgetServiceTest {
     @Autowired
     private WidgetService service;
 
+    @Autowired
+    private MeterRegistry registry;
+
     @Test
     public void testCreate() {
-        service.getStorage().clear();
+        service.clear();
 
         var widget = new Widget(1, 1, 1, 1, 1);
 
@@ -39,7 +48,7 @@ public class WidgetServiceTest {
 
     @Test
     public void testCreateNullZ() {
-        service.getStorage().clear();
+        service.clear();
 
         var widget = new Widget(1, 1, 1, 1, 1);
         service.create(widget);
@@ -52,19 +61,48 @@ public class WidgetServiceTest {
 
     @Test
     public void testCreateNullZEmptyStorage() {
-        service.getStorage().clear();
+        service.clear();
 
         var widget = new Widget(1, 1, null, 1, 1);
 
         widget = service.create(widget);
 
-        assertEquals(Integer.MAX_VALUE, widget.getZIndex());
+        assertEquals(0, widget.getZIndex());
     }
 
+    @Test
+    public void testCreateZOverflow() throws Exception {
+        service.clear();
+
+        var low = service.create(new Widget(1, 1, 5, 1, 1));
+        var below = service.create(new Widget(1, 1, Integer.MAX_VALUE - 1, 1, 1));
+        var top = service.create(new Widget(1, 1, Integer.MAX_VALUE, 1, 1));
+
+        assertThrows(ZIndexOverflowException.class, () -> service.create(new Widget(1, 1, null, 1, 1)));
+        assertThrows(ZIndexOverflowException.class, () -> service.create(new Widget(1, 1, Integer.MAX_VALUE - 1, 1, 1)));
+
+        var moved = new Widget(low);
+        moved.setXCoord(2);
+        moved.setZIndex(Integer.MAX_VALUE - 1);
+        assertThrows(ZIndexOverflowException.class, () -> service.update(moved, low.getId()));
+        assertThrows(ZIndexOverflowException.class, () -> service.applyBatch(List.of(
+                new BatchOperation(BatchOperation.Type.DELETE, low.getId(), null),
+                new BatchOperation(BatchOperation.Type.CREATE, null, new Widget(2, 2, Integer.MAX_VALUE, 1, 1)))));
+
+        var res = service.getWidgets(0, 10, false);
+        assertEquals(3, res.size());
+        assertEquals(low.getId(), res.get(0).getId());
+        assertEquals(below.getId(), res.get(1).getId());
+        assertEquals(top.getId(), res.get(2).getId());
+        assertEquals(3, service.getStorage().size());
+        assertEquals(low.getId(), service.getStorage().getByZIndex(5).getId());
+        assertEquals(1, service.getById(low.getId(), false).getXCoord());
+        assertEquals(top.getId(), service.getStorage().getByZIndex(Integer.MAX_VALUE).getId());
+    }
 
     @Test
     public void testFindById() {
-        service.getStorage().clear();
+        service.clear();
 
         var widget = new Widget(1, 1, 1, 1, 1);
         widget = service.create(widget);
@@ -75,7 +113,7 @@ public class WidgetServiceTest {
 
     @Test
     public void testUpdate() throws Exception {
-        service.getStorage().clear();
+        service.clear();
 
         var widget = new Widget(1, 1, 1, 1, 1);
         widget = service.create(widget);
@@ -95,7 +133,7 @@ public class WidgetServiceTest {
 
     @Test
     public void testUpdateNullAttr() {
-        service.getStorage().clear();
+        service.clear();
 
         var widget = new Widget(1, 1, 1, 1, 1);
         var res = service.create(widget);
@@ -109,13 +147,13 @@ public class WidgetServiceTest {
         var widget = new Widget(1, 1, 1, 1, 1);
         var res = service.create(widget);
 
-        res.setId("test");
+        res.setId(WidgetId.random());
         assertThrows(WidgetNotFoundException.class, () -> service.update(res,res.getId()));
     }
 
     @Test
     public void testGetWidgets() throws Exception {
-        service.getStorage().clear();
+        service.clear();
 
         var widget = new Widget(1, 1, 1, 1, 1);
         widget = service.create(widget);
@@ -135,9 +173,41 @@ public class WidgetServiceTest {
 
     }
 
+    @Test
+    public void testReadsReturnCopies() throws Exception {
+        service.clear();
+
+        var widget = service.create(new Widget(1, 1, 1, 1, 1));
+
+        service.getById(widget.getId(), false).setXCoord(10);
+        service.getWidgets(0, 1, false).get(0).setZIndex(10);
+
+        var res = service.getById(widget.getId(), false);
+        assertEquals(1, res.getXCoord());
+        assertEquals(1, res.getZIndex());
+    }
+
+    @Test
+    public void testCreateShiftsOnlyUpToGap() throws Exception {
+        service.clear();
+
+        var bottom = service.create(new Widget(1, 1, 1, 1, 1));
+        var top = service.create(new Widget(1, 1, 5, 1, 1));
+        var inserted = service.create(new Widget(1, 1, 1, 1, 1));
+
+        var res = service.getWidgets(0, 3, false);
+
+        assertEquals(inserted.getId(), res.get(0).getId());
+        assertEquals(1, res.get(0).getZIndex());
+        assertEquals(bottom.getId(), res.get(1).getId());
+        assertEquals(2, res.get(1).getZIndex());
+        assertEquals(top.getId(), res.get(2).getId());
+        assertEquals(5, res.get(2).getZIndex());
+    }
+
     @Test
     public void testGetFiltered()throws Exception {
-        service.getStorage().clear();
+        service.clear();
 
         var widget = new Widget(50, 50, 1, 100, 100);
         service.create(widget);
@@ -162,9 +232,49 @@ public class WidgetServiceTest {
 
     }
 
+    @Test
+    public void testGetFilteredNotSquare() throws Exception {
+        service.clear();
+
+        var fits = service.create(new Widget(60, 10, 1, 100, 50));
+        service.create(new Widget(60, 10, 2, 120, 50));
+
+        var filter = new Filter();
+        filter.setXStart(50);
+        filter.setXStop(150);
+        filter.setYStart(0);
+        filter.setYStop(300);
+
+        var res = service.getFilteredWidgets(0, 3, false, filter);
+
+        assertEquals(1, res.size());
+        assertEquals(fits.getId(), res.get(0).getId());
+    }
+
+    @Test
+    public void testGetFilteredBeyondPage() throws Exception {
+        service.clear();
+
+        for (int i = 0; i < 10; i++) {
+            service.create(new Widget(500, 500, i, 10, 10));
+        }
+        var widget = service.create(new Widget(10, 10, 20, 10, 10));
+
+        var filter = new Filter();
+        filter.setXStart(0);
+        filter.setXStop(100);
+        filter.setYStart(0);
+        filter.setYStop(100);
+
+        var res = service.getFilteredWidgets(0, 3, false, filter);
+
+        assertEquals(1, res.size());
+        assertEquals(widget.getId(), res.get(0).getId());
+    }
+
     @Test
     public void testGetWidgetsOffset() throws Exception {
-        service.getStorage().clear();
+        service.clear();
 
         var widget = new Widget(1, 1, 1, 1, 1);
         widget = service.create(widget);
@@ -181,6 +291,21 @@ public class WidgetServiceTest {
 
     }
 
+    @Test
+    public void testGetWidgetsAfter() throws Exception {
+        service.clear();
+
+        for (int i = 0; i < 5; i++) {
+            service.create(new Widget(1, 1, i * 10, 1, 1));
+        }
+
+        var res = service.getWidgetsAfter(10, 2, false);
+
+        assertEquals(2, res.size());
+        assertEquals(20, res.get(0).getZIndex());
+        assertEquals(30, res.get(1).getZIndex());
+    }
+
     @Test
     public void testGetWidgetsMaxLimit() {
         assertThrows(TooManyWidgetsException.class, () -> service.getWidgets(0, 600, false));
@@ -188,7 +313,7 @@ public class WidgetServiceTest {
 
     @Test
     public void testDelete() throws Exception{
-        service.getStorage().clear();
+        service.clear();
 
         var widget = new Widget(1, 1, 1, 1, 1);
         widget = service.create(widget);
@@ -198,11 +323,80 @@ public class WidgetServiceTest {
 
     }
 
+    @Test
+    public void testApplyBatch() throws Exception {
+        service.clear();
+
+        var existing = service.create(new Widget(1, 1, 1, 1, 1));
+        var removed = service.create(new Widget(1, 1, 5, 1, 1));
+
+        existing.setXCoord(7);
+        var res = service.applyBatch(List.of(
+                new BatchOperation(BatchOperation.Type.CREATE, null, new Widget(2, 2, 1, 1, 1)),
+                new BatchOperation(BatchOperation.Type.UPDATE, existing.getId(), existing),
+                new BatchOperation(BatchOperation.Type.DELETE, removed.getId(), null)));
+
+        assertEquals(3, res.size());
+        assertEquals(2, res.get(0).getZIndex());
+        assertEquals(7, res.get(1).getXCoord());
+        assertEquals(1, res.get(1).getZIndex());
+        assertEquals(removed.getId(), res.get(2).getId());
+        assertEquals(5, res.get(2).getZIndex());
+        assertEquals(2, service.getStorage().size());
+        assertEquals(1, service.getById(existing.getId(), false).getZIndex());
+        assertEquals(2, service.getById(res.get(0).getId(), false).getZIndex());
+    }
+
+    @Test
+    public void testApplyBatchIsAtomic() {
+        service.clear();
+
+        var widget = service.create(new Widget(1, 1, 1, 1, 1));
+
+        assertThrows(WidgetNotFoundException.class, () -> service.applyBatch(List.of(
+                new BatchOperation(BatchOperation.Type.CREATE, null, new Widget(2, 2, 1, 1, 1)),
+                new BatchOperation(BatchOperation.Type.DELETE, widget.getId(), null),
+                new BatchOperation(BatchOperation.Type.DELETE, widget.getId(), null))));
+
+        assertEquals(1, service.getStorage().size());
+        assertEquals(1, service.getById(widget.getId(), false).getZIndex());
+    }
+
     @Test
     public void testDeleteNotFound() {
 
-        assertThrows(WidgetNotFoundException.class,()-> service.delete("test"));
+        assertThrows(WidgetNotFoundException.class,()-> service.delete(WidgetId.random()));
 
     }
 
+    @Test
+    public void testMeters() throws Exception {
+        service.clear();
+
+        var shifted = registry.get("widget.shifted").summary();
+        var writeHeld = registry.get("widget.lock.held").tag("lock", "write").timer();
+        var pages = registry.get("widget.page.size").tag("query", "page").summary();
+        var selectivity = registry.get("widget.filter.selectivity").summary();
+
+        var shiftedTotal = shifted.totalAmount();
+        var writes = writeHeld.count();
+        var pageTotal = pages.totalAmount();
+        var filters = selectivity.count();
+
+        service.create(new Widget(1, 1, 1, 1, 1));
+        service.create(new Widget(1, 1, 2, 1, 1));
+        service.create(new Widget(1, 1, 1, 1, 1));
+        service.getWidgets(0, 10, false);
+
+        var filter = new Filter();
+        filter.setXStop(10);
+        filter.setYStop(10);
+        service.getFilteredWidgets(0, 10, false, filter);
+
+        assertEquals(2, shifted.totalAmount() - shiftedTotal);
+        assertEquals(3, writeHeld.count() - writes);
+        assertEquals(3, pages.totalAmount() - pageTotal);
+        assertEquals(1, selectivity.count() - filters);
+        assertEquals(3, registry.get("widget.storage.size").gauge().value());
+    }
 }
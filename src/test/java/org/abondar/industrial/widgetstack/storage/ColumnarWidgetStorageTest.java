@@ -0,0 +1,9 @@
+package org.abondar.industrial.widgetstack.storage;
+
+public class ColumnarWidgetStorageTest extends WidgetStorageTest {
+
+    @Override
+    protected WidgetStorage createStorage() {
+        return new ColumnarWidgetStorage(false, 16);
+    }
+}
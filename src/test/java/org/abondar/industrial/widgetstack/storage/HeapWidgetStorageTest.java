@@ -0,0 +1,9 @@
+package org.abondar.industrial.widgetstack.storage;
+
+public class HeapWidgetStorageTest extends WidgetStorageTest {
+
+    @Override
+    protected WidgetStorage createStorage() {
+        return new HeapWidgetStorage();
+    }
+}
@@ -0,0 +1,73 @@
+package org.abondar.industrial.widgetstack.storage;
+
+import org.abondar.industrial.widgetstack.model.WidgetId;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IdSlotMapTest {
+
+    private final IdSlotMap map = new IdSlotMap();
+
+    @Test
+    public void testPutGetRemove() {
+        List<WidgetId> ids = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            var id = WidgetId.random();
+            ids.add(id);
+            assertEquals(IdSlotMap.MISSING, map.put(id, i));
+        }
+
+        for (int i = 0; i < ids.size(); i += 2) {
+            assertEquals(i, map.remove(ids.get(i)));
+        }
+
+        assertEquals(5_000, map.size());
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(i % 2 == 0 ? IdSlotMap.MISSING : i, map.get(ids.get(i)));
+        }
+    }
+
+    @Test
+    public void testReplace() {
+        var id = WidgetId.random();
+        map.put(id, 1);
+
+        assertEquals(1, map.put(new WidgetId(id.getHigh(), id.getLow()), 2));
+        assertEquals(2, map.get(id));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void testSequentialIds() {
+        for (int i = 0; i < 1000; i++) {
+            map.put(new WidgetId(0, i), i);
+        }
+        for (int i = 0; i < 1000; i += 3) {
+            map.remove(new WidgetId(0, i));
+        }
+
+        Set<Integer> slots = new HashSet<>();
+        map.slots().forEachRemaining((int slot) -> slots.add(slot));
+
+        assertEquals(map.size(), slots.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i % 3 == 0 ? IdSlotMap.MISSING : i, map.get(new WidgetId(0, i)));
+        }
+    }
+
+    @Test
+    public void testClear() {
+        map.put(WidgetId.random(), 1);
+        map.clear();
+
+        assertTrue(map.isEmpty());
+        assertTrue(!map.slots().hasNext());
+    }
+}
@@ -0,0 +1,9 @@
+package org.abondar.industrial.widgetstack.storage;
+
+public class OffHeapWidgetStorageTest extends WidgetStorageTest {
+
+    @Override
+    protected WidgetStorage createStorage() {
+        return new ColumnarWidgetStorage(true, 16);
+    }
+}
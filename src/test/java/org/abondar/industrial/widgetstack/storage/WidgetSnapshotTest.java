@@ -0,0 +1,196 @@
+package org.abondar.industrial.widgetstack.storage;
+
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetId;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WidgetSnapshotTest {
+
+    @Test
+    public void testPage() {
+        var zs = IntStream.range(0, 1000).boxed().collect(Collectors.toList());
+        Collections.shuffle(zs);
+        var snapshot = WidgetSnapshot.EMPTY.apply(
+                zs.stream().map(z -> widget(z * 2, 1, 1)).collect(Collectors.toList()), List.of());
+
+        assertEquals(List.of(200, 202, 204), zs(snapshot.page(100, 3)));
+        assertEquals(List.of(202, 204, 206), zs(snapshot.pageAfter(201, 3)));
+        assertTrue(snapshot.page(1000, 3).isEmpty());
+        assertTrue(snapshot.pageAfter(1998, 3).isEmpty());
+        assertEquals(1998, snapshot.top().getZIndex());
+        assertEquals(1000, snapshot.size());
+    }
+
+    @Test
+    public void testFindBelow() {
+        List<Widget> widgets = new ArrayList<>();
+        for (int z = 0; z < 500; z++) {
+            widgets.add(widget(z, z % 50 * 20, z % 7 * 150));
+        }
+        var snapshot = WidgetSnapshot.EMPTY.apply(widgets, List.of());
+
+        var expected = widgets.stream()
+                .filter(wd -> wd.getXCoord() < 300 && wd.getYCoord() < 400 && wd.getZIndex() % 3 == 0)
+                .map(Widget::getZIndex)
+                .collect(Collectors.toList());
+
+        var res = snapshot.findBelow(300, 400, wd -> wd.getZIndex() % 3 == 0, 2, 5);
+        assertEquals(expected.subList(2, 7), zs(res));
+
+        var after = snapshot.findBelowAfter(300, 400, wd -> wd.getZIndex() % 3 == 0, expected.get(6), 3);
+        assertEquals(expected.subList(7, 10), zs(after));
+    }
+
+    @Test
+    public void testFindBelowScattered() {
+        var random = new Random(7);
+        List<Widget> widgets = new ArrayList<>();
+        for (int z = 0; z < 5000; z++) {
+            widgets.add(widget(z, random.nextInt(2_000_000) - 1_000_000, random.nextInt(2_000_000) - 1_000_000));
+        }
+        var snapshot = WidgetSnapshot.EMPTY.apply(widgets, List.of());
+
+        List<Widget> moved = new ArrayList<>();
+        for (int i = 2; i < widgets.size(); i += 10) {
+            var widget = new Widget(widgets.get(i));
+            widget.setXCoord(random.nextInt(2_000_000) - 1_000_000);
+            moved.add(widget);
+        }
+        snapshot = snapshot.apply(moved, List.of(widgets.get(0).getId(), widgets.get(1).getId()));
+        var current = snapshot.values();
+
+        for (var stop : new int[]{-999_000, -500_000, 0, 1_000_000}) {
+            var expected = current.stream()
+                    .filter(wd -> wd.getXCoord() < stop && wd.getYCoord() < stop / 2 && wd.getZIndex() % 2 == 0)
+                    .map(Widget::getZIndex)
+                    .collect(Collectors.toList());
+
+            assertEquals(expected, zs(snapshot.findBelow(stop, stop / 2, wd -> wd.getZIndex() % 2 == 0,
+                    0, Integer.MAX_VALUE)));
+            assertEquals(expected.subList(Math.min(3, expected.size()), Math.min(8, expected.size())),
+                    zs(snapshot.findBelow(stop, stop / 2, wd -> wd.getZIndex() % 2 == 0, 3, 5)));
+            if (expected.size() > 4) {
+                assertEquals(expected.subList(4, Math.min(9, expected.size())),
+                        zs(snapshot.findBelowAfter(stop, stop / 2, wd -> wd.getZIndex() % 2 == 0, expected.get(3), 5)));
+            }
+        }
+    }
+
+    @Test
+    public void testVersionsAreIsolated() {
+        var widget = widget(1, 1, 1);
+        var first = WidgetSnapshot.EMPTY.apply(List.of(widget), List.of());
+
+        widget.setZIndex(2);
+        widget.setXCoord(5);
+        var second = first.apply(List.of(widget), List.of());
+        var third = second.apply(List.of(), List.of(widget.getId()));
+
+        assertEquals(1, first.get(widget.getId()).getZIndex());
+        assertEquals(1, first.get(widget.getId()).getXCoord());
+        assertEquals(List.of(2), zs(second.values()));
+        assertNull(third.get(widget.getId()));
+        assertTrue(third.isEmpty());
+        assertEquals(3, third.getVersion());
+        assertEquals(1, first.getVersion(widget.getId()));
+        assertEquals(2, second.getVersion(widget.getId()));
+        assertEquals(-1, third.getVersion(widget.getId()));
+    }
+
+    @Test
+    public void testReturnsCopies() {
+        var widget = widget(1, 1, 1);
+        var snapshot = WidgetSnapshot.EMPTY.apply(List.of(widget), List.of());
+
+        snapshot.get(widget.getId()).setXCoord(100);
+        snapshot.page(0, 1).get(0).setZIndex(100);
+
+        assertEquals(1, snapshot.get(widget.getId()).getXCoord());
+        assertEquals(1, snapshot.top().getZIndex());
+    }
+
+    @Test
+    public void testKeepsMissingFieldsAndBoard() {
+        var widget = new Widget(null, 1, 1, null, 10);
+        widget.setId(WidgetId.random());
+        var snapshot = WidgetSnapshot.empty("b1").apply(List.of(widget), List.of());
+
+        var stored = snapshot.get(widget.getId());
+        assertNull(stored.getXCoord());
+        assertNull(stored.getWidth());
+        assertNull(stored.getLastModified());
+        assertEquals(10, stored.getHeight());
+        assertEquals("b1", stored.getBoardId());
+        assertEquals("b1", snapshot.page(0, 1).get(0).getBoardId());
+        assertTrue(snapshot.findBelow(Integer.MAX_VALUE, Integer.MAX_VALUE, wd -> true, 0, 1).isEmpty());
+    }
+
+    @Test
+    public void testFindBelowAfterMove() {
+        var widget = widget(1, 1, 1);
+        var first = WidgetSnapshot.EMPTY.apply(List.of(widget), List.of());
+
+        var moved = new Widget(widget);
+        moved.setXCoord(5000);
+        var second = first.apply(List.of(moved), List.of());
+
+        assertTrue(second.findBelow(100, 100, wd -> true, 0, 10).isEmpty());
+        assertEquals(1, second.findBelow(6000, 100, wd -> true, 0, 10).size());
+        assertEquals(1, first.findBelow(100, 100, wd -> true, 0, 10).size());
+    }
+
+    @Test
+    public void testRandomOperations() {
+        var random = new Random(42);
+        Map<WidgetId, Widget> expected = new HashMap<>();
+        Map<Integer, WidgetId> byZ = new HashMap<>();
+        var snapshot = WidgetSnapshot.EMPTY;
+
+        for (int i = 0; i < 20_000; i++) {
+            var z = random.nextInt(2000);
+            var holder = byZ.get(z);
+            if (holder != null) {
+                expected.remove(holder);
+                byZ.remove(z);
+                snapshot = snapshot.apply(List.of(), List.of(holder));
+            } else {
+                var widget = widget(z, random.nextInt(1000), random.nextInt(1000));
+                expected.put(widget.getId(), widget);
+                byZ.put(z, widget.getId());
+                snapshot = snapshot.apply(List.of(widget), List.of());
+            }
+        }
+
+        assertEquals(expected.size(), snapshot.size());
+        for (var wd : expected.values()) {
+            assertEquals(wd, snapshot.get(wd.getId()));
+        }
+        assertEquals(expected.values().stream().map(Widget::getZIndex).sorted().collect(Collectors.toList()),
+                zs(snapshot.values()));
+    }
+
+    private static List<Integer> zs(List<Widget> widgets) {
+        return widgets.stream().map(Widget::getZIndex).collect(Collectors.toList());
+    }
+
+    private static Widget widget(int z, int x, int y) {
+        var widget = new Widget(x, y, z, 10, 10);
+        widget.setId(WidgetId.random());
+        widget.setLastModified(new Date());
+        return widget;
+    }
+}
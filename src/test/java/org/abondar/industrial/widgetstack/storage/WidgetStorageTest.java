@@ -0,0 +1,235 @@
+package org.abondar.industrial.widgetstack.storage;
+
+import org.abondar.industrial.widgetstack.exception.ZIndexOverflowException;
+import org.abondar.industrial.widgetstack.model.Widget;
+import org.abondar.industrial.widgetstack.model.WidgetId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public abstract class WidgetStorageTest {
+
+    private final WidgetStorage storage = createStorage();
+
+    protected abstract WidgetStorage createStorage();
+
+    @BeforeEach
+    public void setUp() {
+        storage.clear();
+    }
+
+    @Test
+    public void testPage() {
+        var zs = IntStream.range(0, 1000).boxed().collect(Collectors.toList());
+        Collections.shuffle(zs);
+        zs.forEach(z -> storage.put(widget(z * 2)));
+
+        var res = storage.page(100, 5);
+
+        assertEquals(5, res.size());
+        assertEquals(List.of(200, 202, 204, 206, 208),
+                res.stream().map(Widget::getZIndex).collect(Collectors.toList()));
+        assertEquals(1998, storage.top().getZIndex());
+    }
+
+    @Test
+    public void testPageOutOfRange() {
+        storage.put(widget(1));
+
+        assertTrue(storage.page(1, 10).isEmpty());
+    }
+
+    @Test
+    public void testPageAfter() {
+        var zs = IntStream.range(0, 1000).boxed().collect(Collectors.toList());
+        Collections.shuffle(zs);
+        zs.forEach(z -> storage.put(widget(z * 2)));
+
+        assertEquals(List.of(202, 204, 206),
+                storage.pageAfter(200, 3).stream().map(Widget::getZIndex).collect(Collectors.toList()));
+        assertEquals(List.of(202, 204, 206),
+                storage.pageAfter(201, 3).stream().map(Widget::getZIndex).collect(Collectors.toList()));
+        assertTrue(storage.pageAfter(1998, 3).isEmpty());
+        assertTrue(storage.pageAfter(Integer.MAX_VALUE, 3).isEmpty());
+    }
+
+    @Test
+    public void testShiftFrom() {
+        var low = widget(1);
+        var mid = widget(3);
+        var high = widget(4);
+        storage.put(low);
+        storage.put(mid);
+        storage.put(high);
+
+        var shifted = storage.shiftFrom(3);
+
+        assertEquals(List.of(mid.getId(), high.getId()), ids(shifted));
+        assertEquals(List.of(4, 5), shifted.stream().map(Widget::getZIndex).collect(Collectors.toList()));
+        assertEquals(1, storage.get(low.getId()).getZIndex());
+        assertEquals(4, storage.get(mid.getId()).getZIndex());
+        assertEquals(5, storage.get(high.getId()).getZIndex());
+        assertEquals(mid.getId(), storage.getByZIndex(4).getId());
+        assertNull(storage.getByZIndex(3));
+        assertEquals(high.getId(), storage.top().getId());
+    }
+
+    @Test
+    public void testShiftStopsAtGap() {
+        var first = widget(1);
+        var second = widget(2);
+        var detached = widget(5);
+        storage.put(first);
+        storage.put(second);
+        storage.put(detached);
+
+        assertEquals(2, storage.shiftFrom(1).size());
+
+        assertEquals(2, storage.get(first.getId()).getZIndex());
+        assertEquals(3, storage.get(second.getId()).getZIndex());
+        assertEquals(5, storage.get(detached.getId()).getZIndex());
+        assertNull(storage.getByZIndex(1));
+    }
+
+    @Test
+    public void testShiftOverflow() {
+        var below = widget(Integer.MAX_VALUE - 1);
+        var top = widget(Integer.MAX_VALUE);
+        storage.put(below);
+        storage.put(top);
+
+        assertThrows(ZIndexOverflowException.class, () -> storage.shiftFrom(Integer.MAX_VALUE - 1));
+
+        assertEquals(below.getId(), storage.getByZIndex(Integer.MAX_VALUE - 1).getId());
+        assertEquals(top.getId(), storage.getByZIndex(Integer.MAX_VALUE).getId());
+        assertEquals(List.of(below.getId(), top.getId()), ids(storage.page(0, 10)));
+    }
+
+    @Test
+    public void testShiftFreeZ() {
+        storage.put(widget(3));
+
+        assertTrue(storage.shiftFrom(2).isEmpty());
+        assertEquals(3, storage.top().getZIndex());
+    }
+
+    @Test
+    public void testRemoveTop() {
+        var low = widget(1);
+        var high = widget(7);
+        storage.put(low);
+        storage.put(high);
+
+        storage.remove(high.getId());
+
+        assertEquals(low, storage.top());
+        assertEquals(1, storage.size());
+    }
+
+    @Test
+    public void testRemoveAndReuse() {
+        List<Widget> widgets = IntStream.range(0, 100)
+                .mapToObj(WidgetStorageTest::widget)
+                .collect(Collectors.toList());
+        widgets.forEach(storage::put);
+
+        for (int z = 0; z < 100; z += 2) {
+            storage.remove(widgets.get(z).getId());
+        }
+        for (int z = 100; z < 150; z++) {
+            storage.put(widget(z));
+        }
+
+        assertEquals(100, storage.size());
+        assertEquals(List.of(1, 3, 5), storage.page(0, 3).stream()
+                .map(Widget::getZIndex)
+                .collect(Collectors.toList()));
+        assertEquals(149, storage.top().getZIndex());
+        assertNull(storage.get(widgets.get(0).getId()));
+        assertEquals(widgets.get(1), storage.get(widgets.get(1).getId()));
+    }
+
+    @Test
+    public void testNullFields() {
+        var wd = widget(1);
+        wd.setWidth(null);
+        wd.setLastModified(null);
+        storage.put(wd);
+
+        var res = storage.get(wd.getId());
+
+        assertNull(res.getWidth());
+        assertNull(res.getLastModified());
+        assertEquals(1, res.getHeight());
+    }
+
+    @Test
+    public void testPutMovesZ() {
+        var wd = widget(1);
+        storage.put(wd);
+
+        var moved = new Widget(wd);
+        moved.setZIndex(10);
+        storage.put(moved);
+
+        assertNull(storage.getByZIndex(1));
+        assertEquals(moved, storage.getByZIndex(10));
+        assertEquals(1, storage.page(0, 10).size());
+    }
+
+    @Test
+    public void testLoad() {
+        var zs = IntStream.range(0, 1000).boxed().collect(Collectors.toList());
+        Collections.shuffle(zs);
+        var widgets = zs.stream().map(WidgetStorageTest::widget).collect(Collectors.toList());
+
+        var repaired = storage.load(widgets);
+
+        assertTrue(repaired.isEmpty());
+        assertEquals(1000, storage.size());
+        assertEquals(999, storage.top().getZIndex());
+        assertEquals(List.of(500, 501), storage.page(500, 2).stream()
+                .map(Widget::getZIndex)
+                .collect(Collectors.toList()));
+
+        storage.put(widget(1000));
+        storage.remove(widgets.get(0).getId());
+        assertEquals(1000, storage.size());
+        assertEquals(1000, storage.top().getZIndex());
+    }
+
+    @Test
+    public void testLoadRepairsDuplicateZ() {
+        var first = widget(1);
+        var second = widget(1);
+        var third = widget(2);
+
+        var repaired = storage.load(List.of(first, second, third));
+
+        assertEquals(2, repaired.size());
+        assertEquals(List.of(1, 2, 3), storage.page(0, 3).stream()
+                .map(Widget::getZIndex)
+                .collect(Collectors.toList()));
+    }
+
+    private static Widget widget(int z) {
+        var wd = new Widget(0, 0, z, 1, 1);
+        wd.setId(WidgetId.random());
+        wd.setLastModified(new Date());
+        return wd;
+    }
+
+    private static List<WidgetId> ids(List<Widget> widgets) {
+        return widgets.stream().map(Widget::getId).collect(Collectors.toList());
+    }
+}